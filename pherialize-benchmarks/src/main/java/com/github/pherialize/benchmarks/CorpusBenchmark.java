@@ -0,0 +1,125 @@
+package com.github.pherialize.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.pherialize.Mixed;
+import com.github.pherialize.Serializer;
+import com.github.pherialize.Unserializer;
+
+
+/**
+ * Benchmarks unserializing and serializing synthetic corpora of different
+ * shapes created by the {@link CorpusGenerator}.
+ *
+ * @version $Revision$
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CorpusBenchmark
+{
+    /** The charset */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The seed of the corpus */
+    private static final long SEED = 0x5eedL;
+
+    /** The shape of the corpus */
+    @Param({ "flat", "nested", "text", "objects", "references" })
+    public String shape;
+
+    /** The number of top-level entries */
+    @Param({ "10000" })
+    public int entries;
+
+    /** The serialized corpus */
+    private byte[] bytes;
+
+    /** The unserialized corpus */
+    private Mixed value;
+
+
+    /**
+     * Creates the generator for the specified shape.
+     *
+     * @param shape
+     *            The name of the shape
+     * @return The generator
+     */
+
+    static CorpusGenerator createGenerator(final String shape)
+    {
+        CorpusGenerator generator;
+
+        generator = new CorpusGenerator(SEED);
+        if ("flat".equals(shape))
+            return generator.setMaxDepth(1).setNumericShare(0.8);
+        if ("nested".equals(shape))
+            return generator.setMaxDepth(8).setContainerShare(0.3)
+                .setMeanKeys(3);
+        if ("text".equals(shape))
+            return generator.setNumericShare(0.1).setMeanStringLength(64)
+                .setUtf8Share(0.5);
+        if ("objects".equals(shape))
+            return generator.setContainerShare(0.3).setObjectShare(0.8)
+                .setMeanKeys(4);
+        if ("references".equals(shape))
+            return generator.setReferenceShare(0.2);
+        throw new IllegalArgumentException("Unknown shape: " + shape);
+    }
+
+
+    /**
+     * Generates the corpus.
+     */
+
+    @Setup
+    public void setup()
+    {
+        this.bytes = createGenerator(this.shape).generate(this.entries);
+        this.value = new Unserializer(this.bytes, UTF8).unserializeObject();
+    }
+
+
+    /**
+     * Unserializes the corpus.
+     *
+     * @return The unserialized data
+     */
+
+    @Benchmark
+    public Mixed unserialize()
+    {
+        return new Unserializer(this.bytes, UTF8).unserializeObject();
+    }
+
+
+    /**
+     * Serializes the unserialized corpus again.
+     *
+     * @return The serialized data
+     */
+
+    @Benchmark
+    public byte[] serialize()
+    {
+        return new Serializer(UTF8).serializeToBytes(this.value);
+    }
+}
@@ -0,0 +1,521 @@
+package com.github.pherialize.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+
+/**
+ * Generates synthetic PHP serialized data with a tunable shape. The output is
+ * written directly in the PHP serialize format (without the Serializer) and
+ * depends only on the seed and the settings, so the same corpus can be
+ * regenerated anywhere instead of checking in fixtures. Because the data is
+ * streamed, corpora of any size can be written to files.
+ *
+ * The generated value is a top-level list of entries. Each value is either a
+ * container (an array with integer or string keys, or an object) or a
+ * scalar (integer, double, boolean, null or string) or a reference (R:) to
+ * one of the recently completed values.
+ *
+ * Large corpora can be written to a file from the command line:
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.github.pherialize.benchmarks.CorpusGenerator \
+ *     ENTRIES FILE [SEED]
+ * </pre>
+ *
+ * @version $Revision$
+ */
+
+public class CorpusGenerator
+{
+    /** The charset of the strings */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Non-ASCII characters used in UTF-8 strings */
+    private static final String NON_ASCII = "äöüßéèçñøå€日本語中文한국어Ωπ";
+
+    /** The class names of generated objects */
+    private static final String[] CLASS_NAMES = { "User", "Order", "Item",
+        "Address", "Session" };
+
+    /** The number of recently completed values which can be referenced */
+    private static final int REFERENCE_WINDOW = 1024;
+
+    /** The seed of the random generator */
+    private final long seed;
+
+    /** The mean number of keys of arrays and objects */
+    private int meanKeys = 8;
+
+    /** The maximum nesting depth below the top-level list */
+    private int maxDepth = 4;
+
+    /** The probability that a value is an array or object */
+    private double containerShare = 0.2;
+
+    /** The probability that a container is an object */
+    private double objectShare = 0.2;
+
+    /** The probability that an array has string keys */
+    private double stringKeyShare = 0.7;
+
+    /** The mean length of strings in characters */
+    private int meanStringLength = 16;
+
+    /** The probability that a string contains non-ASCII characters */
+    private double utf8Share = 0.1;
+
+    /** The probability that a scalar is a number */
+    private double numericShare = 0.5;
+
+    /** The probability that a value is a reference */
+    private double referenceShare = 0.0;
+
+    /** The random generator of the current run */
+    private Random random;
+
+    /** The stream to write to */
+    private OutputStream out;
+
+    /** The number of values numbered so far (like PHP numbers them) */
+    private int valueCount;
+
+    /** The numbers of recently completed values */
+    private final int[] recent = new int[REFERENCE_WINDOW];
+
+    /** The number of completed values stored in recent */
+    private int recentCount;
+
+
+    /**
+     * Constructor
+     *
+     * @param seed
+     *            The seed of the random generator
+     */
+
+    public CorpusGenerator(final long seed)
+    {
+        this.seed = seed;
+    }
+
+
+    /**
+     * Writes a corpus with the default shape to a file.
+     *
+     * @param args
+     *            The number of entries, the file name and optionally the
+     *            seed
+     * @throws IOException
+     *             When writing fails
+     */
+
+    public static void main(final String[] args) throws IOException
+    {
+        FileOutputStream stream;
+
+        if (args.length < 2)
+        {
+            System.err.println("Usage: CorpusGenerator ENTRIES FILE [SEED]");
+            System.exit(1);
+        }
+        stream = new FileOutputStream(args[1]);
+        try
+        {
+            new CorpusGenerator(args.length > 2 ? Long.parseLong(args[2]) : 0)
+                .generate(Integer.parseInt(args[0]), stream);
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+
+    /**
+     * Sets the mean number of keys of arrays and objects. The key count is
+     * uniformly distributed between 0 and twice the mean.
+     *
+     * @param meanKeys
+     *            The mean number of keys
+     * @return This generator
+     */
+
+    public CorpusGenerator setMeanKeys(final int meanKeys)
+    {
+        this.meanKeys = meanKeys;
+        return this;
+    }
+
+
+    /**
+     * Sets the maximum nesting depth below the top-level list.
+     *
+     * @param maxDepth
+     *            The maximum nesting depth
+     * @return This generator
+     */
+
+    public CorpusGenerator setMaxDepth(final int maxDepth)
+    {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+
+    /**
+     * Sets the probability that a value is an array or object (as long as
+     * the maximum depth is not reached).
+     *
+     * @param containerShare
+     *            The probability between 0 and 1
+     * @return This generator
+     */
+
+    public CorpusGenerator setContainerShare(final double containerShare)
+    {
+        this.containerShare = containerShare;
+        return this;
+    }
+
+
+    /**
+     * Sets the probability that a container is an object (O:) instead of an
+     * array.
+     *
+     * @param objectShare
+     *            The probability between 0 and 1
+     * @return This generator
+     */
+
+    public CorpusGenerator setObjectShare(final double objectShare)
+    {
+        this.objectShare = objectShare;
+        return this;
+    }
+
+
+    /**
+     * Sets the probability that an array has string keys instead of integer
+     * keys.
+     *
+     * @param stringKeyShare
+     *            The probability between 0 and 1
+     * @return This generator
+     */
+
+    public CorpusGenerator setStringKeyShare(final double stringKeyShare)
+    {
+        this.stringKeyShare = stringKeyShare;
+        return this;
+    }
+
+
+    /**
+     * Sets the mean length of strings in characters. The length is uniformly
+     * distributed between 0 and twice the mean.
+     *
+     * @param meanStringLength
+     *            The mean length
+     * @return This generator
+     */
+
+    public CorpusGenerator setMeanStringLength(final int meanStringLength)
+    {
+        this.meanStringLength = meanStringLength;
+        return this;
+    }
+
+
+    /**
+     * Sets the probability that a string contains non-ASCII characters.
+     *
+     * @param utf8Share
+     *            The probability between 0 and 1
+     * @return This generator
+     */
+
+    public CorpusGenerator setUtf8Share(final double utf8Share)
+    {
+        this.utf8Share = utf8Share;
+        return this;
+    }
+
+
+    /**
+     * Sets the probability that a scalar is a number (integer or double)
+     * instead of a string, boolean or null.
+     *
+     * @param numericShare
+     *            The probability between 0 and 1
+     * @return This generator
+     */
+
+    public CorpusGenerator setNumericShare(final double numericShare)
+    {
+        this.numericShare = numericShare;
+        return this;
+    }
+
+
+    /**
+     * Sets the probability that a value is a reference (R:) to one of the
+     * recently completed values.
+     *
+     * @param referenceShare
+     *            The probability between 0 and 1
+     * @return This generator
+     */
+
+    public CorpusGenerator setReferenceShare(final double referenceShare)
+    {
+        this.referenceShare = referenceShare;
+        return this;
+    }
+
+
+    /**
+     * Generates a corpus in memory.
+     *
+     * @param entries
+     *            The number of entries of the top-level list
+     * @return The serialized corpus
+     */
+
+    public byte[] generate(final int entries)
+    {
+        ByteArrayOutputStream stream;
+
+        stream = new ByteArrayOutputStream();
+        try
+        {
+            generate(entries, stream);
+        }
+        catch (final IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return stream.toByteArray();
+    }
+
+
+    /**
+     * Generates a corpus and writes it to the specified stream.
+     *
+     * @param entries
+     *            The number of entries of the top-level list
+     * @param stream
+     *            The stream to write to. Not closed
+     * @throws IOException
+     *             When writing fails
+     */
+
+    public void generate(final int entries, final OutputStream stream)
+        throws IOException
+    {
+        this.random = new Random(this.seed);
+        this.out = new BufferedOutputStream(stream, 65536);
+        this.valueCount = 1;
+        this.recentCount = 0;
+        write("a:" + entries + ":{");
+        for (int i = 0; i < entries; i++)
+        {
+            write("i:" + i + ";");
+            writeValue(0);
+        }
+        write("}");
+        this.out.flush();
+        this.out = null;
+    }
+
+
+    /**
+     * Writes a random value.
+     *
+     * @param depth
+     *            The nesting depth of the value
+     * @throws IOException
+     *             When writing fails
+     */
+
+    private void writeValue(final int depth) throws IOException
+    {
+        int number;
+
+        if (this.recentCount > 0 && this.random.nextDouble() < this.referenceShare)
+        {
+            // References are not numbered themselves
+            write("R:" + this.recent[this.random.nextInt(Math.min(
+                this.recentCount, REFERENCE_WINDOW))] + ";");
+            return;
+        }
+
+        number = ++this.valueCount;
+        if (depth < this.maxDepth && this.random.nextDouble() < this.containerShare)
+        {
+            if (this.random.nextDouble() < this.objectShare)
+                writeObject(depth);
+            else
+                writeArray(depth);
+        }
+        else
+        {
+            writeScalar();
+        }
+        this.recent[this.recentCount++ % REFERENCE_WINDOW] = number;
+    }
+
+
+    /**
+     * Writes a random array.
+     *
+     * @param depth
+     *            The nesting depth of the array
+     * @throws IOException
+     *             When writing fails
+     */
+
+    private void writeArray(final int depth) throws IOException
+    {
+        int count;
+        boolean stringKeys;
+
+        count = this.random.nextInt(2 * this.meanKeys + 1);
+        stringKeys = this.random.nextDouble() < this.stringKeyShare;
+        write("a:" + count + ":{");
+        for (int i = 0; i < count; i++)
+        {
+            if (stringKeys)
+                writeString("key" + i);
+            else
+                write("i:" + i + ";");
+            writeValue(depth + 1);
+        }
+        write("}");
+    }
+
+
+    /**
+     * Writes a random object.
+     *
+     * @param depth
+     *            The nesting depth of the object
+     * @throws IOException
+     *             When writing fails
+     */
+
+    private void writeObject(final int depth) throws IOException
+    {
+        String className;
+        int count;
+
+        className = CLASS_NAMES[this.random.nextInt(CLASS_NAMES.length)];
+        count = this.random.nextInt(2 * this.meanKeys + 1);
+        write("O:" + className.length() + ":\"" + className + "\":" + count
+            + ":{");
+        for (int i = 0; i < count; i++)
+        {
+            writeString("property" + i);
+            writeValue(depth + 1);
+        }
+        write("}");
+    }
+
+
+    /**
+     * Writes a random scalar.
+     *
+     * @throws IOException
+     *             When writing fails
+     */
+
+    private void writeScalar() throws IOException
+    {
+        int choice;
+
+        if (this.random.nextDouble() < this.numericShare)
+        {
+            if (this.random.nextBoolean())
+                write("i:" + (this.random.nextInt(2000001) - 1000000) + ";");
+            else
+                write("d:" + (this.random.nextInt(10000000) / 100.0) + ";");
+            return;
+        }
+        choice = this.random.nextInt(10);
+        if (choice == 0)
+            write("N;");
+        else if (choice == 1)
+            write("b:" + (this.random.nextBoolean() ? 1 : 0) + ";");
+        else
+            writeString(randomString());
+    }
+
+
+    /**
+     * Creates a random string.
+     *
+     * @return The string
+     */
+
+    private String randomString()
+    {
+        StringBuilder builder;
+        int length;
+        boolean utf8;
+
+        length = this.random.nextInt(2 * this.meanStringLength + 1);
+        utf8 = this.random.nextDouble() < this.utf8Share;
+        builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+        {
+            if (utf8 && this.random.nextInt(4) == 0)
+                builder.append(NON_ASCII.charAt(this.random.nextInt(NON_ASCII.length())));
+            else
+                builder.append((char) ('a' + this.random.nextInt(26)));
+        }
+        return builder.toString();
+    }
+
+
+    /**
+     * Writes a string value.
+     *
+     * @param string
+     *            The string
+     * @throws IOException
+     *             When writing fails
+     */
+
+    private void writeString(final String string) throws IOException
+    {
+        byte[] bytes;
+
+        bytes = string.getBytes(UTF8);
+        write("s:" + bytes.length + ":\"");
+        this.out.write(bytes);
+        write("\";");
+    }
+
+
+    /**
+     * Writes ASCII text.
+     *
+     * @param text
+     *            The text
+     * @throws IOException
+     *             When writing fails
+     */
+
+    private void write(final String text) throws IOException
+    {
+        for (int i = 0, max = text.length(); i < max; i++)
+        {
+            this.out.write(text.charAt(i));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.pherialize.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.pherialize.Mixed;
+import com.github.pherialize.MixedArray;
+import com.github.pherialize.Pherialize;
+import com.github.pherialize.Unserializer;
+import com.github.pherialize.factory.DefaultObjectFactory;
+
+
+/**
+ * Benchmarks creating POJOs from unserialized objects with the
+ * DefaultObjectFactory.
+ *
+ * @version $Revision$
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HydrationBenchmark
+{
+    /** The charset */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The object factory */
+    private DefaultObjectFactory factory;
+
+    /** A serialized list of persons */
+    private byte[] persons;
+
+    /** The properties of a single person */
+    private MixedArray properties;
+
+
+    /**
+     * Creates the payload.
+     */
+
+    @Setup
+    public void setup()
+    {
+        this.factory = new DefaultObjectFactory(
+            Person.class.getPackage().getName());
+        this.persons = Pherialize.serializeToBytes(Payloads.persons(
+            new Random(1), 1000), UTF8);
+        this.properties = Pherialize.unserialize(Pherialize.serializeToBytes(
+            Payloads.persons(new Random(1), 1).get(0), UTF8), UTF8).toArray();
+        this.properties.remove(new Mixed("class"));
+    }
+
+
+    /**
+     * Unserializes a list of persons into POJOs.
+     *
+     * @return The unserialized persons
+     */
+
+    @Benchmark
+    public Mixed unserializePersons()
+    {
+        Unserializer unserializer;
+
+        unserializer = new Unserializer(this.persons, UTF8);
+        unserializer.setObjectFactory(this.factory);
+        return unserializer.unserializeObject();
+    }
+
+
+    /**
+     * Creates a single POJO from its properties.
+     *
+     * @return The POJO
+     */
+
+    @Benchmark
+    public Object createObject()
+    {
+        return this.factory.createObject("Person", this.properties);
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.pherialize.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.pherialize.MixedArray;
+
+
+/**
+ * Benchmarks accessing MixedArrays with integer and string keys.
+ *
+ * @version $Revision$
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixedArrayBenchmark
+{
+    /** The number of elements */
+    private static final int SIZE = 1000;
+
+    /** The string keys */
+    private String[] keys;
+
+    /** An array with integer keys */
+    private MixedArray list;
+
+    /** An array with string keys */
+    private MixedArray map;
+
+
+    /**
+     * Creates the arrays.
+     */
+
+    @Setup
+    public void setup()
+    {
+        this.keys = new String[SIZE];
+        this.list = new MixedArray();
+        this.map = new MixedArray();
+        for (int i = 0; i < SIZE; i++)
+        {
+            this.keys[i] = "key" + i;
+            this.list.put(i, i);
+            this.map.put(this.keys[i], "value" + i);
+        }
+    }
+
+
+    /**
+     * Fills a new array with integer keys.
+     *
+     * @return The array
+     */
+
+    @Benchmark
+    public MixedArray putInt()
+    {
+        MixedArray array;
+
+        array = new MixedArray(SIZE);
+        for (int i = 0; i < SIZE; i++)
+        {
+            array.put(i, i);
+        }
+        return array;
+    }
+
+
+    /**
+     * Fills a new array with string keys.
+     *
+     * @return The array
+     */
+
+    @Benchmark
+    public MixedArray putString()
+    {
+        MixedArray array;
+
+        array = new MixedArray(SIZE);
+        for (int i = 0; i < SIZE; i++)
+        {
+            array.put(this.keys[i], this.keys[i]);
+        }
+        return array;
+    }
+
+
+    /**
+     * Reads all elements by integer key.
+     *
+     * @param blackhole
+     *            Consumes the elements
+     */
+
+    @Benchmark
+    public void getInt(final Blackhole blackhole)
+    {
+        for (int i = 0; i < SIZE; i++)
+        {
+            blackhole.consume(this.list.getInt(i));
+        }
+    }
+
+
+    /**
+     * Reads all elements by string key.
+     *
+     * @param blackhole
+     *            Consumes the elements
+     */
+
+    @Benchmark
+    public void getString(final Blackhole blackhole)
+    {
+        for (int i = 0; i < SIZE; i++)
+        {
+            blackhole.consume(this.map.getString(this.keys[i]));
+        }
+    }
+}
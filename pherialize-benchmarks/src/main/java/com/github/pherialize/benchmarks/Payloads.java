@@ -0,0 +1,217 @@
+package com.github.pherialize.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * Generates the payloads of the benchmarks. The payloads are generated with
+ * a fixed seed, so all runs measure the same data.
+ *
+ * @version $Revision$
+ */
+
+public final class Payloads
+{
+    /** A session like PHP stores it: Mixed small values and nested arrays */
+    public static final String SESSION = "session";
+
+    /** A list of POJOs */
+    public static final String OBJECTS = "objects";
+
+    /** A list of numbers */
+    public static final String NUMBERS = "numbers";
+
+    /** Deeply nested arrays */
+    public static final String NESTED = "nested";
+
+    /** The seed of the random generator */
+    private static final long SEED = 0x5eedL;
+
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+
+    private Payloads()
+    {
+        // Empty
+    }
+
+
+    /**
+     * Creates the payload with the specified name.
+     *
+     * @param name
+     *            The name of the payload
+     * @return The payload
+     */
+
+    public static Object create(final String name)
+    {
+        Random random;
+
+        random = new Random(SEED);
+        if (SESSION.equals(name)) return session(random);
+        if (OBJECTS.equals(name)) return persons(random, 1000);
+        if (NUMBERS.equals(name)) return numbers(random, 10000);
+        if (NESTED.equals(name)) return nested(random, 200);
+        throw new IllegalArgumentException("Unknown payload " + name);
+    }
+
+
+    /**
+     * Creates a session payload.
+     *
+     * @param random
+     *            The random generator
+     * @return The session
+     */
+
+    private static Map<String, Object> session(final Random random)
+    {
+        Map<String, Object> session, user;
+        List<Object> cart;
+        Map<String, Object> item;
+
+        session = new HashMap<String, Object>();
+        session.put("id", Long.toHexString(random.nextLong()));
+        session.put("created", Integer.valueOf(1700000000 + random.nextInt(1000000)));
+        session.put("authenticated", Boolean.TRUE);
+        user = new HashMap<String, Object>();
+        user.put("id", Integer.valueOf(random.nextInt(100000)));
+        user.put("name", word(random, 12));
+        user.put("locale", "de_DE");
+        user.put("roles", new ArrayList<Object>(Arrays.asList("user", "editor")));
+        session.put("user", user);
+        cart = new ArrayList<Object>();
+        for (int i = 0; i < 20; i++)
+        {
+            item = new HashMap<String, Object>();
+            item.put("sku", word(random, 8));
+            item.put("quantity", Integer.valueOf(1 + random.nextInt(5)));
+            item.put("price", Double.valueOf(random.nextInt(100000) / 100.0));
+            cart.add(item);
+        }
+        session.put("cart", cart);
+        session.put("flash", null);
+        return session;
+    }
+
+
+    /**
+     * Creates a list of persons.
+     *
+     * @param random
+     *            The random generator
+     * @param count
+     *            The number of persons
+     * @return The persons
+     */
+
+    public static List<Person> persons(final Random random, final int count)
+    {
+        List<Person> persons;
+        Person person;
+
+        persons = new ArrayList<Person>(count);
+        for (int i = 0; i < count; i++)
+        {
+            person = new Person();
+            person.name = word(random, 6) + " " + word(random, 9);
+            person.email = word(random, 8) + "@example.com";
+            person.age = 18 + random.nextInt(70);
+            person.score = random.nextInt(10000) / 100.0;
+            person.active = random.nextBoolean();
+            person.ratings = new int[5];
+            for (int j = 0; j < person.ratings.length; j++)
+            {
+                person.ratings[j] = random.nextInt(6);
+            }
+            persons.add(person);
+        }
+        return persons;
+    }
+
+
+    /**
+     * Creates a list of integers and doubles.
+     *
+     * @param random
+     *            The random generator
+     * @param count
+     *            The number of numbers
+     * @return The numbers
+     */
+
+    private static List<Object> numbers(final Random random, final int count)
+    {
+        List<Object> numbers;
+
+        numbers = new ArrayList<Object>(count);
+        for (int i = 0; i < count; i++)
+        {
+            if (random.nextBoolean())
+                numbers.add(Integer.valueOf(random.nextInt()));
+            else
+                numbers.add(Double.valueOf(random.nextDouble() * 1000));
+        }
+        return numbers;
+    }
+
+
+    /**
+     * Creates deeply nested arrays.
+     *
+     * @param random
+     *            The random generator
+     * @param depth
+     *            The nesting depth
+     * @return The nested arrays
+     */
+
+    private static Map<String, Object> nested(final Random random,
+        final int depth)
+    {
+        Map<String, Object> root, current, child;
+
+        root = new HashMap<String, Object>();
+        current = root;
+        for (int i = 0; i < depth; i++)
+        {
+            child = new HashMap<String, Object>();
+            current.put("name", word(random, 5));
+            current.put("level", Integer.valueOf(i));
+            current.put("child", child);
+            current = child;
+        }
+        return root;
+    }
+
+
+    /**
+     * Creates a random lower case word.
+     *
+     * @param random
+     *            The random generator
+     * @param length
+     *            The length of the word
+     * @return The word
+     */
+
+    private static String word(final Random random, final int length)
+    {
+        char[] chars;
+
+        chars = new char[length];
+        for (int i = 0; i < length; i++)
+        {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.pherialize.benchmarks;
+
+import java.io.Serializable;
+
+
+/**
+ * A simple POJO used as payload for object serialization and hydration.
+ *
+ * @version $Revision$
+ */
+
+public class Person implements Serializable
+{
+    /** Serial version UID */
+    private static final long serialVersionUID = 3417982372135849011L;
+
+    /** The name */
+    String name;
+
+    /** The e-mail address */
+    String email;
+
+    /** The age */
+    int age;
+
+    /** The score */
+    double score;
+
+    /** If the person is active */
+    boolean active;
+
+    /** The last ratings */
+    int[] ratings;
+}
@@ -0,0 +1,101 @@
+package com.github.pherialize.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.pherialize.Pherialize;
+import com.github.pherialize.Serializer;
+
+
+/**
+ * Benchmarks serializing the payloads. Objects in the payloads are
+ * serialized via serializeSerializable.
+ *
+ * @version $Revision$
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializeBenchmark
+{
+    /** The charset */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The name of the payload */
+    @Param({ Payloads.SESSION, Payloads.OBJECTS, Payloads.NUMBERS,
+        Payloads.NESTED })
+    public String payload;
+
+    /** The payload */
+    private Object data;
+
+
+    /**
+     * Creates the payload.
+     */
+
+    @Setup
+    public void setup()
+    {
+        this.data = Payloads.create(this.payload);
+    }
+
+
+    /**
+     * Serializes into a string with the facade.
+     *
+     * @return The serialized data
+     */
+
+    @Benchmark
+    public String serialize()
+    {
+        return Pherialize.serialize(this.data);
+    }
+
+
+    /**
+     * Serializes into bytes with a new serializer.
+     *
+     * @return The serialized data
+     */
+
+    @Benchmark
+    public byte[] serializeToBytes()
+    {
+        return new Serializer(UTF8).serializeToBytes(this.data);
+    }
+
+
+    /**
+     * Serializes into bytes without references.
+     *
+     * @return The serialized data
+     */
+
+    @Benchmark
+    public byte[] serializeWithoutReferences()
+    {
+        Serializer serializer;
+
+        serializer = new Serializer(UTF8);
+        serializer.setReferences(false);
+        return serializer.serializeToBytes(this.data);
+    }
+}
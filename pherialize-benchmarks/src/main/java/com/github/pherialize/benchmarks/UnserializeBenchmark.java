@@ -0,0 +1,108 @@
+package com.github.pherialize.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.pherialize.Mixed;
+import com.github.pherialize.Pherialize;
+import com.github.pherialize.Unserializer;
+import com.github.pherialize.io.ByteArraySource;
+import com.github.pherialize.io.InputStreamSource;
+
+
+/**
+ * Benchmarks unserializing the payloads from each source type. Objects are
+ * unserialized as maps.
+ *
+ * @version $Revision$
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnserializeBenchmark
+{
+    /** The charset */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The name of the payload */
+    @Param({ Payloads.SESSION, Payloads.OBJECTS, Payloads.NUMBERS,
+        Payloads.NESTED })
+    public String payload;
+
+    /** The serialized payload */
+    private byte[] bytes;
+
+    /** The serialized payload as string */
+    private String string;
+
+
+    /**
+     * Creates and serializes the payload.
+     */
+
+    @Setup
+    public void setup()
+    {
+        this.bytes = Pherialize.serializeToBytes(Payloads.create(this.payload),
+            UTF8);
+        this.string = new String(this.bytes, UTF8);
+    }
+
+
+    /**
+     * Unserializes a string with the facade.
+     *
+     * @return The unserialized data
+     */
+
+    @Benchmark
+    public Mixed unserialize()
+    {
+        return Pherialize.unserialize(this.string, UTF8);
+    }
+
+
+    /**
+     * Unserializes from a byte array source.
+     *
+     * @return The unserialized data
+     */
+
+    @Benchmark
+    public Mixed byteArraySource()
+    {
+        return new Unserializer(new ByteArraySource(this.bytes), UTF8)
+            .unserializeObject();
+    }
+
+
+    /**
+     * Unserializes from an input stream source.
+     *
+     * @return The unserialized data
+     */
+
+    @Benchmark
+    public Mixed inputStreamSource()
+    {
+        return new Unserializer(new InputStreamSource(new ByteArrayInputStream(
+            this.bytes)), UTF8).unserializeObject();
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.pherialize;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+
+/**
+ * Bounded pool of equally sized byte buffers used as output chunks of a
+ * {@link ChunkedSerializer}. Consumers pass chunks they no longer need back
+ * with {@link #release(ByteBuffer)} so streaming large exports doesn't
+ * allocate a new buffer per chunk. Chunks which are never released are
+ * simply garbage collected. The pool can be used from multiple threads.
+ *
+ * @version $Revision$
+ */
+
+public class ByteBufferPool
+{
+    /** The default chunk size */
+    public static final int DEFAULT_CHUNK_SIZE = 16384;
+
+    /** The default maximum number of pooled chunks */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /** The size of the chunks */
+    private final int chunkSize;
+
+    /** If the chunks are direct buffers */
+    private final boolean direct;
+
+    /** The released chunks */
+    private final ArrayBlockingQueue<ByteBuffer> chunks;
+
+
+    /**
+     * Constructor for a pool of heap buffers with the default chunk size and
+     * capacity.
+     */
+
+    public ByteBufferPool()
+    {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_CAPACITY, false);
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param chunkSize
+     *            The size of the chunks in bytes
+     * @param capacity
+     *            The maximum number of pooled chunks. Further released
+     *            chunks are dropped
+     * @param direct
+     *            If direct buffers are allocated instead of heap buffers
+     */
+
+    public ByteBufferPool(final int chunkSize, final int capacity,
+        final boolean direct)
+    {
+        super();
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.direct = direct;
+        this.chunks = new ArrayBlockingQueue<ByteBuffer>(Math.max(capacity, 1));
+    }
+
+
+    /**
+     * Returns the size of the chunks.
+     *
+     * @return The chunk size in bytes
+     */
+
+    public int getChunkSize()
+    {
+        return this.chunkSize;
+    }
+
+
+    /**
+     * Returns an empty chunk. A pooled chunk is reused if available,
+     * otherwise a new one is allocated.
+     *
+     * @return The cleared chunk
+     */
+
+    public ByteBuffer acquire()
+    {
+        ByteBuffer chunk;
+
+        chunk = this.chunks.poll();
+        if (chunk != null) return chunk;
+        return this.direct ? ByteBuffer.allocateDirect(this.chunkSize)
+            : ByteBuffer.allocate(this.chunkSize);
+    }
+
+
+    /**
+     * Returns a chunk to the pool. Chunks of a different size or kind and
+     * chunks exceeding the capacity of the pool are dropped. The chunk must
+     * not be used anymore after releasing it.
+     *
+     * @param chunk
+     *            The chunk to release
+     */
+
+    public void release(final ByteBuffer chunk)
+    {
+        if (chunk.capacity() != this.chunkSize || chunk.isDirect() != this.direct
+            || chunk.isReadOnly()) return;
+        chunk.clear();
+        this.chunks.offer(chunk);
+    }
+
+
+    /**
+     * Returns the number of chunks which are currently pooled.
+     *
+     * @return The number of pooled chunks
+     */
+
+    public int getPooled()
+    {
+        return this.chunks.size();
+    }
+}
@@ -0,0 +1,355 @@
+package com.github.pherialize;
+
+
+/**
+ * The metrics of a single serialize or unserialize call which are passed to
+ * a {@link PherializeMetrics} listener. The counters of the single value
+ * types and the decoded string bytes are only collected by the
+ * {@link Unserializer}. Array keys are not counted as values. When a call
+ * fails with an exception then the metrics collected up to the error are
+ * reported and {@link #isFailed()} returns true.
+ *
+ * @version $Revision$
+ */
+
+public final class CallMetrics
+{
+    /** The number of bytes read or written */
+    long bytes;
+
+    /** The number of string values */
+    int strings;
+
+    /** The number of integer values */
+    int integers;
+
+    /** The number of double values */
+    int doubles;
+
+    /** The number of boolean values */
+    int booleans;
+
+    /** The number of null values */
+    int nulls;
+
+    /** The number of arrays */
+    int arrays;
+
+    /** The number of objects */
+    int objects;
+
+    /** The number of references */
+    int references;
+
+    /** The maximum nesting depth of arrays and objects */
+    int maxDepth;
+
+    /** The number of bytes of the string values */
+    long stringBytes;
+
+    /** The elapsed time in nanoseconds */
+    long elapsedNanos;
+
+    /** The number of strings resolved by the string interner */
+    long internHits;
+
+    /** The number of strings the string interner had to decode */
+    long internMisses;
+
+    /** If the call failed with an exception */
+    boolean failed;
+
+
+    /**
+     * Constructor
+     */
+
+    CallMetrics()
+    {
+        super();
+    }
+
+
+    /**
+     * Resets all counters for the next call.
+     */
+
+    void reset()
+    {
+        this.bytes = 0;
+        this.strings = 0;
+        this.integers = 0;
+        this.doubles = 0;
+        this.booleans = 0;
+        this.nulls = 0;
+        this.arrays = 0;
+        this.objects = 0;
+        this.references = 0;
+        this.maxDepth = 0;
+        this.stringBytes = 0;
+        this.elapsedNanos = 0;
+        this.internHits = 0;
+        this.internMisses = 0;
+        this.failed = false;
+    }
+
+
+    /**
+     * Counts a value of the specified PHP type.
+     *
+     * @param type
+     *            The type character of the value
+     */
+
+    void count(final char type)
+    {
+        switch (type)
+        {
+            case 's':
+                this.strings++;
+                break;
+
+            case 'i':
+                this.integers++;
+                break;
+
+            case 'd':
+                this.doubles++;
+                break;
+
+            case 'b':
+                this.booleans++;
+                break;
+
+            case 'N':
+                this.nulls++;
+                break;
+
+            case 'a':
+                this.arrays++;
+                break;
+
+            case 'O':
+                this.objects++;
+                break;
+
+            default:
+                this.references++;
+        }
+    }
+
+
+    /**
+     * Records the current nesting depth.
+     *
+     * @param depth
+     *            The nesting depth
+     */
+
+    void enter(final int depth)
+    {
+        if (depth > this.maxDepth) this.maxDepth = depth;
+    }
+
+
+    /**
+     * Returns the number of bytes read or written.
+     *
+     * @return The number of bytes
+     */
+
+    public long getBytes()
+    {
+        return this.bytes;
+    }
+
+
+    /**
+     * Returns the number of string values.
+     *
+     * @return The number of strings
+     */
+
+    public int getStrings()
+    {
+        return this.strings;
+    }
+
+
+    /**
+     * Returns the number of integer values.
+     *
+     * @return The number of integers
+     */
+
+    public int getIntegers()
+    {
+        return this.integers;
+    }
+
+
+    /**
+     * Returns the number of double values.
+     *
+     * @return The number of doubles
+     */
+
+    public int getDoubles()
+    {
+        return this.doubles;
+    }
+
+
+    /**
+     * Returns the number of boolean values.
+     *
+     * @return The number of booleans
+     */
+
+    public int getBooleans()
+    {
+        return this.booleans;
+    }
+
+
+    /**
+     * Returns the number of null values.
+     *
+     * @return The number of nulls
+     */
+
+    public int getNulls()
+    {
+        return this.nulls;
+    }
+
+
+    /**
+     * Returns the number of arrays.
+     *
+     * @return The number of arrays
+     */
+
+    public int getArrays()
+    {
+        return this.arrays;
+    }
+
+
+    /**
+     * Returns the number of objects.
+     *
+     * @return The number of objects
+     */
+
+    public int getObjects()
+    {
+        return this.objects;
+    }
+
+
+    /**
+     * Returns the number of references (R: and r:).
+     *
+     * @return The number of references
+     */
+
+    public int getReferences()
+    {
+        return this.references;
+    }
+
+
+    /**
+     * Returns the maximum nesting depth of arrays and objects.
+     *
+     * @return The maximum nesting depth
+     */
+
+    public int getMaxDepth()
+    {
+        return this.maxDepth;
+    }
+
+
+    /**
+     * Returns the number of bytes of the decoded string values.
+     *
+     * @return The number of string bytes
+     */
+
+    public long getStringBytes()
+    {
+        return this.stringBytes;
+    }
+
+
+    /**
+     * Returns the elapsed time of the call.
+     *
+     * @return The elapsed time in nanoseconds
+     */
+
+    public long getElapsedNanos()
+    {
+        return this.elapsedNanos;
+    }
+
+
+    /**
+     * Returns the number of strings which were resolved by the string
+     * interner without decoding them. Approximate if the interner is shared
+     * with other threads.
+     *
+     * @return The number of interner hits
+     */
+
+    public long getInternHits()
+    {
+        return this.internHits;
+    }
+
+
+    /**
+     * Returns the number of strings which the string interner had to
+     * decode. Approximate if the interner is shared with other threads.
+     *
+     * @return The number of interner misses
+     */
+
+    public long getInternMisses()
+    {
+        return this.internMisses;
+    }
+
+
+    /**
+     * Checks if the call failed with an exception.
+     *
+     * @return True if the call failed
+     */
+
+    public boolean isFailed()
+    {
+        return this.failed;
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+
+    @Override
+    public String toString()
+    {
+        return "bytes=" + this.bytes + ", strings=" + this.strings
+            + ", integers=" + this.integers + ", doubles=" + this.doubles
+            + ", booleans=" + this.booleans + ", nulls=" + this.nulls
+            + ", arrays=" + this.arrays + ", objects=" + this.objects
+            + ", references=" + this.references + ", maxDepth="
+            + this.maxDepth + ", stringBytes=" + this.stringBytes
+            + ", elapsedNanos=" + this.elapsedNanos + ", internHits="
+            + this.internHits + ", internMisses=" + this.internMisses
+            + ", failed=" + this.failed;
+    }
+}
@@ -0,0 +1,177 @@
+package com.github.pherialize;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+
+import com.github.pherialize.exceptions.SerializeException;
+
+
+/**
+ * Serializes a list into a sequence of chunks on demand. Each call to
+ * {@link #read(ByteBuffer)} serializes only as many elements as needed to
+ * fill the passed buffer, so the consumer controls the pace (for example
+ * according to the demand of a reactive subscriber) and can recycle its
+ * chunk buffers. When the elements are read from an iterator (for example a
+ * database cursor) then large exports are serialized in bounded memory:
+ * Only the current element and one chunk are held at any time.
+ *
+ * References are disabled on the specified {@link Serializer}, because
+ * resolving them requires a history of all arrays and objects written so far
+ * which grows with the export. Shared arrays and objects are therefore
+ * serialized again at each occurrence and cyclic elements are rejected by the
+ * maximum nesting depth. Otherwise the output is the same as serializing the
+ * whole list at once.
+ *
+ * @version $Revision$
+ */
+
+public class ChunkedSerializer
+{
+    /** The serializer used to serialize the elements */
+    private final Serializer serializer;
+
+    /** The elements to serialize */
+    private final Iterator<?> elements;
+
+    /** The number of elements */
+    private final int size;
+
+    /** The serialized data which was not read yet */
+    private final OutputBuffer buffer = new OutputBuffer();
+
+    /** The offset of the first unread byte in the buffer */
+    private int offset;
+
+    /** The index of the next element. -1 if the header was not written yet */
+    private int index = -1;
+
+    /** If the closing brace was written */
+    private boolean finished;
+
+
+    /**
+     * Constructor
+     *
+     * @param serializer
+     *            The serializer used to serialize the elements. References
+     *            are disabled on it
+     * @param elements
+     *            The elements to serialize
+     */
+
+    public ChunkedSerializer(final Serializer serializer,
+        final Collection<?> elements)
+    {
+        this(serializer, elements.iterator(), elements.size());
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param serializer
+     *            The serializer used to serialize the elements. References
+     *            are disabled on it
+     * @param elements
+     *            The iterator returning the elements to serialize
+     * @param size
+     *            The number of elements the iterator returns. Needed up
+     *            front because PHP arrays start with their size
+     */
+
+    public ChunkedSerializer(final Serializer serializer,
+        final Iterator<?> elements, final int size)
+    {
+        super();
+        serializer.setReferences(false);
+        this.serializer = serializer;
+        this.elements = elements;
+        this.size = size;
+    }
+
+
+    /**
+     * Checks if there is still serialized data to read.
+     *
+     * @return True if there is more data, false if all data was read
+     */
+
+    public boolean hasRemaining()
+    {
+        return !this.finished || this.offset < this.buffer.size();
+    }
+
+
+    /**
+     * Writes the next serialized bytes into the remaining space of the
+     * specified buffer and advances its position.
+     *
+     * @param chunk
+     *            The buffer to write to
+     * @return The number of written bytes or -1 if all data was already
+     *         read
+     * @throws SerializeException
+     *             When the iterator returns more or less elements than
+     *             announced
+     */
+
+    public int read(final ByteBuffer chunk)
+    {
+        int start;
+
+        if (!hasRemaining()) return -1;
+        start = chunk.position();
+        while (chunk.hasRemaining())
+        {
+            if (this.offset == this.buffer.size())
+            {
+                this.buffer.clear();
+                this.offset = 0;
+                if (!produce()) break;
+            }
+            this.offset += this.buffer.copyTo(this.offset, chunk);
+        }
+        return chunk.position() - start;
+    }
+
+
+    /**
+     * Serializes the next part of the list (the header, one element or the
+     * closing brace) into the empty buffer.
+     *
+     * @return False if the list was already completely serialized
+     */
+
+    private boolean produce()
+    {
+        if (this.finished) return false;
+        if (this.index < 0)
+        {
+            this.serializer.serializeListHeader(this.size, this.buffer);
+            this.index = 0;
+        }
+        else if (this.elements.hasNext())
+        {
+            if (this.index == this.size)
+            {
+                throw new SerializeException("More than " + this.size
+                    + " elements to serialize");
+            }
+            this.serializer.serializeListElement(this.index,
+                this.elements.next(), this.buffer);
+            this.index++;
+        }
+        else
+        {
+            if (this.index != this.size)
+            {
+                throw new SerializeException("Expected " + this.size
+                    + " elements to serialize but got only " + this.index);
+            }
+            this.buffer.append('}');
+            this.finished = true;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.pherialize;
+
+
+/**
+ * Emits Java Flight Recorder events for serializing, unserializing and
+ * creating objects. Each operation calls a begin method before and an end
+ * method after the work. The begin method returns the started event or null
+ * if the event is disabled, in which case the end method does nothing.
+ *
+ * This baseline implementation never emits events because Java 8 has no
+ * event API. The JDK 17 implementation of the multi-release JAR emits the
+ * events pherialize.Serialize, pherialize.Unserialize and
+ * pherialize.Hydrate.
+ *
+ * @version $Revision$
+ */
+
+final class Events
+{
+    /**
+     * Private constructor to prevent instantiation.
+     */
+
+    private Events()
+    {
+        // Empty
+    }
+
+
+    /**
+     * Begins a serialize event.
+     *
+     * @return The event or null if disabled
+     */
+
+    static Object beginSerialize()
+    {
+        return null;
+    }
+
+
+    /**
+     * Ends a serialize event.
+     *
+     * @param event
+     *            The event returned by {@link #beginSerialize()}
+     * @param payloadSize
+     *            The number of written bytes
+     * @param elements
+     *            The number of serialized values
+     */
+
+    static void endSerialize(final Object event, final long payloadSize,
+        final int elements)
+    {
+        // Empty
+    }
+
+
+    /**
+     * Begins an unserialize event.
+     *
+     * @return The event or null if disabled
+     */
+
+    static Object beginUnserialize()
+    {
+        return null;
+    }
+
+
+    /**
+     * Ends an unserialize event.
+     *
+     * @param event
+     *            The event returned by {@link #beginUnserialize()}
+     * @param payloadSize
+     *            The number of read bytes or -1 if unknown
+     * @param elements
+     *            The number of unserialized values
+     */
+
+    static void endUnserialize(final Object event, final long payloadSize,
+        final int elements)
+    {
+        // Empty
+    }
+
+
+    /**
+     * Begins a hydrate event.
+     *
+     * @return The event or null if disabled
+     */
+
+    static Object beginHydrate()
+    {
+        return null;
+    }
+
+
+    /**
+     * Ends a hydrate event.
+     *
+     * @param event
+     *            The event returned by {@link #beginHydrate()}
+     * @param className
+     *            The PHP class name of the created object
+     * @param elements
+     *            The number of properties
+     */
+
+    static void endHydrate(final Object event, final String className,
+        final int elements)
+    {
+        // Empty
+    }
+}
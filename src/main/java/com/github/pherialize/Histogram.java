@@ -0,0 +1,174 @@
+package com.github.pherialize;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Concurrent histogram of non-negative values with logarithmic buckets.
+ * Each power of two is split into eight buckets, so percentiles are
+ * reported with a relative error below 12.5%. The buckets are striped
+ * LongAdder counters, so many threads can record values without contention.
+ *
+ * @version $Revision$
+ */
+
+final class Histogram
+{
+    /** The number of bits used for the buckets within a power of two */
+    private static final int SUB_BITS = 3;
+
+    /** The number of buckets within a power of two */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** The number of buckets needed to cover all long values */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    /** The buckets */
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    /** The sum of all recorded values */
+    private final LongAdder total = new LongAdder();
+
+
+    /**
+     * Constructor
+     */
+
+    Histogram()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+
+    /**
+     * Returns the bucket of the specified value.
+     *
+     * @param value
+     *            The value. Negative values are counted as zero
+     * @return The index of the bucket
+     */
+
+    static int getBucket(final long value)
+    {
+        int exponent;
+
+        if (value < SUB_BUCKETS) return value < 0 ? 0 : (int) value;
+        exponent = 63 - Long.numberOfLeadingZeros(value);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS)
+            + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+
+    /**
+     * Returns the highest value counted in the specified bucket.
+     *
+     * @param bucket
+     *            The index of the bucket
+     * @return The highest value of the bucket
+     */
+
+    static long getUpperBound(final int bucket)
+    {
+        int shift;
+
+        if (bucket < SUB_BUCKETS) return bucket;
+        shift = (bucket >>> SUB_BITS) - 1;
+        return ((long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1)) + 1) << shift) - 1;
+    }
+
+
+    /**
+     * Records a value.
+     *
+     * @param value
+     *            The value
+     */
+
+    void record(final long value)
+    {
+        this.buckets[getBucket(value)].increment();
+        this.total.add(value);
+    }
+
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return The number of values
+     */
+
+    long getCount()
+    {
+        long count;
+
+        count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            count += this.buckets[i].sum();
+        }
+        return count;
+    }
+
+
+    /**
+     * Returns the sum of all recorded values.
+     *
+     * @return The sum
+     */
+
+    long getTotal()
+    {
+        return this.total.sum();
+    }
+
+
+    /**
+     * Returns the value below or at which the specified percentage of the
+     * recorded values lie. The value is the upper bound of the bucket
+     * containing the percentile.
+     *
+     * @param percentile
+     *            The percentile between 0 and 100
+     * @return The value or 0 if no values were recorded
+     */
+
+    long getPercentile(final double percentile)
+    {
+        long[] counts;
+        long count, rank, seen;
+
+        counts = new long[BUCKETS];
+        count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] = this.buckets[i].sum();
+            count += counts[i];
+        }
+        if (count == 0) return 0;
+        rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank) return getUpperBound(i);
+        }
+        return getUpperBound(BUCKETS - 1);
+    }
+
+
+    /**
+     * Removes all recorded values.
+     */
+
+    void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            this.buckets[i].reset();
+        }
+        this.total.reset();
+    }
+}
@@ -0,0 +1,635 @@
+package com.github.pherialize;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.github.pherialize.exceptions.UnserializeException;
+import com.github.pherialize.factory.ObjectFactory;
+import com.github.pherialize.io.ByteArraySource;
+
+
+/**
+ * Push-style unserializer for data which arrives in arbitrary chunks, for
+ * example from a non-blocking socket. The chunks are passed to
+ * {@link #feed(ByteBuffer)} which never blocks: It returns
+ * {@link State#NEED_MORE} as long as the value is incomplete and
+ * {@link State#COMPLETE} as soon as the last byte of the value was consumed.
+ * The value is then available with {@link #getValue()}.
+ *
+ * Between two calls only the scanner state (open arrays, the position inside
+ * a string or number) and the bytes of the incomplete value are kept, so a
+ * single thread can serve any number of streams with one instance per
+ * stream. Bytes following a complete value are not consumed, so multiple
+ * values can be sent back-to-back on the same stream.
+ *
+ * The scanner only checks the framing of the data. The complete value is
+ * then decoded and validated by an {@link Unserializer}.
+ *
+ * Large top-level arrays (like exports) can be received in bounded memory
+ * by enabling {@link #setEntries(boolean) entries}: Then each key/value pair
+ * of a top-level array is returned as soon as it is complete and only the
+ * bytes of the current entry are buffered.
+ *
+ * @version $Revision$
+ */
+
+public class IncrementalUnserializer
+{
+    /**
+     * The result of feeding data.
+     */
+
+    public static enum State
+    {
+        /** The value is incomplete and more data is needed */
+        NEED_MORE,
+
+        /**
+         * An entry of the top-level array is complete and can be fetched
+         * with getKey() and getValue()
+         */
+        ENTRY,
+
+        /** The value is complete and can be fetched with getValue() */
+        COMPLETE
+    }
+
+    /** Expecting the type of the next value */
+    private static final int EXPECT_TYPE = 0;
+
+    /** Skipping a scalar value up to the semicolon */
+    private static final int SCALAR = 1;
+
+    /** Expecting the colon in front of a length or count */
+    private static final int EXPECT_COLON = 2;
+
+    /** Reading the digits of a length or count */
+    private static final int NUMBER = 3;
+
+    /** Expecting the opening quote of a string */
+    private static final int EXPECT_OPEN_QUOTE = 4;
+
+    /** Skipping the bytes of a string */
+    private static final int STRING_BYTES = 5;
+
+    /** Expecting the closing quote of a string */
+    private static final int EXPECT_CLOSE_QUOTE = 6;
+
+    /** Expecting the semicolon after a string */
+    private static final int EXPECT_SEMICOLON = 7;
+
+    /** Expecting the opening brace of an array or object */
+    private static final int EXPECT_OPEN_BRACE = 8;
+
+    /** Expecting the closing brace of an array or object */
+    private static final int EXPECT_CLOSE_BRACE = 9;
+
+    /** The value is complete */
+    private static final int DONE = 10;
+
+    /** The current value is a string */
+    private static final int KIND_STRING = 0;
+
+    /** The current value is an array */
+    private static final int KIND_ARRAY = 1;
+
+    /** The current value is the class name of an object */
+    private static final int KIND_CLASS_NAME = 2;
+
+    /** The current value is the properties count of an object */
+    private static final int KIND_PROPERTIES = 3;
+
+    /** The charset used to decode strings */
+    private final Charset charset;
+
+    /** The bytes of the current value received so far */
+    private final OutputBuffer buffer = new OutputBuffer();
+
+    /** The string table shared by all values of the stream */
+    private final StringInterner stringInterner = new StringInterner();
+
+    /** Used to unserialize objects. Null to unserialize them as maps */
+    private ObjectFactory objectFactory;
+
+    /** The maximum nesting depth of arrays and objects */
+    private int maxDepth = 4096;
+
+    /** The maximum number of bytes of a value. Negative for no limit */
+    private int maxLength = -1;
+
+    /** The scanner state */
+    private int state = EXPECT_TYPE;
+
+    /** The kind of the current value with a length or count */
+    private int kind;
+
+    /** The length or count read so far */
+    private long number;
+
+    /** If at least one digit of the length or count was read */
+    private boolean digits;
+
+    /** The number of string bytes still to skip */
+    private long remainingBytes;
+
+    /** The number of keys and values still to read per open container */
+    private long[] remaining = new long[16];
+
+    /** The number of open arrays and objects */
+    private int depth;
+
+    /** If the entries of top-level arrays are returned one by one */
+    private boolean entries;
+
+    /** If the current value is a top-level array returned entry by entry */
+    private boolean splitting;
+
+    /** If an entry of the top-level array was completely scanned */
+    private boolean entryReady;
+
+    /** The position after the header of a split top-level array. -1 if none */
+    private int headerEnd = -1;
+
+    /** The unserialize event of the split top-level array. Null if none or disabled */
+    private Object event;
+
+    /** The number of bytes of the split top-level array received so far */
+    private long splitBytes;
+
+    /** The number of values of the split top-level array decoded so far */
+    private int splitValues;
+
+    /** The key of the last complete entry */
+    private Mixed key;
+
+    /** The last complete value */
+    private Mixed value;
+
+
+    /**
+     * Constructor
+     *
+     * @param charset
+     *            The charset used to decode strings
+     */
+
+    public IncrementalUnserializer(final Charset charset)
+    {
+        super();
+        this.charset = charset;
+    }
+
+
+    /**
+     * Sets the factory used to unserialize objects.
+     *
+     * @param objectFactory
+     *            The object factory. Null to unserialize objects as maps
+     */
+
+    public void setObjectFactory(final ObjectFactory objectFactory)
+    {
+        this.objectFactory = objectFactory;
+    }
+
+
+    /**
+     * Sets the maximum nesting depth of arrays and objects.
+     *
+     * @param maxDepth
+     *            The maximum nesting depth. Defaults to 4096
+     */
+
+    public void setMaxDepth(final int maxDepth)
+    {
+        this.maxDepth = maxDepth;
+    }
+
+
+    /**
+     * Sets the maximum number of bytes of a single value. Values which are
+     * larger are rejected with an UnserializeException before they are
+     * buffered completely.
+     *
+     * @param maxLength
+     *            The maximum number of bytes. Negative for no limit (the
+     *            default)
+     */
+
+    public void setMaxLength(final int maxLength)
+    {
+        this.maxLength = maxLength;
+    }
+
+
+    /**
+     * Specifies if the entries of top-level arrays are returned one by one
+     * (with the state ENTRY) instead of returning the whole array at once.
+     * The final COMPLETE state of such an array has no value. The entries are
+     * decoded independently, so references (R: and r:) are not supported in
+     * this mode. Other top-level values are returned as usual.
+     *
+     * @param entries
+     *            If entries of top-level arrays are returned one by one
+     */
+
+    public void setEntries(final boolean entries)
+    {
+        this.entries = entries;
+    }
+
+
+    /**
+     * Consumes data from the current position of the specified buffer. Stops
+     * after the last byte of the current value, so the buffer may still have
+     * remaining bytes when the value is complete.
+     *
+     * @param data
+     *            The received data
+     * @return COMPLETE if the value is complete, ENTRY if an entry of a
+     *         top-level array is complete (only if entries are enabled),
+     *         NEED_MORE otherwise
+     * @throws UnserializeException
+     *             When the data is malformed. The unserializer must be reset
+     *             before it can be used again
+     */
+
+    public State feed(final ByteBuffer data)
+    {
+        int start, position, limit;
+
+        Unserializer unserializer;
+
+        if (this.state == DONE) reset();
+        this.entryReady = false;
+        start = data.position();
+        limit = data.limit();
+        position = scan(data, start, limit);
+        if (this.headerEnd >= 0)
+        {
+            // The header of a split array is not needed for decoding. The
+            // whole array is reported as one event when it is complete
+            this.event = Events.beginUnserialize();
+            this.splitBytes = this.buffer.size() + this.headerEnd - start;
+            this.splitValues = 1;
+            data.position(this.headerEnd);
+            start = this.headerEnd;
+            this.headerEnd = -1;
+            this.buffer.clear();
+        }
+        if (this.maxLength >= 0
+            && (long) this.buffer.size() + position - start > this.maxLength)
+        {
+            throw new UnserializeException("Value exceeds the maximum length of "
+                + this.maxLength + " bytes");
+        }
+        this.buffer.append(data, position - start);
+        if (this.entryReady)
+        {
+            unserializer = createUnserializer();
+            unserializer.setReferences(false);
+            this.key = unserializer.unserializeKey();
+            this.value = unserializer.unserializeEntry();
+            this.splitBytes += this.buffer.size();
+            this.splitValues += unserializer.getSlotCount();
+            this.buffer.clear();
+            return State.ENTRY;
+        }
+        if (this.state != DONE) return State.NEED_MORE;
+        this.key = null;
+        if (this.splitting)
+        {
+            this.value = null;
+            Events.endUnserialize(this.event, this.splitBytes
+                + this.buffer.size(), this.splitValues);
+            this.event = null;
+        }
+        else
+        {
+            this.value = createUnserializer().unserializeObject();
+        }
+        return State.COMPLETE;
+    }
+
+
+    /**
+     * Returns the key of the last complete entry. Only valid after feed()
+     * returned ENTRY.
+     *
+     * @return The key of the entry
+     */
+
+    public Mixed getKey()
+    {
+        return this.key;
+    }
+
+
+    /**
+     * Returns the last complete value or entry value. Only valid after feed()
+     * returned COMPLETE or ENTRY.
+     *
+     * @return The unserialized value
+     */
+
+    public Mixed getValue()
+    {
+        return this.value;
+    }
+
+
+    /**
+     * Checks if the last complete value was a top-level array which was
+     * returned entry by entry. Then the COMPLETE state has no value.
+     *
+     * @return True if the last value was returned entry by entry
+     */
+
+    boolean isSplit()
+    {
+        return this.splitting;
+    }
+
+
+    /**
+     * Discards the current partial value (and the last complete value) and
+     * prepares for a new value.
+     */
+
+    public void reset()
+    {
+        this.buffer.clear();
+        this.state = EXPECT_TYPE;
+        this.depth = 0;
+        this.splitting = false;
+        this.entryReady = false;
+        this.headerEnd = -1;
+        this.event = null;
+        this.key = null;
+        this.value = null;
+    }
+
+
+    /**
+     * Scans the specified range of the buffer without changing its position.
+     *
+     * @param data
+     *            The data to scan
+     * @param start
+     *            The position of the first byte to scan
+     * @param limit
+     *            The position after the last byte to scan
+     * @return The position after the last consumed byte
+     */
+
+    private int scan(final ByteBuffer data, final int start, final int limit)
+    {
+        int position, count;
+        char c;
+
+        position = start;
+        while (position < limit && this.state != DONE && !this.entryReady)
+        {
+            if (this.state == STRING_BYTES)
+            {
+                count = (int) Math.min(this.remainingBytes, limit - position);
+                position += count;
+                this.remainingBytes -= count;
+                if (this.remainingBytes == 0) this.state = EXPECT_CLOSE_QUOTE;
+                continue;
+            }
+
+            c = (char) (data.get(position++) & 0xff);
+            switch (this.state)
+            {
+                case EXPECT_TYPE:
+                    scanType(c);
+                    break;
+
+                case SCALAR:
+                    if (c == ';') valueDone();
+                    break;
+
+                case EXPECT_COLON:
+                    expect(c, ':');
+                    this.number = 0;
+                    this.digits = false;
+                    this.state = NUMBER;
+                    break;
+
+                case NUMBER:
+                    scanNumber(c);
+                    break;
+
+                case EXPECT_OPEN_QUOTE:
+                    expect(c, '"');
+                    this.remainingBytes = this.number;
+                    this.state = this.number == 0 ? EXPECT_CLOSE_QUOTE
+                        : STRING_BYTES;
+                    break;
+
+                case EXPECT_CLOSE_QUOTE:
+                    expect(c, '"');
+                    if (this.kind == KIND_CLASS_NAME)
+                    {
+                        this.kind = KIND_PROPERTIES;
+                        this.state = EXPECT_COLON;
+                    }
+                    else
+                    {
+                        this.state = EXPECT_SEMICOLON;
+                    }
+                    break;
+
+                case EXPECT_SEMICOLON:
+                    expect(c, ';');
+                    valueDone();
+                    break;
+
+                case EXPECT_OPEN_BRACE:
+                    expect(c, '{');
+                    if (this.entries && this.depth == 0 && this.kind == KIND_ARRAY)
+                    {
+                        this.splitting = true;
+                        this.headerEnd = position;
+                    }
+                    push(this.number * 2);
+                    break;
+
+                case EXPECT_CLOSE_BRACE:
+                    expect(c, '}');
+                    this.depth--;
+                    valueDone();
+                    break;
+
+                default:
+                    throw new IllegalStateException("Invalid state "
+                        + this.state);
+            }
+        }
+        return position;
+    }
+
+
+    /**
+     * Handles the type character of a value.
+     *
+     * @param c
+     *            The type character
+     */
+
+    private void scanType(final char c)
+    {
+        switch (c)
+        {
+            case 'N':
+            case 'b':
+            case 'i':
+            case 'd':
+            case 'R':
+            case 'r':
+                this.state = SCALAR;
+                break;
+
+            case 's':
+                this.kind = KIND_STRING;
+                this.state = EXPECT_COLON;
+                break;
+
+            case 'a':
+                this.kind = KIND_ARRAY;
+                this.state = EXPECT_COLON;
+                break;
+
+            case 'O':
+                this.kind = KIND_CLASS_NAME;
+                this.state = EXPECT_COLON;
+                break;
+
+            default:
+                throw new UnserializeException(
+                    "Unable to unserialize unknown type " + c);
+        }
+    }
+
+
+    /**
+     * Handles a character of a length or count.
+     *
+     * @param c
+     *            The character
+     */
+
+    private void scanNumber(final char c)
+    {
+        if (c >= '0' && c <= '9')
+        {
+            this.number = this.number * 10 + (c - '0');
+            if (this.number > Integer.MAX_VALUE)
+            {
+                throw new UnserializeException("Length out of range");
+            }
+            this.digits = true;
+        }
+        else if (c == ':' && this.digits)
+        {
+            this.state = this.kind == KIND_ARRAY || this.kind == KIND_PROPERTIES
+                ? EXPECT_OPEN_BRACE : EXPECT_OPEN_QUOTE;
+        }
+        else
+        {
+            throw new UnserializeException(
+                "Unexepected character. Expected 0...9 or ':' but got '" + c
+                    + "'");
+        }
+    }
+
+
+    /**
+     * Checks that a character is the expected one.
+     *
+     * @param c
+     *            The character
+     * @param expected
+     *            The expected character
+     */
+
+    private static void expect(final char c, final char expected)
+    {
+        if (c != expected)
+        {
+            throw new UnserializeException(
+                "Unexepected character. Expected '" + expected + "' but got '"
+                    + c + "'");
+        }
+    }
+
+
+    /**
+     * Opens an array or object.
+     *
+     * @param count
+     *            The number of keys and values
+     */
+
+    private void push(final long count)
+    {
+        if (this.depth >= this.maxDepth)
+        {
+            throw new UnserializeException("Maximum nesting depth of "
+                + this.maxDepth + " exceeded");
+        }
+        if (this.depth == this.remaining.length)
+        {
+            long[] newRemaining = new long[this.depth << 1];
+            System.arraycopy(this.remaining, 0, newRemaining, 0, this.depth);
+            this.remaining = newRemaining;
+        }
+        this.remaining[this.depth++] = count;
+        this.state = count == 0 ? EXPECT_CLOSE_BRACE : EXPECT_TYPE;
+    }
+
+
+    /**
+     * Called after a key or value was completely scanned.
+     */
+
+    private void valueDone()
+    {
+        if (this.depth == 0)
+        {
+            this.state = DONE;
+        }
+        else
+        {
+            this.remaining[this.depth - 1]--;
+            if (this.splitting && this.depth == 1
+                && this.remaining[0] % 2 == 0)
+            {
+                // The value of an entry of the top-level array is complete
+                this.entryReady = true;
+            }
+            this.state = this.remaining[this.depth - 1] == 0
+                ? EXPECT_CLOSE_BRACE : EXPECT_TYPE;
+        }
+    }
+
+
+    /**
+     * Creates an unserializer for decoding the buffered bytes.
+     *
+     * @return The unserializer
+     */
+
+    private Unserializer createUnserializer()
+    {
+        Unserializer unserializer;
+
+        unserializer = new Unserializer(new ByteArraySource(
+            this.buffer.getData(), 0, this.buffer.size()), this.charset);
+        unserializer.setStringInterner(this.stringInterner);
+        unserializer.setObjectFactory(this.objectFactory);
+        unserializer.setMaxDepth(this.maxDepth);
+        return unserializer;
+    }
+}
@@ -0,0 +1,211 @@
+package com.github.pherialize;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+
+
+/**
+ * A string which is backed by a range of the serialized input data and which
+ * is decoded only when it is needed. The Unserializer creates these for large
+ * string values when lazy strings are enabled, and the Serializer writes them
+ * back by copying the raw bytes. Note that a lazy string keeps the whole
+ * input data reachable until it is garbage collected.
+ *
+ * @version $Revision$
+ */
+
+public final class LazyString implements CharSequence, Serializable
+{
+    /** Serial version UID */
+    private static final long serialVersionUID = 2794150305214356290L;
+
+    /** The buffer containing the raw bytes */
+    private final transient byte[] buffer;
+
+    /** The offset of the first byte */
+    private final transient int offset;
+
+    /** The number of bytes */
+    private final transient int length;
+
+    /** The charset used to decode the bytes */
+    private final transient Charset charset;
+
+    /** The decoded string. Null until decoded */
+    private transient String string;
+
+
+    /**
+     * Constructor
+     *
+     * @param buffer
+     *            The buffer containing the raw bytes. Must not be modified
+     *            afterwards
+     * @param offset
+     *            The offset of the first byte
+     * @param length
+     *            The number of bytes
+     * @param charset
+     *            The charset used to decode the bytes
+     */
+
+    public LazyString(final byte[] buffer, final int offset, final int length,
+        final Charset charset)
+    {
+        super();
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.charset = charset;
+    }
+
+
+    /**
+     * Returns the buffer containing the raw bytes.
+     *
+     * @return The buffer. Must not be modified
+     */
+
+    public byte[] getBuffer()
+    {
+        return this.buffer;
+    }
+
+
+    /**
+     * Returns the offset of the first byte in the buffer.
+     *
+     * @return The offset
+     */
+
+    public int getOffset()
+    {
+        return this.offset;
+    }
+
+
+    /**
+     * Returns the number of raw bytes.
+     *
+     * @return The number of bytes
+     */
+
+    public int getByteLength()
+    {
+        return this.length;
+    }
+
+
+    /**
+     * Returns the charset used to decode the bytes.
+     *
+     * @return The charset
+     */
+
+    public Charset getCharset()
+    {
+        return this.charset;
+    }
+
+
+    /**
+     * Checks if the string was already decoded.
+     *
+     * @return If the string was already decoded
+     */
+
+    public boolean isDecoded()
+    {
+        return this.string != null;
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+
+    @Override
+    public String toString()
+    {
+        String result;
+
+        result = this.string;
+        if (result == null)
+        {
+            result = new String(this.buffer, this.offset, this.length,
+                this.charset);
+            this.string = result;
+        }
+        return result;
+    }
+
+
+    /**
+     * @see java.lang.CharSequence#length()
+     */
+
+    public int length()
+    {
+        return toString().length();
+    }
+
+
+    /**
+     * @see java.lang.CharSequence#charAt(int)
+     */
+
+    public char charAt(final int index)
+    {
+        return toString().charAt(index);
+    }
+
+
+    /**
+     * @see java.lang.CharSequence#subSequence(int, int)
+     */
+
+    public CharSequence subSequence(final int start, final int end)
+    {
+        return toString().subSequence(start, end);
+    }
+
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+
+    @Override
+    public int hashCode()
+    {
+        return toString().hashCode();
+    }
+
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+
+    @Override
+    public boolean equals(final Object other)
+    {
+        if (other == this) return true;
+        if (!(other instanceof LazyString)) return false;
+        return toString().equals(other.toString());
+    }
+
+
+    /**
+     * Replaces the lazy string with the decoded string when serialized with
+     * Java serialization.
+     *
+     * @return The decoded string
+     * @throws ObjectStreamException
+     *             Never thrown
+     */
+
+    private Object writeReplace() throws ObjectStreamException
+    {
+        return toString();
+    }
+}
@@ -24,6 +24,7 @@
 package com.github.pherialize;
 
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
 
@@ -79,6 +80,53 @@ public class Mixed implements Serializable, Comparable<Object>
     /** Constant for type "object" */
     public static final int TYPE_SERIALIZABLE = 10;
     
+    /**
+     * Lowest int value for which shared instances are returned by
+     * {@link #valueOf(int)}.
+     */
+    private static final int CACHE_LOW = -128;
+
+    /**
+     * Highest int value for which shared instances are returned by
+     * {@link #valueOf(int)}. Can be changed with the system property
+     * "pherialize.mixed.cache.high".
+     */
+    private static final int CACHE_HIGH;
+
+    /** The shared int instances from CACHE_LOW to CACHE_HIGH */
+    private static final Mixed[] INT_CACHE;
+
+    /** The shared instance for boolean true */
+    private static final Mixed TRUE = new Mixed(true);
+
+    /** The shared instance for boolean false */
+    private static final Mixed FALSE = new Mixed(false);
+
+    /** The shared instance for the empty string */
+    private static final Mixed EMPTY_STRING = new Mixed("");
+
+    static
+    {
+        int high;
+
+        high = 1023;
+        try
+        {
+            high = Integer.getInteger("pherialize.mixed.cache.high", high)
+                .intValue();
+        }
+        catch (final SecurityException e)
+        {
+            // Not allowed to read system properties, using the default
+        }
+        CACHE_HIGH = Math.max(high, 127);
+        INT_CACHE = new Mixed[CACHE_HIGH - CACHE_LOW + 1];
+        for (int i = 0; i < INT_CACHE.length; i++)
+        {
+            INT_CACHE[i] = new Mixed(i + CACHE_LOW);
+        }
+    }
+
     /** The value */
     private Object value;
 
@@ -100,7 +148,10 @@ public class Mixed implements Serializable, Comparable<Object>
         switch (this.type)
         {
             case TYPE_STRING:
-                this.value = value.toString();
+                if (value instanceof LazyString || value instanceof PhpBytes)
+                    this.value = value;
+                else
+                    this.value = value.toString();
                 break;
 
             case TYPE_ARRAY:
@@ -243,6 +294,83 @@ public class Mixed implements Serializable, Comparable<Object>
     }
 
 
+    /**
+     * Returns a mixed value for the specified int. Values between -128 and
+     * the configured cache limit (1023 by default) are shared instances.
+     * 
+     * @param value
+     *            The int value
+     * @return The mixed value
+     */
+
+    public static Mixed valueOf(final int value)
+    {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH)
+        {
+            return INT_CACHE[value - CACHE_LOW];
+        }
+        return new Mixed(value);
+    }
+
+
+    /**
+     * Returns the shared mixed value for the specified boolean.
+     * 
+     * @param value
+     *            The boolean value
+     * @return The mixed value
+     */
+
+    public static Mixed valueOf(final boolean value)
+    {
+        return value ? TRUE : FALSE;
+    }
+
+
+    /**
+     * Returns a mixed value for the specified string. The empty string is a
+     * shared instance.
+     * 
+     * @param value
+     *            The string value
+     * @return The mixed value
+     */
+
+    public static Mixed valueOf(final String value)
+    {
+        if (value.length() == 0) return EMPTY_STRING;
+        return new Mixed(value);
+    }
+
+
+    /**
+     * Returns a mixed value for the specified object. Integers, booleans and
+     * the empty string are mapped to the shared instances, everything else
+     * is wrapped into a new mixed value.
+     * 
+     * @param value
+     *            The value
+     * @return The mixed value
+     */
+
+    public static Mixed valueOf(final Object value)
+    {
+        if (value instanceof Integer)
+        {
+            return valueOf(((Integer) value).intValue());
+        }
+        else if (value instanceof Boolean)
+        {
+            return valueOf(((Boolean) value).booleanValue());
+        }
+        else if (value instanceof String)
+        {
+            return valueOf((String) value);
+        }
+        return new Mixed(value);
+    }
+
+
     /**
      * Returns the type of the specified object
      * 
@@ -253,7 +381,8 @@ public class Mixed implements Serializable, Comparable<Object>
 
     public static int getTypeOf(final Object value)
     {
-        if (value instanceof String
+        if (value instanceof String || value instanceof LazyString
+            || value instanceof PhpBytes
             || (value != null && value.getClass().isEnum()))
         {
             return TYPE_STRING;
@@ -364,7 +493,8 @@ public class Mixed implements Serializable, Comparable<Object>
     public Object toType(final int type)
     {
         // Return the value right away if it's already the correct type
-        if (this.type == type) return this.value;
+        if (this.type == type && !(this.value instanceof LazyString)
+            && !(this.value instanceof PhpBytes)) return this.value;
 
         switch (type)
         {
@@ -375,7 +505,7 @@ public class Mixed implements Serializable, Comparable<Object>
             case TYPE_CHAR:
                 return Character.valueOf(toChar());
             case TYPE_DOUBLE:
-                return Double.valueOf(toFloat());
+                return Double.valueOf(toDouble());
             case TYPE_FLOAT:
                 return Float.valueOf(toFloat());
             case TYPE_INT:
@@ -475,17 +605,8 @@ public class Mixed implements Serializable, Comparable<Object>
 
     public int toInt()
     {
-        if (this.value == null) return 0;
-        if (isBoolean()) return toBoolean() ? 1 : 0;
-        if (isArray()) return ((MixedArray) this.value).size() == 0 ? 0 : 1;
-        try
-        {
-            return (int) toLong();
-        }
-        catch (final NumberFormatException e)
-        {
-            return 0;
-        }
+        if (this.type == TYPE_INT) return ((Integer) this.value).intValue();
+        return (int) toLong();
     }
 
 
@@ -500,15 +621,26 @@ public class Mixed implements Serializable, Comparable<Object>
     public long toLong()
     {
         if (this.value == null) return 0;
-        if (isBoolean()) return toBoolean() ? 1 : 0;
-        if (isArray()) return ((MixedArray) this.value).size() == 0 ? 0 : 1;
-        try
-        {
-            return (long) toDouble();
-        }
-        catch (final NumberFormatException e)
+        switch (this.type)
         {
-            return 0;
+            case TYPE_BYTE:
+            case TYPE_SHORT:
+            case TYPE_INT:
+            case TYPE_LONG:
+                return ((Number) this.value).longValue();
+
+            case TYPE_FLOAT:
+            case TYPE_DOUBLE:
+                return (long) ((Number) this.value).doubleValue();
+
+            case TYPE_BOOLEAN:
+                return toBoolean() ? 1 : 0;
+
+            case TYPE_ARRAY:
+                return ((MixedArray) this.value).size() == 0 ? 0 : 1;
+
+            default:
+                return parseLong(this.value.toString());
         }
     }
 
@@ -524,15 +656,24 @@ public class Mixed implements Serializable, Comparable<Object>
     public float toFloat()
     {
         if (this.value == null) return 0;
-        if (isBoolean()) return toBoolean() ? 1 : 0;
-        if (isArray()) return ((MixedArray) this.value).size() == 0 ? 0 : 1;
-        try
-        {
-            return Float.parseFloat(this.value.toString());
-        }
-        catch (final NumberFormatException e)
+        switch (this.type)
         {
-            return 0;
+            case TYPE_BYTE:
+            case TYPE_SHORT:
+            case TYPE_INT:
+            case TYPE_LONG:
+            case TYPE_FLOAT:
+            case TYPE_DOUBLE:
+                return ((Number) this.value).floatValue();
+
+            case TYPE_BOOLEAN:
+                return toBoolean() ? 1 : 0;
+
+            case TYPE_ARRAY:
+                return ((MixedArray) this.value).size() == 0 ? 0 : 1;
+
+            default:
+                return (float) parseDouble(this.value.toString());
         }
     }
 
@@ -569,16 +710,185 @@ public class Mixed implements Serializable, Comparable<Object>
     public double toDouble()
     {
         if (this.value == null) return 0;
-        if (isBoolean()) return toBoolean() ? 1 : 0;
-        if (isArray()) return ((MixedArray) this.value).size() == 0 ? 0 : 1;
-        try
+        switch (this.type)
         {
-            return Double.parseDouble(this.value.toString());
+            case TYPE_BYTE:
+            case TYPE_SHORT:
+            case TYPE_INT:
+            case TYPE_LONG:
+            case TYPE_DOUBLE:
+                return ((Number) this.value).doubleValue();
+
+            case TYPE_FLOAT:
+                // Widening the float directly would expose its binary
+                // representation (12.34 becomes 12.340000152...) so the
+                // shortest decimal representation is used instead.
+                return Double.parseDouble(this.value.toString());
+
+            case TYPE_BOOLEAN:
+                return toBoolean() ? 1 : 0;
+
+            case TYPE_ARRAY:
+                return ((MixedArray) this.value).size() == 0 ? 0 : 1;
+
+            default:
+                return parseDouble(this.value.toString());
         }
-        catch (final NumberFormatException e)
+    }
+
+
+    /**
+     * Returns the index of the first character in the specified string which
+     * is not PHP whitespace (Space, tab, newline, carriage return, vertical
+     * tab or form feed).
+     * 
+     * @param string
+     *            The string to scan
+     * @return The index of the first non-whitespace character
+     */
+
+    private static int skipWhitespace(final String string)
+    {
+        int i, max;
+
+        for (i = 0, max = string.length(); i < max; i++)
         {
-            return 0;
+            switch (string.charAt(i))
+            {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r':
+                case '\u000B':
+                case '\f':
+                    continue;
+
+                default:
+                    return i;
+            }
+        }
+        return i;
+    }
+
+
+    /**
+     * Converts the specified string into a long by using the PHP rules for
+     * numeric strings. Leading whitespace is skipped and the longest numeric
+     * prefix is used, so "12abc" results in 12 and "abc" results in 0. Plain
+     * integer strings are converted directly, everything else (fractions,
+     * exponents, values out of range) is converted via
+     * {@link #parseDouble(String)}.
+     * 
+     * @param string
+     *            The string to convert
+     * @return The converted number
+     */
+
+    static long parseLong(final String string)
+    {
+        int i, max;
+        boolean negative;
+        long result;
+        char c;
+        int digit;
+
+        max = string.length();
+        i = skipWhitespace(string);
+        negative = false;
+        if (i < max && (string.charAt(i) == '-' || string.charAt(i) == '+'))
+        {
+            negative = string.charAt(i) == '-';
+            i++;
+        }
+        result = 0;
+        for (; i < max; i++)
+        {
+            c = string.charAt(i);
+            if (c < '0' || c > '9') break;
+            digit = c - '0';
+            if (result > (Long.MAX_VALUE - digit) / 10)
+                return (long) parseDouble(string);
+            result = result * 10 + digit;
+        }
+        if (i < max)
+        {
+            c = string.charAt(i);
+            if (c == '.' || c == 'e' || c == 'E')
+                return (long) parseDouble(string);
+        }
+        return negative ? -result : result;
+    }
+
+
+    /**
+     * Converts the specified string into a double by using the PHP rules for
+     * numeric strings. Leading whitespace is skipped and the longest numeric
+     * prefix (Optional sign, digits, optional fraction and optional exponent)
+     * is used. If there is no such prefix then 0 is returned.
+     * 
+     * @param string
+     *            The string to convert
+     * @return The converted number
+     */
+
+    static double parseDouble(final String string)
+    {
+        int start, i, j, max;
+        int digits;
+        long mantissa;
+        boolean fraction;
+        char c;
+
+        max = string.length();
+        start = skipWhitespace(string);
+        i = start;
+        if (i < max && (string.charAt(i) == '-' || string.charAt(i) == '+'))
+            i++;
+        digits = 0;
+        mantissa = 0;
+        fraction = false;
+        for (; i < max; i++)
+        {
+            c = string.charAt(i);
+            if (c >= '0' && c <= '9')
+            {
+                if (digits < 18) mantissa = mantissa * 10 + (c - '0');
+                digits++;
+            }
+            else if (c == '.' && !fraction)
+            {
+                fraction = true;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if (digits == 0) return 0;
+
+        // Plain integers with up to 18 digits fit into a long which can be
+        // converted without rounding errors
+        if (!fraction && digits <= 18 && (i == max
+            || (string.charAt(i) != 'e' && string.charAt(i) != 'E')))
+        {
+            return string.charAt(start) == '-' ? -mantissa : mantissa;
         }
+
+        // Include the exponent only if it contains at least one digit
+        if (i < max && (string.charAt(i) == 'e' || string.charAt(i) == 'E'))
+        {
+            j = i + 1;
+            if (j < max && (string.charAt(j) == '-' || string.charAt(j) == '+'))
+                j++;
+            if (j < max && string.charAt(j) >= '0' && string.charAt(j) <= '9')
+            {
+                while (j < max && string.charAt(j) >= '0'
+                    && string.charAt(j) <= '9')
+                    j++;
+                i = j;
+            }
+        }
+        return Double.parseDouble(string.substring(start, i));
     }
 
 
@@ -618,11 +928,13 @@ public class Mixed implements Serializable, Comparable<Object>
     }
 
     /**
-     * Returns this mixed value as raw object
+     * Returns this mixed value as raw object. Lazy strings are returned
+     * decoded.
      * @return
      */
     public Object toObject()
     {
+        if (value instanceof LazyString) return value.toString();
         return value;
     }
 
@@ -633,15 +945,18 @@ public class Mixed implements Serializable, Comparable<Object>
     @SuppressWarnings("unchecked")
     public int compareTo(final Object other)
     {
-        if (other instanceof Mixed)
-        {
-            return ((Comparable<Object>) this.value)
-                .compareTo(((Mixed) other).value);
-        }
-        else
+        Object a, b;
+
+        a = toObject();
+        b = other instanceof Mixed ? ((Mixed) other).toObject() : other;
+
+        // Raw strings and strings are compared like equals() does it
+        if ((a instanceof PhpBytes && b instanceof String)
+            || (a instanceof String && b instanceof PhpBytes))
         {
-            return ((Comparable<Object>) this.value).compareTo(other);
+            return a.toString().compareTo(b.toString());
         }
+        return ((Comparable<Object>) a).compareTo(b);
     }
 
 
@@ -658,7 +973,25 @@ public class Mixed implements Serializable, Comparable<Object>
 
 
     /**
-     * Returns the raw value.
+     * Returns mixed value as PHP bytes. Strings are encoded with the
+     * specified charset. Returns null for any other data type.
+     * 
+     * @param charset
+     *            The charset used to encode strings
+     * @return Mixed value as PHP bytes
+     */
+
+    public PhpBytes toPhpBytes(final Charset charset)
+    {
+        if (this.value instanceof PhpBytes) return (PhpBytes) this.value;
+        if (!isString()) return null;
+        return PhpBytes.wrap(toString().getBytes(charset));
+    }
+
+
+    /**
+     * Returns the raw value. For strings this may be a {@link LazyString}
+     * or {@link PhpBytes} instead of a String.
      * 
      * @return The raw value
      */
@@ -111,7 +111,7 @@ public class MixedArray extends LinkedHashMap<Object, Object>
         iterator = list.iterator();
         while (iterator.hasNext())
         {
-            this.put(new Mixed(i), iterator.next());
+            this.put(Mixed.valueOf(i), iterator.next());
             i++;
         }
     }
@@ -130,7 +130,7 @@ public class MixedArray extends LinkedHashMap<Object, Object>
         }
         else
         {
-            return super.get(new Mixed(key));
+            return super.get(Mixed.valueOf(key));
         }
     }
 
@@ -329,11 +329,11 @@ public class MixedArray extends LinkedHashMap<Object, Object>
         Mixed mixedKey, mixedValue;
         
         if (!(key instanceof Mixed))
-            mixedKey = new Mixed(key);
+            mixedKey = Mixed.valueOf(key);
         else
             mixedKey = (Mixed) key;
         if (!(value instanceof Mixed))
-            mixedValue = new Mixed(value);
+            mixedValue = Mixed.valueOf(value);
         else
             mixedValue = (Mixed) value;
         return super.put(mixedKey, mixedValue);
@@ -353,7 +353,7 @@ public class MixedArray extends LinkedHashMap<Object, Object>
         }
         else
         {
-            return super.containsKey(new Mixed(key));
+            return super.containsKey(Mixed.valueOf(key));
         }
     }
 
@@ -403,7 +403,7 @@ public class MixedArray extends LinkedHashMap<Object, Object>
         }
         else
         {
-            return super.remove(new Mixed(key));
+            return super.remove(Mixed.valueOf(key));
         }
     }
 
@@ -418,7 +418,7 @@ public class MixedArray extends LinkedHashMap<Object, Object>
 
     public Object get(final int index)
     {
-        return get(new Mixed(index));
+        return get(Mixed.valueOf(index));
     }
 
 
@@ -604,4 +604,67 @@ public class MixedArray extends LinkedHashMap<Object, Object>
     {
         return getMixed(index).toType(type);
     }
+
+
+    /**
+     * Returns the values of this array as an int array in iteration order.
+     * 
+     * @return The values as int array
+     */
+
+    public int[] toIntArray()
+    {
+        int[] result;
+        int i;
+
+        result = new int[size()];
+        i = 0;
+        for (final Object value : values())
+        {
+            result[i++] = ((Mixed) value).toInt();
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the values of this array as a long array in iteration order.
+     * 
+     * @return The values as long array
+     */
+
+    public long[] toLongArray()
+    {
+        long[] result;
+        int i;
+
+        result = new long[size()];
+        i = 0;
+        for (final Object value : values())
+        {
+            result[i++] = ((Mixed) value).toLong();
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the values of this array as a double array in iteration order.
+     * 
+     * @return The values as double array
+     */
+
+    public double[] toDoubleArray()
+    {
+        double[] result;
+        int i;
+
+        result = new double[size()];
+        i = 0;
+        for (final Object value : values())
+        {
+            result[i++] = ((Mixed) value).toDouble();
+        }
+        return result;
+    }
 }
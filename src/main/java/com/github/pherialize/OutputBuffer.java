@@ -0,0 +1,511 @@
+package com.github.pherialize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+
+/**
+ * A growable byte buffer the Serializer writes the serialized data to.
+ * Control characters and numbers are written as ASCII directly into the
+ * buffer, strings are written as already encoded bytes.
+ *
+ * @version $Revision$
+ */
+
+final class OutputBuffer
+{
+    /** Powers of ten which are exactly representable as double */
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+        1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+        1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /** Powers of ten as long */
+    private static final long[] LONG_POWERS_OF_TEN = { 1L, 10L, 100L, 1000L,
+        10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+        10000000000L, 100000000000L, 1000000000000L, 10000000000000L,
+        100000000000000L, 1000000000000000L, 10000000000000000L,
+        100000000000000000L, 1000000000000000000L };
+
+    /** 2^53. All integers below this value are exactly representable as double */
+    private static final double TWO_POW_53 = 9007199254740992.0;
+
+    /** The buffered data */
+    private byte[] data;
+
+    /** Scratch buffer for the digits of doubles. Created on first use */
+    private byte[] digits;
+
+    /** The number of bytes in the buffer */
+    private int size;
+
+
+    /**
+     * Constructor
+     */
+
+    OutputBuffer()
+    {
+        this(256);
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param initialCapacity
+     *            The initial capacity in bytes
+     */
+
+    OutputBuffer(final int initialCapacity)
+    {
+        this.data = new byte[Math.max(initialCapacity, 16)];
+    }
+
+
+    /**
+     * Makes sure the specified number of bytes can be appended without
+     * growing the buffer again.
+     *
+     * @param count
+     *            The number of bytes to append
+     */
+
+    void ensureCapacity(final int count)
+    {
+        byte[] newData;
+        int newCapacity;
+
+        if (this.size + count <= this.data.length) return;
+        newCapacity = Math.max(this.data.length << 1, this.size + count);
+        newData = new byte[newCapacity];
+        System.arraycopy(this.data, 0, newData, 0, this.size);
+        this.data = newData;
+    }
+
+
+    /**
+     * Appends an ASCII character.
+     *
+     * @param c
+     *            The ASCII character
+     * @return This buffer
+     */
+
+    OutputBuffer append(final char c)
+    {
+        ensureCapacity(1);
+        this.data[this.size++] = (byte) c;
+        return this;
+    }
+
+
+    /**
+     * Appends an ASCII string.
+     *
+     * @param ascii
+     *            The ASCII string
+     * @return This buffer
+     */
+
+    OutputBuffer append(final String ascii)
+    {
+        int length;
+
+        length = ascii.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++)
+        {
+            this.data[this.size++] = (byte) ascii.charAt(i);
+        }
+        return this;
+    }
+
+
+    /**
+     * Appends the decimal representation of an int.
+     *
+     * @param number
+     *            The number
+     * @return This buffer
+     */
+
+    OutputBuffer append(final int number)
+    {
+        return append((long) number);
+    }
+
+
+    /**
+     * Appends the decimal representation of a long.
+     *
+     * @param number
+     *            The number
+     * @return This buffer
+     */
+
+    OutputBuffer append(final long number)
+    {
+        int digits, end;
+        long rest;
+
+        if (number == Long.MIN_VALUE) return append("-9223372036854775808");
+        if (number < 0)
+        {
+            append('-');
+            return append(-number);
+        }
+
+        // Count the digits
+        digits = 1;
+        for (rest = number / 10; rest != 0; rest /= 10)
+        {
+            digits++;
+        }
+
+        // Write the digits from right to left
+        ensureCapacity(digits);
+        end = this.size + digits;
+        rest = number;
+        for (int i = end - 1; i >= this.size; i--)
+        {
+            this.data[i] = (byte) ('0' + (int) (rest % 10));
+            rest /= 10;
+        }
+        this.size = end;
+        return this;
+    }
+
+
+    /**
+     * Appends a double like PHP does with serialize_precision -1: The
+     * shortest decimal representation which reads back as the same double,
+     * without a fraction for integral values ("1" instead of "1.0") and in
+     * exponential notation ("1.0E+25") for values below 0.0001 or from 1.0E+17
+     * on. Infinite values are written as "INF" and "-INF", NaN as "NAN".
+     *
+     * @param number
+     *            The number
+     * @return This buffer
+     */
+
+    OutputBuffer append(final double number)
+    {
+        double value, scaled;
+        long mantissa;
+
+        if (Double.isNaN(number)) return append("NAN");
+        if (Double.isInfinite(number)) return append(number > 0 ? "INF" : "-INF");
+        if (number == 0) return append(1 / number < 0 ? "-0" : "0");
+
+        value = number;
+        if (value < 0)
+        {
+            append('-');
+            value = -value;
+        }
+
+        // Fast path: Find the smallest number of fraction digits with which
+        // the value is represented exactly. Dividing two exactly
+        // representable numbers is correctly rounded, so the check is exact.
+        if (value >= 1e-4 && value < TWO_POW_53)
+        {
+            for (int scale = 0; scale < LONG_POWERS_OF_TEN.length; scale++)
+            {
+                scaled = value * POWERS_OF_TEN[scale];
+                if (scaled >= TWO_POW_53) break;
+                mantissa = (long) (scaled + 0.5);
+                if (mantissa / POWERS_OF_TEN[scale] == value)
+                {
+                    return appendFixed(mantissa, scale);
+                }
+            }
+        }
+
+        // Slow path: Take the digits from Java's own formatting
+        return appendDigits(Double.toString(value));
+    }
+
+
+    /**
+     * Appends a non-negative fixed point number.
+     *
+     * @param mantissa
+     *            The digits of the number
+     * @param scale
+     *            The number of fraction digits
+     * @return This buffer
+     */
+
+    private OutputBuffer appendFixed(final long mantissa, final int scale)
+    {
+        long fraction;
+        int end;
+
+        if (scale == 0) return append(mantissa);
+        append(mantissa / LONG_POWERS_OF_TEN[scale]);
+        append('.');
+        fraction = mantissa % LONG_POWERS_OF_TEN[scale];
+        ensureCapacity(scale);
+        end = this.size + scale;
+        for (int i = end - 1; i >= this.size; i--)
+        {
+            this.data[i] = (byte) ('0' + (int) (fraction % 10));
+            fraction /= 10;
+        }
+        this.size = end;
+        return this;
+    }
+
+
+    /**
+     * Appends the positive number in the specified Java double notation
+     * ("123.45" or "1.2345E10") in PHP notation.
+     *
+     * @param javaNotation
+     *            The number in Java notation
+     * @return This buffer
+     */
+
+    private OutputBuffer appendDigits(final String javaNotation)
+    {
+        int count, decpt, exponent, i, max;
+        boolean point, leading;
+        char c;
+
+        if (this.digits == null) this.digits = new byte[32];
+
+        // Collect the significant digits and the position of the decimal
+        // point relative to the first digit
+        count = 0;
+        decpt = 0;
+        point = false;
+        leading = true;
+        max = javaNotation.length();
+        for (i = 0; i < max; i++)
+        {
+            c = javaNotation.charAt(i);
+            if (c == '.')
+            {
+                point = true;
+            }
+            else if (c == 'E')
+            {
+                break;
+            }
+            else if (leading && c == '0')
+            {
+                if (point) decpt--;
+            }
+            else
+            {
+                leading = false;
+                this.digits[count++] = (byte) c;
+                if (!point) decpt++;
+            }
+        }
+        if (i < max)
+        {
+            exponent = Integer.parseInt(javaNotation.substring(i + 1));
+            decpt += exponent;
+        }
+        while (count > 1 && this.digits[count - 1] == '0')
+        {
+            count--;
+        }
+
+        if (decpt < -3 || decpt > 17)
+        {
+            // Exponential notation
+            append((char) this.digits[0]);
+            append('.');
+            if (count == 1)
+                append('0');
+            else
+                append(this.digits, 1, count - 1);
+            append('E');
+            append(decpt - 1 < 0 ? '-' : '+');
+            append(Math.abs(decpt - 1));
+        }
+        else if (decpt <= 0)
+        {
+            append("0.");
+            for (i = decpt; i < 0; i++)
+            {
+                append('0');
+            }
+            append(this.digits, 0, count);
+        }
+        else
+        {
+            for (i = 0; i < decpt; i++)
+            {
+                append(i < count ? (char) this.digits[i] : '0');
+            }
+            if (count > decpt)
+            {
+                append('.');
+                append(this.digits, decpt, count - decpt);
+            }
+        }
+        return this;
+    }
+
+
+    /**
+     * Appends raw bytes.
+     *
+     * @param bytes
+     *            The buffer containing the bytes
+     * @param offset
+     *            The offset of the first byte
+     * @param length
+     *            The number of bytes
+     * @return This buffer
+     */
+
+    OutputBuffer append(final byte[] bytes, final int offset, final int length)
+    {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, this.data, this.size, length);
+        this.size += length;
+        return this;
+    }
+
+
+    /**
+     * Appends the specified number of bytes from the current position of a
+     * byte buffer and advances its position.
+     *
+     * @param source
+     *            The byte buffer to read from
+     * @param length
+     *            The number of bytes
+     * @return This buffer
+     */
+
+    OutputBuffer append(final ByteBuffer source, final int length)
+    {
+        ensureCapacity(length);
+        source.get(this.data, this.size, length);
+        this.size += length;
+        return this;
+    }
+
+
+    /**
+     * Appends the content of another buffer.
+     *
+     * @param other
+     *            The other buffer
+     * @return This buffer
+     */
+
+    OutputBuffer append(final OutputBuffer other)
+    {
+        return append(other.data, 0, other.size);
+    }
+
+
+    /**
+     * Returns the number of bytes in the buffer.
+     *
+     * @return The number of bytes
+     */
+
+    int size()
+    {
+        return this.size;
+    }
+
+
+    /**
+     * Returns the internal array holding the buffered bytes. Only the first
+     * {@link #size()} bytes are valid. The array is reused after
+     * {@link #clear()}.
+     *
+     * @return The internal array
+     */
+
+    byte[] getData()
+    {
+        return this.data;
+    }
+
+
+    /**
+     * Removes all bytes from the buffer but keeps its capacity.
+     */
+
+    void clear()
+    {
+        this.size = 0;
+    }
+
+
+    /**
+     * Returns a copy of the buffered bytes.
+     *
+     * @return The buffered bytes
+     */
+
+    byte[] toByteArray()
+    {
+        byte[] result;
+
+        result = new byte[this.size];
+        System.arraycopy(this.data, 0, result, 0, this.size);
+        return result;
+    }
+
+
+    /**
+     * Returns the buffered bytes decoded with the specified charset.
+     *
+     * @param charset
+     *            The charset
+     * @return The decoded data
+     */
+
+    String toString(final Charset charset)
+    {
+        return new String(this.data, 0, this.size, charset);
+    }
+
+
+    /**
+     * Copies buffered bytes into the specified byte buffer, as many as fit
+     * into its remaining space.
+     *
+     * @param offset
+     *            The offset of the first byte to copy
+     * @param target
+     *            The byte buffer to copy the bytes to
+     * @return The number of copied bytes
+     */
+
+    int copyTo(final int offset, final ByteBuffer target)
+    {
+        int count;
+
+        count = Math.min(this.size - offset, target.remaining());
+        target.put(this.data, offset, count);
+        return count;
+    }
+
+
+    /**
+     * Writes the buffered bytes to the specified stream.
+     *
+     * @param stream
+     *            The stream to write to
+     * @throws IOException
+     *             When writing fails
+     */
+
+    void writeTo(final OutputStream stream) throws IOException
+    {
+        stream.write(this.data, 0, this.size);
+    }
+}
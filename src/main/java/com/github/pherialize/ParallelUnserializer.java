@@ -0,0 +1,539 @@
+package com.github.pherialize;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.github.pherialize.exceptions.UnserializeException;
+import com.github.pherialize.factory.ObjectFactory;
+import com.github.pherialize.io.ByteArraySource;
+
+
+/**
+ * Unserializes large top-level arrays on multiple threads. The data is
+ * decoded in two phases: The first phase quickly scans the data to find the
+ * boundaries of the top-level array entries by skipping strings with their
+ * length prefixes, and counts the numbered values of each entry. The second
+ * phase decodes ranges of entries in parallel on the specified executor.
+ * References to values in other ranges are resolved in a final fix-up pass,
+ * so the result is the same as unserializing the data with a single
+ * {@link Unserializer}.
+ *
+ * Data which is not a top-level array is unserialized on the calling thread.
+ * The object factory (if any) is called from multiple threads. References
+ * from object properties to values in other ranges are only resolved when
+ * objects are unserialized as maps.
+ *
+ * @version $Revision$
+ */
+
+public class ParallelUnserializer
+{
+    /** The default minimum number of bytes decoded by one task */
+    public static final int DEFAULT_MIN_TASK_SIZE = 65536;
+
+    /** The data to unserialize */
+    private final byte[] data;
+
+    /** The charset used to decode strings */
+    private final Charset charset;
+
+    /** Used to unserialize objects. Null to unserialize them as maps */
+    private ObjectFactory objectFactory;
+
+    /** The minimum number of bytes decoded by one task */
+    private int minTaskSize = DEFAULT_MIN_TASK_SIZE;
+
+    /** The scan position */
+    private int position;
+
+    /** Scans the data word by word */
+    private ByteScanner scanner;
+
+    /** The number of numbered values scanned so far */
+    private int scannedSlots;
+
+    /** The remaining keys and values per open container while scanning */
+    private long[] remaining = new long[16];
+
+    /** The decoded top-level array */
+    private Mixed result;
+
+    /** The tasks ordered by their slot base */
+    private List<Task> tasks;
+
+
+    /**
+     * A range of top-level array entries which is decoded by one thread.
+     */
+
+    private final class Task implements Callable<Object>
+    {
+        /** The offset of the first entry */
+        final int offset;
+
+        /** The number of bytes of the entries */
+        final int length;
+
+        /** The number of entries */
+        final int count;
+
+        /** The number of values before the first entry */
+        final int slotBase;
+
+        /** The unserializer. Kept for resolving references */
+        Unserializer unserializer;
+
+        /** The decoded keys */
+        Mixed[] keys;
+
+        /** The decoded values */
+        Mixed[] values;
+
+
+        /**
+         * Constructor
+         *
+         * @param offset
+         *            The offset of the first entry
+         * @param length
+         *            The number of bytes of the entries
+         * @param count
+         *            The number of entries
+         * @param slotBase
+         *            The number of values before the first entry
+         */
+
+        Task(final int offset, final int length, final int count,
+            final int slotBase)
+        {
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.slotBase = slotBase;
+        }
+
+
+        /**
+         * @see java.util.concurrent.Callable#call()
+         */
+
+        public Object call()
+        {
+            this.unserializer = new Unserializer(new ByteArraySource(
+                ParallelUnserializer.this.data, this.offset, this.length),
+                ParallelUnserializer.this.charset);
+            this.unserializer.setObjectFactory(ParallelUnserializer.this.objectFactory);
+            this.unserializer.setSlotBase(this.slotBase);
+            this.keys = new Mixed[this.count];
+            this.values = new Mixed[this.count];
+            for (int i = 0; i < this.count; i++)
+            {
+                this.keys[i] = this.unserializer.unserializeKey();
+                this.values[i] = this.unserializer.unserializeEntry();
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param data
+     *            The data to unserialize
+     * @param charset
+     *            The charset used to decode strings
+     */
+
+    public ParallelUnserializer(final byte[] data, final Charset charset)
+    {
+        super();
+        this.data = data;
+        this.charset = charset;
+    }
+
+
+    /**
+     * Sets the factory used to unserialize objects. It must be thread-safe.
+     *
+     * @param objectFactory
+     *            The object factory. Null to unserialize objects as maps
+     */
+
+    public void setObjectFactory(final ObjectFactory objectFactory)
+    {
+        this.objectFactory = objectFactory;
+    }
+
+
+    /**
+     * Sets the minimum number of bytes decoded by one task. Smaller data is
+     * decoded by fewer tasks.
+     *
+     * @param minTaskSize
+     *            The minimum number of bytes per task
+     */
+
+    public void setMinTaskSize(final int minTaskSize)
+    {
+        this.minTaskSize = minTaskSize;
+    }
+
+
+    /**
+     * Unserializes the data.
+     *
+     * @param executor
+     *            The executor used to decode the entries in parallel. Any
+     *            executor service can be used, for example a ForkJoinPool
+     * @return The unserialized data
+     */
+
+    public Mixed unserialize(final ExecutorService executor)
+    {
+        List<Future<Object>> futures;
+        MixedArray array;
+        Task task;
+        int max, taskSize, start, startSlots, count;
+        Object event;
+
+        if (this.data.length < 2 || this.data[0] != 'a' || this.data[1] != ':')
+        {
+            return createUnserializer().unserializeObject();
+        }
+        event = Events.beginUnserialize();
+
+        // Phase one: Find the entry boundaries and create tasks for ranges
+        // of entries
+        this.scanner = new ByteScanner(this.data);
+        this.position = 2;
+        max = readNumber(':');
+        expect('{');
+        this.scannedSlots = 1;
+        taskSize = Math.max(this.minTaskSize, this.data.length
+            / (Runtime.getRuntime().availableProcessors() * 4));
+        this.tasks = new ArrayList<Task>();
+        start = this.position;
+        startSlots = this.scannedSlots;
+        count = 0;
+        for (int i = 0; i < max; i++)
+        {
+            skipValue(true);
+            skipValue(false);
+            count++;
+            if (this.position - start >= taskSize || i == max - 1)
+            {
+                this.tasks.add(new Task(start, this.position - start, count,
+                    startSlots));
+                start = this.position;
+                startSlots = this.scannedSlots;
+                count = 0;
+            }
+        }
+        expect('}');
+        if (this.position != this.data.length)
+        {
+            throw new UnserializeException("Unexpected data after position "
+                + this.position);
+        }
+
+        // Phase two: Decode the ranges in parallel
+        futures = new ArrayList<Future<Object>>(this.tasks.size());
+        for (int i = 0; i < this.tasks.size(); i++)
+        {
+            futures.add(executor.submit(this.tasks.get(i)));
+        }
+        for (int i = 0; i < futures.size(); i++)
+        {
+            waitFor(futures.get(i));
+        }
+
+        // Combine the entries and resolve the references between ranges
+        array = new MixedArray(max);
+        this.result = new Mixed(array);
+        for (int i = 0; i < this.tasks.size(); i++)
+        {
+            task = this.tasks.get(i);
+            for (int j = 0; j < task.count; j++)
+            {
+                array.put(task.keys[j], resolve(task, task.values[j]));
+            }
+        }
+        for (int i = 0; i < this.tasks.size(); i++)
+        {
+            task = this.tasks.get(i);
+            for (final Unserializer.Placeholder usage : task.unserializer
+                .getPlaceholderUsages())
+            {
+                usage.array.put(usage.key, resolve(task, usage.placeholder));
+            }
+        }
+        this.tasks = null;
+        Events.endUnserialize(event, this.data.length, this.scannedSlots);
+        return this.result;
+    }
+
+
+    /**
+     * Creates an unserializer for the whole data.
+     *
+     * @return The unserializer
+     */
+
+    private Unserializer createUnserializer()
+    {
+        Unserializer unserializer;
+
+        unserializer = new Unserializer(this.data, this.charset);
+        unserializer.setObjectFactory(this.objectFactory);
+        return unserializer;
+    }
+
+
+    /**
+     * Waits for a task to finish.
+     *
+     * @param future
+     *            The future of the task
+     */
+
+    private static void waitFor(final Future<Object> future)
+    {
+        Throwable cause;
+
+        try
+        {
+            future.get();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new UnserializeException("Interrupted while unserializing", e);
+        }
+        catch (final ExecutionException e)
+        {
+            cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new UnserializeException("Unable to unserialize", cause);
+        }
+    }
+
+
+    /**
+     * Returns the referenced value if the specified value is a placeholder
+     * created by the specified task, or the value itself otherwise.
+     *
+     * @param task
+     *            The task which decoded the value
+     * @param value
+     *            The value
+     * @return The resolved value
+     */
+
+    private Mixed resolve(final Task task, final Mixed value)
+    {
+        Integer number;
+
+        if (value == null) return null;
+        number = task.unserializer.getPlaceholderNumber(value);
+        if (number == null) return value;
+        return resolve(number.intValue());
+    }
+
+
+    /**
+     * Returns the value with the specified number.
+     *
+     * @param number
+     *            The number of the value
+     * @return The value
+     */
+
+    private Mixed resolve(final int number)
+    {
+        int low, high, middle;
+        Task task;
+
+        if (number == 1) return this.result;
+
+        // Find the last task whose slot base is below the number
+        low = 0;
+        high = this.tasks.size() - 1;
+        while (low < high)
+        {
+            middle = (low + high + 1) >>> 1;
+            if (this.tasks.get(middle).slotBase < number)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        task = this.tasks.get(low);
+        return resolve(task, task.unserializer.getSlot(number));
+    }
+
+
+    /**
+     * Skips the value at the current position and counts the numbered
+     * values in it.
+     *
+     * @param key
+     *            If the value is an array key which is not numbered
+     */
+
+    private void skipValue(final boolean key)
+    {
+        int depth, end;
+        boolean complete, isKey;
+        byte type;
+        long count;
+
+        depth = 0;
+        do
+        {
+            isKey = depth == 0 ? key : this.remaining[depth - 1] % 2 == 0;
+            if (this.position >= this.data.length)
+            {
+                throw new UnserializeException("Unexepected end of data.");
+            }
+            type = this.data[this.position++];
+            expect(type == 'N' ? ';' : ':');
+            complete = true;
+            switch (type)
+            {
+                case 'N':
+                    break;
+
+                case 'b':
+                case 'i':
+                case 'd':
+                case 'R':
+                case 'r':
+                    end = this.scanner.indexOf((byte) ';', this.position,
+                        this.data.length);
+                    if (end < 0)
+                    {
+                        throw new UnserializeException("Unexepected end of data.");
+                    }
+                    this.position = end + 1;
+                    break;
+
+                case 's':
+                    skipString();
+                    expect(';');
+                    break;
+
+                case 'O':
+                case 'a':
+                    if (type == 'O')
+                    {
+                        skipString();
+                        expect(':');
+                    }
+                    count = readNumber(':') * 2L;
+                    expect('{');
+                    if (depth == this.remaining.length)
+                    {
+                        long[] newRemaining = new long[depth << 1];
+                        System.arraycopy(this.remaining, 0, newRemaining, 0,
+                            depth);
+                        this.remaining = newRemaining;
+                    }
+                    this.remaining[depth++] = count + 1;
+                    break;
+
+                default:
+                    throw new UnserializeException(
+                        "Unable to unserialize unknown type " + (char) type);
+            }
+            if (!isKey && type != 'R') this.scannedSlots++;
+
+            // Count down the open containers and close the complete ones
+            while (complete && depth > 0)
+            {
+                if (--this.remaining[depth - 1] > 0) break;
+                expect('}');
+                depth--;
+            }
+        }
+        while (depth > 0);
+    }
+
+
+    /**
+     * Skips a string ("length:"bytes"") at the current position.
+     */
+
+    private void skipString()
+    {
+        int length;
+
+        length = readNumber(':');
+        expect('"');
+        if (length > this.data.length - this.position)
+        {
+            throw new UnserializeException("Unexepected end of data.");
+        }
+        this.position += length;
+        expect('"');
+    }
+
+
+    /**
+     * Reads a non-negative number at the current position up to the
+     * specified terminator.
+     *
+     * @param terminator
+     *            The terminator
+     * @return The number
+     */
+
+    private int readNumber(final char terminator)
+    {
+        long number;
+        int start, end;
+
+        start = this.position;
+        end = this.scanner.skipDigits(start, this.data.length);
+        if (end == start || end - start > 10 || end == this.data.length
+            || this.data[end] != terminator)
+        {
+            throw new UnserializeException("Invalid number at position " + start);
+        }
+        number = 0;
+        for (int i = start; i < end; i++)
+        {
+            number = number * 10 + (this.data[i] - '0');
+        }
+        if (number > Integer.MAX_VALUE)
+        {
+            throw new UnserializeException("Invalid number at position " + start);
+        }
+        this.position = end + 1;
+        return (int) number;
+    }
+
+
+    /**
+     * Checks that the byte at the current position is the specified
+     * character and skips it.
+     *
+     * @param expected
+     *            The expected character
+     */
+
+    private void expect(final char expected)
+    {
+        if (this.position >= this.data.length
+            || this.data[this.position] != expected)
+        {
+            throw new UnserializeException("Expected '" + expected
+                + "' at position " + this.position);
+        }
+        this.position++;
+    }
+}
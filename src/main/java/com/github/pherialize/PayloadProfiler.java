@@ -0,0 +1,804 @@
+package com.github.pherialize;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.pherialize.exceptions.UnserializeException;
+import com.github.pherialize.io.ArraySource;
+import com.github.pherialize.io.ByteArraySource;
+import com.github.pherialize.io.Source;
+
+
+/**
+ * Analyzes serialized payloads and reports which array keys and object
+ * classes account for the most bytes and values, aggregated over all
+ * analyzed payloads. Useful to find bloated session keys.
+ *
+ * Each payload is scanned in one streaming pass without unserializing it.
+ * Keys are identified by their path from the top-level value, for example
+ * "cart.items.[].name". Integer keys are shown as "[]", so all elements of
+ * a list share one path. The cost of a key is the number of bytes of the key
+ * and its value and the number of values in it (including the value itself).
+ * The cost of a class is the size of its serialized objects. The number of
+ * tracked keys and classes is limited, so memory stays bounded. The costs
+ * of keys and classes which did not fit anymore are added to an entry named
+ * {@link #OTHER}.
+ *
+ * A profiler is not thread-safe.
+ *
+ * @version $Revision$
+ */
+
+public class PayloadProfiler
+{
+    /** The name of the entry collecting the costs of untracked keys or classes */
+    public static final String OTHER = "(other)";
+
+    /** The default maximum number of tracked keys and classes */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** The maximum number of bytes of key and class names which are decoded */
+    private static final int MAX_NAME_LENGTH = 256;
+
+    /** Orders costs by bytes, highest first */
+    private static final Comparator<Cost> BY_BYTES = new Comparator<Cost>()
+    {
+        public int compare(final Cost a, final Cost b)
+        {
+            return a.bytes == b.bytes ? a.name.compareTo(b.name)
+                : a.bytes > b.bytes ? -1 : 1;
+        }
+    };
+
+    /** The charset used to decode key and class names */
+    private final Charset charset;
+
+    /** The maximum number of tracked keys and classes */
+    private final int capacity;
+
+    /** The costs per key path */
+    private final Map<String, Cost> keys = new HashMap<String, Cost>();
+
+    /** The costs per class name */
+    private final Map<String, Cost> classes = new HashMap<String, Cost>();
+
+    /** The maximum nesting depth of arrays and objects */
+    private int maxDepth = 4096;
+
+    /** The number of analyzed payloads */
+    private long payloads;
+
+    /** The number of bytes of all analyzed payloads */
+    private long bytes;
+
+    /** The number of values of all analyzed payloads */
+    private long values;
+
+    /** The source of the current payload */
+    private Source source;
+
+    /** The number of bytes read from the current payload */
+    private long position;
+
+    /** The number of values read from the current payload */
+    private long elements;
+
+    /** The stack of open arrays and objects. Frames are reused */
+    private Frame[] stack = new Frame[16];
+
+    /** The number of open arrays and objects */
+    private int depth;
+
+    /** Buffer for decoding names and skipping string contents */
+    private final byte[] buffer = new byte[4096];
+
+
+    /**
+     * The aggregated cost of a key path or class name.
+     */
+
+    public static final class Cost
+    {
+        /** The key path or class name */
+        final String name;
+
+        /** The number of occurrences */
+        long count;
+
+        /** The number of bytes */
+        long bytes;
+
+        /** The number of values */
+        long elements;
+
+
+        /**
+         * Constructor
+         *
+         * @param name
+         *            The key path or class name
+         */
+
+        Cost(final String name)
+        {
+            this.name = name;
+        }
+
+
+        /**
+         * Returns the key path or class name.
+         *
+         * @return The name
+         */
+
+        public String getName()
+        {
+            return this.name;
+        }
+
+
+        /**
+         * Returns the number of occurrences.
+         *
+         * @return The number of occurrences
+         */
+
+        public long getCount()
+        {
+            return this.count;
+        }
+
+
+        /**
+         * Returns the number of bytes of all occurrences.
+         *
+         * @return The number of bytes
+         */
+
+        public long getBytes()
+        {
+            return this.bytes;
+        }
+
+
+        /**
+         * Returns the number of values of all occurrences.
+         *
+         * @return The number of values
+         */
+
+        public long getElements()
+        {
+            return this.elements;
+        }
+
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+
+        @Override
+        public String toString()
+        {
+            return this.name + ": count=" + this.count + ", bytes="
+                + this.bytes + ", elements=" + this.elements;
+        }
+    }
+
+
+    /**
+     * An open array or object.
+     */
+
+    private static final class Frame
+    {
+        /** The key path of the container */
+        String path;
+
+        /** The class name of objects. Null for arrays */
+        String className;
+
+        /** The position of the container */
+        long start;
+
+        /** The number of values before the container */
+        long startElements;
+
+        /** The number of remaining entries */
+        int remaining;
+
+        /** The key path of the current entry */
+        String entryPath;
+
+        /** The position of the current entry */
+        long entryStart;
+
+        /** The number of values before the current entry */
+        long entryElements;
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param charset
+     *            The charset used to decode key and class names
+     */
+
+    public PayloadProfiler(final Charset charset)
+    {
+        this(charset, DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param charset
+     *            The charset used to decode key and class names
+     * @param capacity
+     *            The maximum number of tracked keys and of tracked classes
+     */
+
+    public PayloadProfiler(final Charset charset, final int capacity)
+    {
+        super();
+        this.charset = charset;
+        this.capacity = capacity;
+    }
+
+
+    /**
+     * Sets the maximum nesting depth of arrays and objects. Deeper payloads
+     * are rejected with an UnserializeException.
+     *
+     * @param maxDepth
+     *            The maximum nesting depth. Defaults to 4096
+     */
+
+    public void setMaxDepth(final int maxDepth)
+    {
+        this.maxDepth = maxDepth;
+    }
+
+
+    /**
+     * Analyzes a payload.
+     *
+     * @param data
+     *            The serialized payload
+     */
+
+    public void analyze(final byte[] data)
+    {
+        analyze(new ByteArraySource(data));
+    }
+
+
+    /**
+     * Analyzes the next value of the specified source. The source is not
+     * closed.
+     *
+     * @param source
+     *            The source of the serialized payload
+     * @throws UnserializeException
+     *             When the payload is invalid. The costs recorded up to the
+     *             error are kept
+     */
+
+    public void analyze(final Source source)
+    {
+        this.source = source;
+        this.position = 0;
+        this.elements = 0;
+        this.depth = 0;
+        try
+        {
+            scan();
+        }
+        finally
+        {
+            for (int i = 0; i < this.depth; i++)
+            {
+                this.stack[i].path = null;
+                this.stack[i].entryPath = null;
+                this.stack[i].className = null;
+            }
+            this.source = null;
+        }
+        this.payloads++;
+        this.bytes += this.position;
+        this.values += this.elements;
+    }
+
+
+    /**
+     * Returns the number of analyzed payloads.
+     *
+     * @return The number of payloads
+     */
+
+    public long getPayloads()
+    {
+        return this.payloads;
+    }
+
+
+    /**
+     * Returns the number of bytes of all analyzed payloads.
+     *
+     * @return The number of bytes
+     */
+
+    public long getBytes()
+    {
+        return this.bytes;
+    }
+
+
+    /**
+     * Returns the number of values of all analyzed payloads.
+     *
+     * @return The number of values
+     */
+
+    public long getValues()
+    {
+        return this.values;
+    }
+
+
+    /**
+     * Returns the costs of the key paths, ordered by bytes (highest first).
+     * Note that the costs of nested keys are included in the costs of their
+     * parent keys.
+     *
+     * @return The costs of the key paths
+     */
+
+    public List<Cost> getKeys()
+    {
+        return sort(this.keys);
+    }
+
+
+    /**
+     * Returns the costs of the object classes, ordered by bytes (highest
+     * first).
+     *
+     * @return The costs of the classes
+     */
+
+    public List<Cost> getClasses()
+    {
+        return sort(this.classes);
+    }
+
+
+    /**
+     * Removes all recorded costs.
+     */
+
+    public void reset()
+    {
+        this.keys.clear();
+        this.classes.clear();
+        this.payloads = 0;
+        this.bytes = 0;
+        this.values = 0;
+    }
+
+
+    /**
+     * Returns the costs of the specified map ordered by bytes.
+     *
+     * @param costs
+     *            The costs
+     * @return The ordered costs
+     */
+
+    private static List<Cost> sort(final Map<String, Cost> costs)
+    {
+        List<Cost> result;
+
+        result = new ArrayList<Cost>(costs.values());
+        Collections.sort(result, BY_BYTES);
+        return result;
+    }
+
+
+    /**
+     * Adds a cost to the specified map.
+     *
+     * @param costs
+     *            The costs
+     * @param name
+     *            The key path or class name
+     * @param size
+     *            The number of bytes
+     * @param count
+     *            The number of values
+     */
+
+    private void record(final Map<String, Cost> costs, final String name,
+        final long size, final long count)
+    {
+        Cost cost;
+
+        cost = costs.get(name);
+        if (cost == null)
+        {
+            // The last slot is reserved for the other entry
+            if (costs.size() >= this.capacity - 1) cost = costs.get(OTHER);
+            if (cost == null)
+            {
+                cost = new Cost(costs.size() >= this.capacity - 1 ? OTHER : name);
+                costs.put(cost.name, cost);
+            }
+        }
+        cost.count++;
+        cost.bytes += size;
+        cost.elements += count;
+    }
+
+
+    /**
+     * Scans the value at the current position.
+     */
+
+    private void scan()
+    {
+        Frame frame;
+        String className;
+        int type, count;
+        long start;
+
+        for (;;)
+        {
+            start = this.position;
+            type = read();
+            className = null;
+            count = 0;
+            if ("NbidrRsOa".indexOf(type) < 0)
+            {
+                throw new UnserializeException(
+                    "Unable to analyze unknown type " + (char) type);
+            }
+            expect(type == 'N' ? ';' : ':');
+            switch (type)
+            {
+                case 'N':
+                    break;
+
+                case 'b':
+                case 'i':
+                case 'd':
+                case 'r':
+                case 'R':
+                    skipTo(';');
+                    break;
+
+                case 's':
+                    skipBytes(readNumber(':'), true);
+                    expect(';');
+                    break;
+
+                case 'O':
+                    className = readName();
+                    expect(':');
+                    count = readNumber(':');
+                    expect('{');
+                    break;
+
+                default:
+                    count = readNumber(':');
+                    expect('{');
+            }
+            this.elements++;
+
+            if (type == 'a' || type == 'O')
+            {
+                frame = push(className, count, start);
+                if (count > 0)
+                {
+                    readKey(frame);
+                    continue;
+                }
+                expect('}');
+                pop();
+            }
+
+            // Record the completed entries and close the complete containers
+            while (this.depth > 0)
+            {
+                frame = this.stack[this.depth - 1];
+                record(this.keys, frame.entryPath, this.position
+                    - frame.entryStart, this.elements - frame.entryElements);
+                if (--frame.remaining > 0)
+                {
+                    readKey(frame);
+                    break;
+                }
+                expect('}');
+                pop();
+            }
+            if (this.depth == 0) return;
+        }
+    }
+
+
+    /**
+     * Pushes a container on the stack.
+     *
+     * @param className
+     *            The class name of objects or null for arrays
+     * @param count
+     *            The number of entries
+     * @param start
+     *            The position of the container
+     * @return The frame of the container
+     */
+
+    private Frame push(final String className, final int count,
+        final long start)
+    {
+        Frame frame, parent;
+
+        if (this.depth >= this.maxDepth)
+        {
+            throw new UnserializeException("Maximum nesting depth of "
+                + this.maxDepth + " exceeded");
+        }
+        if (this.depth == this.stack.length)
+        {
+            Frame[] newStack = new Frame[this.stack.length << 1];
+            System.arraycopy(this.stack, 0, newStack, 0, this.stack.length);
+            this.stack = newStack;
+        }
+        frame = this.stack[this.depth];
+        if (frame == null)
+        {
+            frame = new Frame();
+            this.stack[this.depth] = frame;
+        }
+        parent = this.depth == 0 ? null : this.stack[this.depth - 1];
+        frame.path = parent == null ? null : parent.entryPath;
+        frame.className = className;
+        frame.start = start;
+        frame.startElements = this.elements - 1;
+        frame.remaining = count;
+        this.depth++;
+        return frame;
+    }
+
+
+    /**
+     * Pops the completed container from the stack and records the cost of
+     * objects.
+     */
+
+    private void pop()
+    {
+        Frame frame;
+
+        frame = this.stack[--this.depth];
+        if (frame.className != null)
+        {
+            record(this.classes, frame.className, this.position - frame.start,
+                this.elements - frame.startElements);
+        }
+        frame.path = null;
+        frame.entryPath = null;
+        frame.className = null;
+    }
+
+
+    /**
+     * Reads the key of the next entry of the specified container.
+     *
+     * @param frame
+     *            The container
+     */
+
+    private void readKey(final Frame frame)
+    {
+        String key;
+        int type;
+
+        frame.entryStart = this.position;
+        frame.entryElements = this.elements;
+        type = read();
+        expect(':');
+        if (type == 'i')
+        {
+            skipTo(';');
+            key = "[]";
+        }
+        else if (type == 's')
+        {
+            key = readName();
+            expect(';');
+
+            // Private and protected property names are prefixed with the
+            // class name or "*" between null bytes
+            key = key.substring(key.lastIndexOf('\0') + 1);
+        }
+        else
+        {
+            throw new UnserializeException("Unable to analyze array key of type "
+                + (char) type);
+        }
+        frame.entryPath = frame.path == null ? key : frame.path + "." + key;
+    }
+
+
+    /**
+     * Reads a quoted name ("length:"name"") and decodes it. Names longer
+     * than {@link #MAX_NAME_LENGTH} bytes are truncated.
+     *
+     * @return The name
+     */
+
+    private String readName()
+    {
+        int length, decoded;
+        String name;
+
+        length = readNumber(':');
+        expect('"');
+        decoded = Math.min(length, MAX_NAME_LENGTH);
+        readFully(decoded);
+        name = new String(this.buffer, 0, decoded, this.charset);
+        if (decoded < length)
+        {
+            skipBytes(length - decoded, false);
+            name += "...";
+        }
+        expect('"');
+        return name;
+    }
+
+
+    /**
+     * Skips the specified number of bytes.
+     *
+     * @param count
+     *            The number of bytes to skip
+     * @param quoted
+     *            If the bytes are enclosed in quotes
+     */
+
+    private void skipBytes(final int count, final boolean quoted)
+    {
+        int remaining, chunk;
+
+        if (quoted) expect('"');
+        if (this.source instanceof ArraySource)
+        {
+            if (((ArraySource) this.source).skip(count) != count)
+            {
+                throw new UnserializeException("Unexepected end of data.");
+            }
+            this.position += count;
+        }
+        else
+        {
+            remaining = count;
+            while (remaining > 0)
+            {
+                chunk = Math.min(remaining, this.buffer.length);
+                readFully(chunk);
+                remaining -= chunk;
+            }
+        }
+        if (quoted) expect('"');
+    }
+
+
+    /**
+     * Reads the specified number of bytes into the buffer.
+     *
+     * @param count
+     *            The number of bytes. Not more than the buffer size
+     */
+
+    private void readFully(final int count)
+    {
+        int offset, read;
+
+        offset = 0;
+        while (offset < count)
+        {
+            read = this.source.read(this.buffer, offset, count - offset);
+            if (read < 0) throw new UnserializeException("Unexepected end of data.");
+            offset += read;
+        }
+        this.position += count;
+    }
+
+
+    /**
+     * Reads a non-negative number up to the specified terminator.
+     *
+     * @param terminator
+     *            The terminator
+     * @return The number
+     */
+
+    private int readNumber(final char terminator)
+    {
+        long number;
+        int c;
+        boolean digits;
+
+        number = 0;
+        digits = false;
+        for (;;)
+        {
+            c = read();
+            if (c == terminator && digits) return (int) number;
+            if (c >= '0' && c <= '9') number = number * 10 + (c - '0');
+            if (c < '0' || c > '9' || number > Integer.MAX_VALUE)
+            {
+                throw new UnserializeException("Invalid number at position "
+                    + (this.position - 1));
+            }
+            digits = true;
+        }
+    }
+
+
+    /**
+     * Skips all bytes up to and including the specified terminator.
+     *
+     * @param terminator
+     *            The terminator
+     */
+
+    private void skipTo(final char terminator)
+    {
+        while (read() != terminator)
+        {
+            // Empty
+        }
+    }
+
+
+    /**
+     * Reads the next byte and checks that it is the specified character.
+     *
+     * @param expected
+     *            The expected character
+     */
+
+    private void expect(final char expected)
+    {
+        if (read() != expected)
+        {
+            throw new UnserializeException("Expected '" + expected
+                + "' at position " + (this.position - 1));
+        }
+    }
+
+
+    /**
+     * Reads the next byte.
+     *
+     * @return The byte
+     */
+
+    private int read()
+    {
+        int result;
+
+        result = this.source.read();
+        if (result < 0) throw new UnserializeException("Unexepected end of data.");
+        this.position++;
+        return result;
+    }
+}
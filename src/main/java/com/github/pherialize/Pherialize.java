@@ -37,6 +37,10 @@ import java.nio.charset.Charset;
 
 public class Pherialize
 {
+    /** The listener receiving the metrics of the static methods */
+    private static volatile PherializeMetrics metrics = PherializeMetrics.NONE;
+
+
     /**
      * Hide constructor
      */
@@ -47,6 +51,21 @@ public class Pherialize
     }
 
 
+    /**
+     * Sets the listener receiving the metrics of all calls of the static
+     * serialize and unserialize methods. The listener must be thread-safe.
+     *
+     * @param metrics
+     *            The listener. {@link PherializeMetrics#NONE} (the default) or
+     *            null to disable metrics
+     */
+
+    public static void setMetrics(final PherializeMetrics metrics)
+    {
+        Pherialize.metrics = metrics == null ? PherializeMetrics.NONE : metrics;
+    }
+
+
     /**
      * Returns the serialized representation of the specified object.
      *
@@ -62,6 +81,7 @@ public class Pherialize
         Serializer pherialize;
 
         pherialize = new Serializer(charset);
+        pherialize.setMetrics(metrics);
         return pherialize.serialize(object);
     }
 
@@ -79,10 +99,54 @@ public class Pherialize
         Serializer pherialize;
 
         pherialize = new Serializer();
+        pherialize.setMetrics(metrics);
         return pherialize.serialize(object);
     }
 
 
+    /**
+     * Returns the serialized representation of the specified object as
+     * bytes. Use this instead of the String variants when the object contains
+     * binary data ({@link PhpBytes}).
+     *
+     * @param object
+     *            The object to serialize
+     * @param charset
+     *            The charset used to encode strings.
+     * @return The serialized representation of the object
+     */
+
+    public static byte[] serializeToBytes(final Object object, Charset charset)
+    {
+        Serializer pherialize;
+
+        pherialize = new Serializer(charset);
+        pherialize.setMetrics(metrics);
+        return pherialize.serializeToBytes(object);
+    }
+
+
+    /**
+     * Returns the unserialized object of the specified PHP serialize format
+     * bytes. See {@link #unserialize(String, Charset)}.
+     *
+     * @param data
+     *            The serialized data
+     * @param charset
+     *            The charset of data.
+     * @return The unserialized object
+     */
+
+    public static Mixed unserialize(final byte[] data, Charset charset)
+    {
+        Unserializer unserializer;
+
+        unserializer = new Unserializer(data, charset);
+        unserializer.setMetrics(metrics);
+        return unserializer.unserializeObject();
+    }
+
+
     /**
      * Returns the unserialized object of the specified PHP serialize format
      * string. The returned object is wrapped in a Mixed object allowing easy
@@ -103,6 +167,7 @@ public class Pherialize
         Unserializer unserializer;
 
         unserializer = new Unserializer(data, charset);
+        unserializer.setMetrics(metrics);
         return unserializer.unserializeObject();
     }
 
@@ -125,6 +190,7 @@ public class Pherialize
         Unserializer unserializer;
 
         unserializer = new Unserializer(data);
+        unserializer.setMetrics(metrics);
         return unserializer.unserializeObject();
     }
 }
@@ -0,0 +1,53 @@
+package com.github.pherialize;
+
+
+/**
+ * Listener receiving the metrics of each call of a {@link Serializer} or
+ * {@link Unserializer}, for example to export payload shapes and latencies.
+ * Metrics are only collected when a listener other than {@link #NONE} is
+ * set, so disabled metrics cost nothing.
+ *
+ * The passed {@link CallMetrics} are reused for the next call of the same
+ * serializer or unserializer, so listeners must copy the values they need
+ * instead of keeping the object. Listeners are called on the thread which
+ * serialized or unserialized the data.
+ *
+ * @version $Revision$
+ */
+
+public interface PherializeMetrics
+{
+    /** The listener which ignores all metrics. Disables collecting them */
+    PherializeMetrics NONE = new PherializeMetrics()
+    {
+        public void serialized(final CallMetrics metrics)
+        {
+            // Empty
+        }
+
+        public void unserialized(final CallMetrics metrics)
+        {
+            // Empty
+        }
+    };
+
+
+    /**
+     * Called after a value was serialized.
+     *
+     * @param metrics
+     *            The metrics of the call
+     */
+
+    void serialized(CallMetrics metrics);
+
+
+    /**
+     * Called after a value was unserialized.
+     *
+     * @param metrics
+     *            The metrics of the call
+     */
+
+    void unserialized(CallMetrics metrics);
+}
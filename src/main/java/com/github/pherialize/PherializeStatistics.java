@@ -0,0 +1,370 @@
+package com.github.pherialize;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * Metrics listener aggregating the totals, latency and size percentiles,
+ * string interner hit rates and error counts of all calls it receives. Set
+ * it on any number of serializers and unserializers (or on the
+ * {@link Pherialize} facade) and publish it as a JMX MBean with
+ * {@link #register(String)}. The counters are striped LongAdders, so the
+ * statistics can be updated from many threads without contention.
+ *
+ * @version $Revision$
+ */
+
+public class PherializeStatistics implements PherializeMetrics,
+    PherializeStatisticsMBean
+{
+    /** The JMX domain of the registered MBeans */
+    public static final String DOMAIN = "com.github.pherialize";
+
+    /** The number of failed serialize calls */
+    private final LongAdder serializeErrors = new LongAdder();
+
+    /** The latencies of serialize calls */
+    private final Histogram serializeLatency = new Histogram();
+
+    /** The payload sizes of serialize calls */
+    private final Histogram serializeSize = new Histogram();
+
+    /** The number of failed unserialize calls */
+    private final LongAdder unserializeErrors = new LongAdder();
+
+    /** The latencies of unserialize calls */
+    private final Histogram unserializeLatency = new Histogram();
+
+    /** The payload sizes of unserialize calls */
+    private final Histogram unserializeSize = new Histogram();
+
+    /** The number of string interner hits */
+    private final LongAdder internHits = new LongAdder();
+
+    /** The number of string interner misses */
+    private final LongAdder internMisses = new LongAdder();
+
+    /** The name under which this MBean is registered. Null if not registered */
+    private ObjectName objectName;
+
+
+    /**
+     * Registers this statistics as MBean in the platform MBean server under
+     * the name com.github.pherialize:type=Statistics,name=NAME.
+     *
+     * @param name
+     *            The name distinguishing multiple statistics
+     * @throws JMException
+     *             When registering fails, for example because the name is
+     *             already used
+     */
+
+    public synchronized void register(final String name) throws JMException
+    {
+        MBeanServer server;
+        ObjectName newName;
+
+        server = ManagementFactory.getPlatformMBeanServer();
+        newName = new ObjectName(DOMAIN + ":type=Statistics,name="
+            + ObjectName.quote(name));
+        server.registerMBean(this, newName);
+        unregister();
+        this.objectName = newName;
+    }
+
+
+    /**
+     * Removes this statistics from the platform MBean server. Does nothing
+     * if it is not registered.
+     *
+     * @throws JMException
+     *             When unregistering fails
+     */
+
+    public synchronized void unregister() throws JMException
+    {
+        if (this.objectName == null) return;
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+            this.objectName);
+        this.objectName = null;
+    }
+
+
+    /**
+     * @see PherializeMetrics#serialized(CallMetrics)
+     */
+
+    public void serialized(final CallMetrics metrics)
+    {
+        if (metrics.isFailed()) this.serializeErrors.increment();
+        this.serializeLatency.record(metrics.getElapsedNanos());
+        this.serializeSize.record(metrics.getBytes());
+    }
+
+
+    /**
+     * @see PherializeMetrics#unserialized(CallMetrics)
+     */
+
+    public void unserialized(final CallMetrics metrics)
+    {
+        if (metrics.isFailed()) this.unserializeErrors.increment();
+        this.unserializeLatency.record(metrics.getElapsedNanos());
+        this.unserializeSize.record(metrics.getBytes());
+        if (metrics.getInternHits() != 0) this.internHits.add(metrics.getInternHits());
+        if (metrics.getInternMisses() != 0) this.internMisses.add(metrics.getInternMisses());
+    }
+
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @param histogram
+     *            The histogram
+     * @return The mean or 0 if no values were recorded
+     */
+
+    private static long getMean(final Histogram histogram)
+    {
+        long count;
+
+        count = histogram.getCount();
+        return count == 0 ? 0 : histogram.getTotal() / count;
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getSerializeCount()
+     */
+
+    public long getSerializeCount()
+    {
+        return this.serializeLatency.getCount();
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getSerializeErrors()
+     */
+
+    public long getSerializeErrors()
+    {
+        return this.serializeErrors.sum();
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getSerializedBytes()
+     */
+
+    public long getSerializedBytes()
+    {
+        return this.serializeSize.getTotal();
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getSerializeSizeP50()
+     */
+
+    public long getSerializeSizeP50()
+    {
+        return this.serializeSize.getPercentile(50);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getSerializeSizeP99()
+     */
+
+    public long getSerializeSizeP99()
+    {
+        return this.serializeSize.getPercentile(99);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getSerializeLatencyMean()
+     */
+
+    public long getSerializeLatencyMean()
+    {
+        return getMean(this.serializeLatency);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getSerializeLatencyP50()
+     */
+
+    public long getSerializeLatencyP50()
+    {
+        return this.serializeLatency.getPercentile(50);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getSerializeLatencyP99()
+     */
+
+    public long getSerializeLatencyP99()
+    {
+        return this.serializeLatency.getPercentile(99);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getSerializeLatencyP999()
+     */
+
+    public long getSerializeLatencyP999()
+    {
+        return this.serializeLatency.getPercentile(99.9);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getUnserializeCount()
+     */
+
+    public long getUnserializeCount()
+    {
+        return this.unserializeLatency.getCount();
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getUnserializeErrors()
+     */
+
+    public long getUnserializeErrors()
+    {
+        return this.unserializeErrors.sum();
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getUnserializedBytes()
+     */
+
+    public long getUnserializedBytes()
+    {
+        return this.unserializeSize.getTotal();
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getUnserializeSizeP50()
+     */
+
+    public long getUnserializeSizeP50()
+    {
+        return this.unserializeSize.getPercentile(50);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getUnserializeSizeP99()
+     */
+
+    public long getUnserializeSizeP99()
+    {
+        return this.unserializeSize.getPercentile(99);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getUnserializeLatencyMean()
+     */
+
+    public long getUnserializeLatencyMean()
+    {
+        return getMean(this.unserializeLatency);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getUnserializeLatencyP50()
+     */
+
+    public long getUnserializeLatencyP50()
+    {
+        return this.unserializeLatency.getPercentile(50);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getUnserializeLatencyP99()
+     */
+
+    public long getUnserializeLatencyP99()
+    {
+        return this.unserializeLatency.getPercentile(99);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getUnserializeLatencyP999()
+     */
+
+    public long getUnserializeLatencyP999()
+    {
+        return this.unserializeLatency.getPercentile(99.9);
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getInternHits()
+     */
+
+    public long getInternHits()
+    {
+        return this.internHits.sum();
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getInternMisses()
+     */
+
+    public long getInternMisses()
+    {
+        return this.internMisses.sum();
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#getInternHitRate()
+     */
+
+    public double getInternHitRate()
+    {
+        long hits, total;
+
+        hits = this.internHits.sum();
+        total = hits + this.internMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+
+    /**
+     * @see PherializeStatisticsMBean#reset()
+     */
+
+    public void reset()
+    {
+        this.serializeErrors.reset();
+        this.serializeLatency.reset();
+        this.serializeSize.reset();
+        this.unserializeErrors.reset();
+        this.unserializeLatency.reset();
+        this.unserializeSize.reset();
+        this.internHits.reset();
+        this.internMisses.reset();
+    }
+}
@@ -0,0 +1,207 @@
+package com.github.pherialize;
+
+
+/**
+ * The JMX management interface of {@link PherializeStatistics}. Latencies
+ * are in nanoseconds, sizes in bytes. Percentiles are approximate.
+ *
+ * @version $Revision$
+ */
+
+public interface PherializeStatisticsMBean
+{
+    /**
+     * Returns the number of serialize calls.
+     *
+     * @return The number of calls
+     */
+
+    long getSerializeCount();
+
+
+    /**
+     * Returns the number of failed serialize calls.
+     *
+     * @return The number of errors
+     */
+
+    long getSerializeErrors();
+
+
+    /**
+     * Returns the total number of written bytes.
+     *
+     * @return The number of bytes
+     */
+
+    long getSerializedBytes();
+
+
+    /**
+     * Returns the median payload size of serialize calls.
+     *
+     * @return The median size
+     */
+
+    long getSerializeSizeP50();
+
+
+    /**
+     * Returns the 99th percentile of the payload size of serialize calls.
+     *
+     * @return The 99th percentile of the size
+     */
+
+    long getSerializeSizeP99();
+
+
+    /**
+     * Returns the mean latency of serialize calls.
+     *
+     * @return The mean latency
+     */
+
+    long getSerializeLatencyMean();
+
+
+    /**
+     * Returns the median latency of serialize calls.
+     *
+     * @return The median latency
+     */
+
+    long getSerializeLatencyP50();
+
+
+    /**
+     * Returns the 99th percentile of the latency of serialize calls.
+     *
+     * @return The 99th percentile of the latency
+     */
+
+    long getSerializeLatencyP99();
+
+
+    /**
+     * Returns the 99.9th percentile of the latency of serialize calls.
+     *
+     * @return The 99.9th percentile of the latency
+     */
+
+    long getSerializeLatencyP999();
+
+
+    /**
+     * Returns the number of unserialize calls.
+     *
+     * @return The number of calls
+     */
+
+    long getUnserializeCount();
+
+
+    /**
+     * Returns the number of failed unserialize calls.
+     *
+     * @return The number of errors
+     */
+
+    long getUnserializeErrors();
+
+
+    /**
+     * Returns the total number of read bytes.
+     *
+     * @return The number of bytes
+     */
+
+    long getUnserializedBytes();
+
+
+    /**
+     * Returns the median payload size of unserialize calls.
+     *
+     * @return The median size
+     */
+
+    long getUnserializeSizeP50();
+
+
+    /**
+     * Returns the 99th percentile of the payload size of unserialize calls.
+     *
+     * @return The 99th percentile of the size
+     */
+
+    long getUnserializeSizeP99();
+
+
+    /**
+     * Returns the mean latency of unserialize calls.
+     *
+     * @return The mean latency
+     */
+
+    long getUnserializeLatencyMean();
+
+
+    /**
+     * Returns the median latency of unserialize calls.
+     *
+     * @return The median latency
+     */
+
+    long getUnserializeLatencyP50();
+
+
+    /**
+     * Returns the 99th percentile of the latency of unserialize calls.
+     *
+     * @return The 99th percentile of the latency
+     */
+
+    long getUnserializeLatencyP99();
+
+
+    /**
+     * Returns the 99.9th percentile of the latency of unserialize calls.
+     *
+     * @return The 99.9th percentile of the latency
+     */
+
+    long getUnserializeLatencyP999();
+
+
+    /**
+     * Returns the number of strings resolved by the string interner.
+     *
+     * @return The number of interner hits
+     */
+
+    long getInternHits();
+
+
+    /**
+     * Returns the number of strings the string interner had to decode.
+     *
+     * @return The number of interner misses
+     */
+
+    long getInternMisses();
+
+
+    /**
+     * Returns the ratio of interner hits to all interner lookups.
+     *
+     * @return The hit rate between 0 and 1
+     */
+
+    double getInternHitRate();
+
+
+    /**
+     * Resets all statistics.
+     */
+
+    void reset();
+}
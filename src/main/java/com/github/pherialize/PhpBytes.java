@@ -0,0 +1,220 @@
+package com.github.pherialize;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+
+
+/**
+ * A binary-safe PHP string. PHP strings are byte arrays without a charset, so
+ * this type keeps the raw bytes instead of decoding them into a Java String.
+ * The Unserializer produces it for string values when raw strings are enabled
+ * and the Serializer writes it back by copying the bytes, so binary data
+ * (like compressed blobs) survives a round-trip unchanged.
+ *
+ * The string representation returned by {@link #toString()} maps each byte
+ * to the character with the same code (ISO-8859-1) which is lossless. Use
+ * {@link #toString(Charset)} to decode text.
+ *
+ * @version $Revision$
+ */
+
+public final class PhpBytes implements Serializable, Comparable<PhpBytes>
+{
+    /** Serial version UID */
+    private static final long serialVersionUID = -1855208599412384151L;
+
+    /** The charset mapping each byte to the character with the same code */
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /** The bytes. Never modified */
+    final byte[] bytes;
+
+
+    /**
+     * Constructor. The specified bytes are copied.
+     *
+     * @param bytes
+     *            The bytes
+     */
+
+    public PhpBytes(final byte[] bytes)
+    {
+        this(bytes, 0, bytes.length);
+    }
+
+
+    /**
+     * Constructor. The specified bytes are copied.
+     *
+     * @param bytes
+     *            The buffer containing the bytes
+     * @param offset
+     *            The offset of the first byte
+     * @param length
+     *            The number of bytes
+     */
+
+    public PhpBytes(final byte[] bytes, final int offset, final int length)
+    {
+        super();
+        this.bytes = new byte[length];
+        System.arraycopy(bytes, offset, this.bytes, 0, length);
+    }
+
+
+    /**
+     * Constructor which uses the specified array without copying it.
+     *
+     * @param bytes
+     *            The bytes
+     * @param copy
+     *            Dummy parameter to distinguish this constructor
+     */
+
+    private PhpBytes(final byte[] bytes, final boolean copy)
+    {
+        super();
+        this.bytes = bytes;
+    }
+
+
+    /**
+     * Returns PHP bytes using the specified array without copying it. The
+     * array must not be modified afterwards.
+     *
+     * @param bytes
+     *            The bytes
+     * @return The PHP bytes
+     */
+
+    public static PhpBytes wrap(final byte[] bytes)
+    {
+        return new PhpBytes(bytes, false);
+    }
+
+
+    /**
+     * Returns the number of bytes.
+     *
+     * @return The number of bytes
+     */
+
+    public int length()
+    {
+        return this.bytes.length;
+    }
+
+
+    /**
+     * Returns the byte at the specified index.
+     *
+     * @param index
+     *            The index
+     * @return The byte
+     */
+
+    public byte byteAt(final int index)
+    {
+        return this.bytes[index];
+    }
+
+
+    /**
+     * Returns a copy of the bytes.
+     *
+     * @return The bytes
+     */
+
+    public byte[] toByteArray()
+    {
+        return this.bytes.clone();
+    }
+
+
+    /**
+     * Decodes the bytes with the specified charset.
+     *
+     * @param charset
+     *            The charset
+     * @return The decoded string
+     */
+
+    public String toString(final Charset charset)
+    {
+        return new String(this.bytes, charset);
+    }
+
+
+    /**
+     * Returns the bytes as a string in which each character has the code of
+     * the corresponding byte (ISO-8859-1).
+     *
+     * @see java.lang.Object#toString()
+     */
+
+    @Override
+    public String toString()
+    {
+        return toString(ISO_8859_1);
+    }
+
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+
+    @Override
+    public int hashCode()
+    {
+        int hash;
+
+        hash = 1;
+        for (int i = 0; i < this.bytes.length; i++)
+        {
+            hash = 31 * hash + this.bytes[i];
+        }
+        return hash;
+    }
+
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+
+    @Override
+    public boolean equals(final Object other)
+    {
+        byte[] otherBytes;
+
+        if (other == this) return true;
+        if (!(other instanceof PhpBytes)) return false;
+        otherBytes = ((PhpBytes) other).bytes;
+        if (otherBytes.length != this.bytes.length) return false;
+        for (int i = 0; i < this.bytes.length; i++)
+        {
+            if (otherBytes[i] != this.bytes[i]) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Compares the bytes as unsigned values like PHP's strcmp does.
+     *
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+
+    public int compareTo(final PhpBytes other)
+    {
+        int max, a, b;
+
+        max = Math.min(this.bytes.length, other.bytes.length);
+        for (int i = 0; i < max; i++)
+        {
+            a = this.bytes[i] & 0xff;
+            b = other.bytes[i] & 0xff;
+            if (a != b) return a - b;
+        }
+        return this.bytes.length - other.bytes.length;
+    }
+}
@@ -23,16 +23,22 @@
 
 package com.github.pherialize;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.github.pherialize.exceptions.SerializeException;
 
@@ -49,8 +55,44 @@ public class Serializer
     /** The original charset of the input data. */
     private final Charset charset;
 
-    /** The object history for resolving references */
-    private final List<Object> history;
+    /**
+     * The indices of the already serialized arrays and objects for resolving
+     * references
+     */
+    private final Map<Object, Integer> history;
+
+    /**
+     * The number of values serialized so far. PHP numbers every value (but
+     * not array keys) for resolving references
+     */
+    private int valueCount;
+
+    /** If byte arrays are serialized as binary strings instead of arrays */
+    private boolean byteArraysAsStrings;
+
+    /** If repeated arrays and objects are serialized as references */
+    private boolean references = true;
+
+    /** The maximum nesting depth of arrays and objects */
+    private int maxDepth = 4096;
+
+    /** The current nesting depth of arrays and objects */
+    private int depth;
+
+    /** The executor for serializing large arrays in parallel. Null if disabled */
+    private ExecutorService executor;
+
+    /** The minimum number of elements of arrays serialized in parallel */
+    private int parallelThreshold = 10000;
+
+    /** If this serializer serializes a chunk of a parallel serialization */
+    private boolean chunk;
+
+    /** The listener receiving the metrics of each call */
+    private PherializeMetrics metrics = PherializeMetrics.NONE;
+
+    /** The metrics of the current call. Null if metrics are disabled */
+    private CallMetrics callMetrics;
 
 
     /**
@@ -71,7 +113,103 @@ public class Serializer
     {
         super();
         this.charset = charset;
-        this.history = new ArrayList<Object>();
+        this.history = new IdentityHashMap<Object, Integer>();
+    }
+
+
+    /**
+     * Specifies if byte arrays are serialized as binary strings (like
+     * {@link PhpBytes}) instead of arrays of integers. Default is false.
+     *
+     * @param byteArraysAsStrings
+     *            If byte arrays are serialized as binary strings
+     */
+
+    public void setByteArraysAsStrings(final boolean byteArraysAsStrings)
+    {
+        this.byteArraysAsStrings = byteArraysAsStrings;
+    }
+
+
+    /**
+     * Specifies if arrays and objects which occur more than once are
+     * serialized as references (the default). Tree-shaped data without
+     * shared nodes can be serialized faster with references disabled because
+     * no history of serialized arrays and objects is kept then. Shared nodes
+     * are serialized again at each occurrence and cyclic data is rejected by
+     * the maximum nesting depth.
+     *
+     * @param references
+     *            If references are serialized
+     */
+
+    public void setReferences(final boolean references)
+    {
+        this.references = references;
+    }
+
+
+    /**
+     * Sets the maximum nesting depth of arrays and objects. Deeper data
+     * (for example cyclic data when references are disabled) results in a
+     * SerializeException. Default is 4096, the same limit PHP uses for
+     * unserializing.
+     *
+     * @param maxDepth
+     *            The maximum nesting depth
+     */
+
+    public void setMaxDepth(final int maxDepth)
+    {
+        this.maxDepth = maxDepth;
+    }
+
+
+    /**
+     * Enables parallel serialization of large arrays, lists and maps. Their
+     * elements are split into chunks which are serialized into separate
+     * buffers on the specified executor and then appended in order. This is
+     * only done when references are disabled, because otherwise the value
+     * numbers of a chunk depend on all previous chunks. Only the outermost
+     * large array is split.
+     *
+     * @param executor
+     *            The executor used to serialize the chunks. Null to disable
+     *            parallel serialization (the default)
+     * @param parallelThreshold
+     *            The minimum number of elements of arrays which are
+     *            serialized in parallel
+     */
+
+    public void setParallel(final ExecutorService executor,
+        final int parallelThreshold)
+    {
+        this.executor = executor;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+
+    /**
+     * Sets the listener receiving the metrics of each call. The Serializer
+     * reports the written bytes, arrays, objects, references, the maximum
+     * nesting depth and the elapsed time. The contents of arrays serialized
+     * in parallel chunks are not counted.
+     *
+     * @param metrics
+     *            The listener. {@link PherializeMetrics#NONE} (the default) or
+     *            null to disable metrics
+     */
+
+    public void setMetrics(final PherializeMetrics metrics)
+    {
+        if (metrics == null || metrics == PherializeMetrics.NONE)
+        {
+            this.metrics = PherializeMetrics.NONE;
+            this.callMetrics = null;
+            return;
+        }
+        this.metrics = metrics;
+        if (this.callMetrics == null) this.callMetrics = new CallMetrics();
     }
 
 
@@ -85,11 +223,160 @@ public class Serializer
 
     public String serialize(final Object object)
     {
-        StringBuffer buffer;
+        OutputBuffer buffer;
+
+        buffer = new OutputBuffer();
+        serializeRoot(object, buffer);
+        return buffer.toString(this.charset);
+    }
+
+
+    /**
+     * Serializes the specified object into bytes. Strings are encoded with
+     * the charset of this serializer.
+     *
+     * @param object
+     *            The object
+     * @return The serialized data
+     */
+
+    public byte[] serializeToBytes(final Object object)
+    {
+        OutputBuffer buffer;
+
+        buffer = new OutputBuffer();
+        serializeRoot(object, buffer);
+        return buffer.toByteArray();
+    }
+
+
+    /**
+     * Serializes the specified object and writes the serialized data to the
+     * specified stream. Strings are encoded with the charset of this
+     * serializer.
+     *
+     * @param object
+     *            The object
+     * @param stream
+     *            The stream to write the serialized data to
+     */
+
+    public void serialize(final Object object, final OutputStream stream)
+    {
+        OutputBuffer buffer;
+
+        buffer = new OutputBuffer();
+        serializeRoot(object, buffer);
+        try
+        {
+            buffer.writeTo(stream);
+        }
+        catch (final IOException e)
+        {
+            throw new SerializeException("Unable to write serialized data", e);
+        }
+    }
+
+
+    /**
+     * Serializes the specified top-level object and reports the metrics and
+     * the flight recorder event of the call if enabled.
+     *
+     * @param object
+     *            The object
+     * @param buffer
+     *            The empty buffer to append serialized data to
+     */
+
+    private void serializeRoot(final Object object, final OutputBuffer buffer)
+    {
+        Object event;
+        long start;
+        int values;
+
+        this.depth = 0;
+        event = Events.beginSerialize();
+        values = this.valueCount;
+        if (this.callMetrics == null)
+        {
+            serializeObject(object, buffer);
+        }
+        else
+        {
+            start = System.nanoTime();
+            this.callMetrics.reset();
+            try
+            {
+                serializeObject(object, buffer);
+            }
+            catch (final RuntimeException e)
+            {
+                this.callMetrics.failed = true;
+                throw e;
+            }
+            finally
+            {
+                this.callMetrics.bytes = buffer.size();
+                this.callMetrics.elapsedNanos = System.nanoTime() - start;
+                this.metrics.serialized(this.callMetrics);
+            }
+        }
+        Events.endSerialize(event, buffer.size(), this.valueCount - values);
+    }
+
 
-        buffer = new StringBuffer();
-        serializeObject(object, buffer);
-        return buffer.toString();
+    /**
+     * Starts serializing a list whose elements are passed one by one to
+     * {@link #serializeListElement(int, Object, OutputBuffer)}. Used by the
+     * {@link ChunkedSerializer}.
+     *
+     * @param size
+     *            The number of elements
+     * @param buffer
+     *            The buffer to append serialized data to
+     */
+
+    void serializeListHeader(final int size, final OutputBuffer buffer)
+    {
+        this.valueCount++;
+        buffer.append("a:");
+        buffer.append(size);
+        buffer.append(":{");
+    }
+
+
+    /**
+     * Returns the number of arrays and objects in the history which are
+     * remembered for resolving references.
+     *
+     * @return The size of the history
+     */
+
+    int getHistorySize()
+    {
+        return this.history.size();
+    }
+
+
+    /**
+     * Serializes a single element of a list started with
+     * {@link #serializeListHeader(int, OutputBuffer)}. References between the
+     * elements are resolved like in a normal list if they are enabled.
+     *
+     * @param index
+     *            The index of the element
+     * @param element
+     *            The element
+     * @param buffer
+     *            The buffer to append serialized data to
+     */
+
+    void serializeListElement(final int index, final Object element,
+        final OutputBuffer buffer)
+    {
+        this.depth = 1;
+        serializeInteger(index, buffer);
+        serializeObject(element, buffer);
     }
 
 
@@ -101,10 +388,10 @@ public class Serializer
      * @param object
      *            The object to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeObject(final Object object, final StringBuffer buffer)
+    private void serializeObject(final Object object, final OutputBuffer buffer)
     {
         serializeObject(object, buffer, true);
     }
@@ -119,19 +406,20 @@ public class Serializer
      * @param object
      *            The object to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      * @param allowReference
      *            If reference is allowed for this object
      */
 
-    private void serializeObject(final Object object, final StringBuffer buffer,
+    private void serializeObject(final Object object, final OutputBuffer buffer,
         final boolean allowReference)
     {
         if (object == null)
         {
             serializeNull(buffer);
         }
-        else if (allowReference && serializeReference(object, buffer))
+        else if (allowReference && this.references
+            && serializeReference(object, buffer))
         {
             return;
         }
@@ -139,6 +427,14 @@ public class Serializer
         {
             serializeString((String) object, buffer);
         }
+        else if (object instanceof LazyString)
+        {
+            serializeLazyString((LazyString) object, buffer);
+        }
+        else if (object instanceof PhpBytes)
+        {
+            serializePhpBytes((PhpBytes) object, buffer);
+        }
         else if (object instanceof Character)
         {
             serializeCharacter((Character) object, buffer);
@@ -181,6 +477,15 @@ public class Serializer
             serializeArray((Object[]) object, buffer);
             return;
         }
+        else if (object instanceof byte[] && this.byteArraysAsStrings)
+        {
+            serializePhpBytes(PhpBytes.wrap((byte[]) object), buffer);
+        }
+        else if (object.getClass().isArray())
+        {
+            serializePrimitiveArray(object, buffer);
+            return;
+        }
         else if (object instanceof Collection<?>)
         {
             serializeCollection((Collection<?>) object, buffer);
@@ -202,7 +507,7 @@ public class Serializer
                 + object.getClass().getName());
         }
 
-        this.history.add(object);
+        this.valueCount++;
     }
 
 
@@ -214,41 +519,74 @@ public class Serializer
      * @param object
      *            The object to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      * @return If a reference was serialized or not
      */
 
-    private boolean serializeReference(final Object object, final StringBuffer buffer)
+    private boolean serializeReference(final Object object, final OutputBuffer buffer)
     {
-        Iterator<?> iterator;
-        int index;
-        boolean isReference;
+        Integer index;
 
         // Don't allow references for simple types because here PHP and
         // Java are VERY different and the best way it to simply disallow
         // References for these types
         if (object instanceof Number || object instanceof Boolean ||
-            object instanceof String)
+            object instanceof String || object instanceof LazyString ||
+            object instanceof PhpBytes)
         {
             return false;
         }
 
-        iterator = this.history.iterator();
-        index = 0;
-        isReference = false;
-        while (iterator.hasNext())
+        index = this.history.get(object);
+        if (index == null) return false;
+        if (this.callMetrics != null) this.callMetrics.count('R');
+        buffer.append("R:");
+        buffer.append(index.intValue() + 1);
+        buffer.append(';');
+        return true;
+    }
+
+
+    /**
+     * Registers the specified array or object in the history so later
+     * occurrences are serialized as references.
+     *
+     * @param object
+     *            The array or object
+     */
+
+    private void addHistory(final Object object)
+    {
+        if (this.references)
         {
-            if (iterator.next() == object)
-            {
-                buffer.append("R:");
-                buffer.append(index + 1);
-                buffer.append(';');
-                isReference = true;
-                break;
-            }
-            index++;
+            this.history.put(object, Integer.valueOf(this.valueCount));
+        }
+        this.valueCount++;
+    }
+
+
+    /**
+     * Increases the nesting depth when starting to serialize an array or
+     * object.
+     *
+     * @param object
+     *            If an object is serialized instead of an array
+     * @throws SerializeException
+     *             When the maximum nesting depth is exceeded
+     */
+
+    private void enterNesting(final boolean object)
+    {
+        if (++this.depth > this.maxDepth)
+        {
+            throw new SerializeException("Maximum nesting depth of "
+                + this.maxDepth + " exceeded. The data may be cyclic");
+        }
+        if (this.callMetrics != null)
+        {
+            this.callMetrics.count(object ? 'O' : 'a');
+            this.callMetrics.enter(this.depth);
         }
-        return isReference;
     }
 
 
@@ -259,10 +597,10 @@ public class Serializer
      * @param mixed
      *            The object to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeMixed(final Mixed mixed, final StringBuffer buffer)
+    private void serializeMixed(final Mixed mixed, final OutputBuffer buffer)
     {
         serializeObject(mixed.getValue(), buffer);
     }
@@ -275,21 +613,87 @@ public class Serializer
      * @param string
      *            The string to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeString(final String string, final StringBuffer buffer)
+    private void serializeString(final String string, final OutputBuffer buffer)
     {
-        String decoded = decode(string, charset);
+        buffer.append("s:");
+        serializeRawString(string, buffer);
+        buffer.append(';');
+    }
+
+
+    /**
+     * Serializes the specified lazy string and appends it to the
+     * serialization buffer. The raw bytes are copied if the string was read
+     * with the charset of this serializer, otherwise it is encoded like any
+     * other string.
+     *
+     * @param string
+     *            The string to serialize
+     * @param buffer
+     *            The buffer to append serialized data to
+     */
 
+    private void serializeLazyString(final LazyString string, final OutputBuffer buffer)
+    {
+        if (!string.getCharset().equals(this.charset))
+        {
+            serializeString(string.toString(), buffer);
+            return;
+        }
         buffer.append("s:");
-        buffer.append(decoded.length());
+        buffer.append(string.getByteLength());
         buffer.append(":\"");
-        buffer.append(string);
+        buffer.append(string.getBuffer(), string.getOffset(),
+            string.getByteLength());
         buffer.append("\";");
     }
 
 
+    /**
+     * Serializes the specified PHP bytes and appends them to the
+     * serialization buffer. The bytes are copied as they are.
+     *
+     * @param bytes
+     *            The bytes to serialize
+     * @param buffer
+     *            The buffer to append serialized data to
+     */
+
+    private void serializePhpBytes(final PhpBytes bytes, final OutputBuffer buffer)
+    {
+        buffer.append("s:");
+        buffer.append(bytes.bytes.length);
+        buffer.append(":\"");
+        buffer.append(bytes.bytes, 0, bytes.bytes.length);
+        buffer.append("\";");
+    }
+
+
+    /**
+     * Appends the byte length and the quoted encoded bytes of the specified
+     * string to the serialization buffer.
+     *
+     * @param string
+     *            The string to serialize
+     * @param buffer
+     *            The buffer to append serialized data to
+     */
+
+    private void serializeRawString(final String string, final OutputBuffer buffer)
+    {
+        byte[] bytes;
+
+        bytes = string.getBytes(this.charset);
+        buffer.append(bytes.length);
+        buffer.append(":\"");
+        buffer.append(bytes, 0, bytes.length);
+        buffer.append('"');
+    }
+
+
     /**
      * Serializes the specified character and appends it to the serialization
      * buffer.
@@ -297,14 +701,12 @@ public class Serializer
      * @param value
      *            The value to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeCharacter(final Character value, final StringBuffer buffer)
+    private void serializeCharacter(final Character value, final OutputBuffer buffer)
     {
-        buffer.append("s:1:\"");
-        buffer.append(value);
-        buffer.append("\";");
+        serializeString(value.toString(), buffer);
     }
 
 
@@ -312,10 +714,10 @@ public class Serializer
      * Adds a serialized NULL to the serialization buffer.
      *
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeNull(final StringBuffer buffer)
+    private void serializeNull(final OutputBuffer buffer)
     {
         buffer.append("N;");
     }
@@ -328,10 +730,10 @@ public class Serializer
      * @param number
      *            The integer number to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeInteger(final int number, final StringBuffer buffer)
+    private void serializeInteger(final int number, final OutputBuffer buffer)
     {
         buffer.append("i:");
         buffer.append(number);
@@ -340,25 +742,18 @@ public class Serializer
 
 
     /**
-     * Serializes the specified lonf number and appends it to the serialization
-     * buffer.
+     * Serializes the specified long number and appends it to the serialization
+     * buffer. Like on 64 bit PHP the full long range is written as integer.
      *
      * @param number
-     *            The lonf number to serialize
+     *            The long number to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeLong(final long number, final StringBuffer buffer)
+    private void serializeLong(final long number, final OutputBuffer buffer)
     {
-        if ((number >= Integer.MIN_VALUE) && (number <= Integer.MAX_VALUE))
-        {
-            buffer.append("i:");
-        }
-        else
-        {
-            buffer.append("d:");
-        }
+        buffer.append("i:");
         buffer.append(number);
         buffer.append(';');
     }
@@ -366,15 +761,16 @@ public class Serializer
 
     /**
      * Serializes the specfied double number and appends it to the serialization
-     * buffer.
+     * buffer. The number is written in the same notation PHP uses with
+     * serialize_precision -1.
      *
      * @param number
      *            The number to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeDouble(final double number, final StringBuffer buffer)
+    private void serializeDouble(final double number, final OutputBuffer buffer)
     {
         buffer.append("d:");
         buffer.append(number);
@@ -389,10 +785,10 @@ public class Serializer
      * @param value
      *            The value to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeBoolean(final Boolean value, final StringBuffer buffer)
+    private void serializeBoolean(final Boolean value, final OutputBuffer buffer)
     {
         buffer.append("b:");
         buffer.append(value.booleanValue() ? 1 : 0);
@@ -407,28 +803,36 @@ public class Serializer
      * @param collection
      *            The collection to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeCollection(final Collection<?> collection, final StringBuffer buffer)
+    private void serializeCollection(final Collection<?> collection, final OutputBuffer buffer)
     {
         Iterator<?> iterator;
         int index;
 
-        this.history.add(collection);
+        enterNesting(false);
+        addHistory(collection);
         buffer.append("a:");
         buffer.append(collection.size());
         buffer.append(":{");
+        if (isParallel(collection.size()))
+        {
+            serializeParallel(collection.toArray(), false, buffer);
+            buffer.append('}');
+            this.depth--;
+            return;
+        }
         iterator = collection.iterator();
         index = 0;
         while (iterator.hasNext())
         {
-            serializeObject(Integer.valueOf(index), buffer, false);
-            this.history.remove(this.history.size() - 1);
+            serializeInteger(index, buffer);
             serializeObject(iterator.next(), buffer);
             index++;
         }
         buffer.append('}');
+        this.depth--;
     }
 
 
@@ -439,25 +843,164 @@ public class Serializer
      * @param array
      *            The array to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeArray(final Object[] array, final StringBuffer buffer)
+    private void serializeArray(final Object[] array, final OutputBuffer buffer)
     {
         int max;
 
-        this.history.add(array);
+        enterNesting(false);
+        addHistory(array);
         buffer.append("a:");
         max = array.length;
         buffer.append(max);
         buffer.append(":{");
-        for (int i = 0; i < max; i++)
+        if (isParallel(max))
+        {
+            serializeParallel(array, false, buffer);
+        }
+        else
+        {
+            for (int i = 0; i < max; i++)
+            {
+                serializeInteger(i, buffer);
+                serializeObject(array[i], buffer);
+            }
+        }
+        buffer.append('}');
+        this.depth--;
+    }
+
+
+    /**
+     * Serializes the specified array of primitives and appends it to the
+     * serialization buffer. The elements are written directly from the array
+     * without boxing them.
+     *
+     * @param array
+     *            The array to serialize
+     * @param buffer
+     *            The buffer to append serialized data to
+     */
+
+    private void serializePrimitiveArray(final Object array, final OutputBuffer buffer)
+    {
+        int max;
+
+        if (array instanceof int[])
+        {
+            final int[] values = (int[]) array;
+            max = serializeArrayHeader(array, values.length, buffer);
+            for (int i = 0; i < max; i++)
+            {
+                serializeInteger(i, buffer);
+                serializeInteger(values[i], buffer);
+            }
+        }
+        else if (array instanceof long[])
+        {
+            final long[] values = (long[]) array;
+            max = serializeArrayHeader(array, values.length, buffer);
+            for (int i = 0; i < max; i++)
+            {
+                serializeInteger(i, buffer);
+                serializeLong(values[i], buffer);
+            }
+        }
+        else if (array instanceof double[])
+        {
+            final double[] values = (double[]) array;
+            max = serializeArrayHeader(array, values.length, buffer);
+            for (int i = 0; i < max; i++)
+            {
+                serializeInteger(i, buffer);
+                serializeDouble(values[i], buffer);
+            }
+        }
+        else if (array instanceof float[])
+        {
+            final float[] values = (float[]) array;
+            max = serializeArrayHeader(array, values.length, buffer);
+            for (int i = 0; i < max; i++)
+            {
+                serializeInteger(i, buffer);
+                serializeDouble(values[i], buffer);
+            }
+        }
+        else if (array instanceof byte[])
+        {
+            final byte[] values = (byte[]) array;
+            max = serializeArrayHeader(array, values.length, buffer);
+            for (int i = 0; i < max; i++)
+            {
+                serializeInteger(i, buffer);
+                serializeInteger(values[i], buffer);
+            }
+        }
+        else if (array instanceof short[])
         {
-            serializeObject(Integer.valueOf(i), buffer, false);
-            this.history.remove(this.history.size() - 1);
-            serializeObject(array[i], buffer);
+            final short[] values = (short[]) array;
+            max = serializeArrayHeader(array, values.length, buffer);
+            for (int i = 0; i < max; i++)
+            {
+                serializeInteger(i, buffer);
+                serializeInteger(values[i], buffer);
+            }
+        }
+        else if (array instanceof boolean[])
+        {
+            final boolean[] values = (boolean[]) array;
+            max = serializeArrayHeader(array, values.length, buffer);
+            for (int i = 0; i < max; i++)
+            {
+                serializeInteger(i, buffer);
+                buffer.append(values[i] ? "b:1;" : "b:0;");
+            }
+        }
+        else if (array instanceof char[])
+        {
+            final char[] values = (char[]) array;
+            max = serializeArrayHeader(array, values.length, buffer);
+            for (int i = 0; i < max; i++)
+            {
+                serializeInteger(i, buffer);
+                serializeString(String.valueOf(values[i]), buffer);
+            }
+        }
+        else
+        {
+            throw new SerializeException("Unable to serialize "
+                + array.getClass().getName());
         }
         buffer.append('}');
+        this.depth--;
+    }
+
+
+    /**
+     * Writes the header of an array with primitive elements, registers the
+     * array in the history and accounts for the elements in the value count.
+     *
+     * @param array
+     *            The array
+     * @param length
+     *            The number of elements
+     * @param buffer
+     *            The buffer to append serialized data to
+     * @return The number of elements
+     */
+
+    private int serializeArrayHeader(final Object array, final int length,
+        final OutputBuffer buffer)
+    {
+        enterNesting(false);
+        addHistory(array);
+        this.valueCount += length;
+        buffer.append("a:");
+        buffer.append(length);
+        buffer.append(":{");
+        return length;
     }
 
 
@@ -467,27 +1010,154 @@ public class Serializer
      * @param map
      *            The map to serialize
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeMap(final Map<?, ?> map, final StringBuffer buffer)
+    private void serializeMap(final Map<?, ?> map, final OutputBuffer buffer)
     {
         Iterator<?> iterator;
         Object key;
 
-        this.history.add(map);
+        enterNesting(false);
+        addHistory(map);
         buffer.append("a:");
         buffer.append(map.size());
         buffer.append(":{");
+        if (isParallel(map.size()))
+        {
+            serializeParallel(map.entrySet().toArray(), true, buffer);
+            buffer.append('}');
+            this.depth--;
+            return;
+        }
         iterator = map.keySet().iterator();
         while (iterator.hasNext())
         {
             key = iterator.next();
             serializeObject(key, buffer, false);
-            this.history.remove(this.history.size() - 1);
+            this.valueCount--;
             serializeObject(map.get(key), buffer);
         }
         buffer.append('}');
+        this.depth--;
+    }
+
+
+    /**
+     * Checks if an array with the specified number of elements is serialized
+     * in parallel.
+     *
+     * @param size
+     *            The number of elements
+     * @return If the array is serialized in parallel
+     */
+
+    private boolean isParallel(final int size)
+    {
+        return this.executor != null && !this.references && !this.chunk
+            && size >= this.parallelThreshold;
+    }
+
+
+    /**
+     * Serializes the elements of an array in parallel chunks and appends
+     * them in order.
+     *
+     * @param elements
+     *            The elements. Map entries if entries is true
+     * @param entries
+     *            If the elements are map entries
+     * @param buffer
+     *            The buffer to append serialized data to
+     */
+
+    private void serializeParallel(final Object[] elements,
+        final boolean entries, final OutputBuffer buffer)
+    {
+        List<Future<OutputBuffer>> futures;
+        int chunkSize;
+        Throwable cause;
+
+        chunkSize = Math.max(1024, elements.length
+            / (Runtime.getRuntime().availableProcessors() * 4) + 1);
+        futures = new ArrayList<Future<OutputBuffer>>();
+        for (int start = 0; start < elements.length; start += chunkSize)
+        {
+            futures.add(this.executor.submit(createChunk(elements, entries,
+                start, Math.min(start + chunkSize, elements.length))));
+        }
+        try
+        {
+            for (int i = 0; i < futures.size(); i++)
+            {
+                buffer.append(futures.get(i).get());
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SerializeException("Interrupted while serializing", e);
+        }
+        catch (final ExecutionException e)
+        {
+            cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new SerializeException("Unable to serialize", cause);
+        }
+    }
+
+
+    /**
+     * Creates a task which serializes a chunk of array elements with a new
+     * serializer using the same settings as this one.
+     *
+     * @param elements
+     *            The elements. Map entries if entries is true
+     * @param entries
+     *            If the elements are map entries
+     * @param start
+     *            The index of the first element of the chunk
+     * @param end
+     *            The index after the last element of the chunk
+     * @return The task
+     */
+
+    private Callable<OutputBuffer> createChunk(final Object[] elements,
+        final boolean entries, final int start, final int end)
+    {
+        final Serializer serializer;
+
+        serializer = new Serializer(this.charset);
+        serializer.byteArraysAsStrings = this.byteArraysAsStrings;
+        serializer.references = false;
+        serializer.maxDepth = this.maxDepth;
+        serializer.chunk = true;
+        serializer.depth = this.depth;
+        return new Callable<OutputBuffer>()
+        {
+            public OutputBuffer call()
+            {
+                OutputBuffer chunkBuffer;
+                Map.Entry<?, ?> entry;
+
+                chunkBuffer = new OutputBuffer();
+                for (int i = start; i < end; i++)
+                {
+                    if (entries)
+                    {
+                        entry = (Map.Entry<?, ?>) elements[i];
+                        serializer.serializeObject(entry.getKey(), chunkBuffer, false);
+                        serializer.serializeObject(entry.getValue(), chunkBuffer);
+                    }
+                    else
+                    {
+                        serializer.serializeInteger(i, chunkBuffer);
+                        serializer.serializeObject(elements[i], chunkBuffer);
+                    }
+                }
+                return chunkBuffer;
+            }
+        };
     }
 
 
@@ -497,10 +1167,10 @@ public class Serializer
      * @param object
      *            The serializable object
      * @param buffer
-     *            The string buffer to append serialized data to
+     *            The buffer to append serialized data to
      */
 
-    private void serializeSerializable(final Serializable object, final StringBuffer buffer)
+    private void serializeSerializable(final Serializable object, final OutputBuffer buffer)
     {
         String className;
         Class<?> c;
@@ -509,19 +1179,18 @@ public class Serializer
         Field field;
         String key;
         Object value;
-        StringBuffer fieldBuffer;
+        OutputBuffer fieldBuffer;
         int fieldCount;
 
-        this.history.add(object);
+        enterNesting(true);
+        addHistory(object);
         c = object.getClass();
         className = c.getSimpleName();
         buffer.append("O:");
-        buffer.append(className.length());
-        buffer.append(":\"");
-        buffer.append(className);
-        buffer.append("\":");
+        serializeRawString(className, buffer);
+        buffer.append(':');
 
-        fieldBuffer = new StringBuffer();
+        fieldBuffer = new OutputBuffer();
         fieldCount = 0;
         while (c != null)
         {
@@ -537,8 +1206,7 @@ public class Serializer
                     field.setAccessible(true);
                     key = field.getName();
                     value = field.get(object);
-                    serializeObject(key, fieldBuffer);
-                    this.history.remove(this.history.size() - 1);
+                    serializeString(key, fieldBuffer);
                     serializeObject(value, fieldBuffer);
                     fieldCount++;
                 }
@@ -561,15 +1229,6 @@ public class Serializer
         buffer.append(":{");
         buffer.append(fieldBuffer);
         buffer.append("}");
+        this.depth--;
     }
-    
-    static String decode(String encoded, Charset charset)
-    {
-        try {
-            return new String(encoded.getBytes(charset), "ISO-8859-1");
-        } catch (UnsupportedEncodingException e) {
-            return encoded;
-        }
-    }
-    
 }
@@ -0,0 +1,300 @@
+package com.github.pherialize;
+
+import java.nio.charset.Charset;
+
+
+/**
+ * A bounded table which maps raw byte sequences to canonical decoded strings.
+ * The Unserializer uses it to resolve repeated short strings (array keys,
+ * property names, class names) to one String instance without decoding them
+ * again.
+ *
+ * The table is direct-mapped: each byte sequence has exactly one slot and a
+ * new sequence simply replaces the previous entry of its slot. So the memory
+ * usage is bounded by the capacity and the maximum string length. Entries
+ * are immutable so a table can be shared between multiple Unserializers and
+ * threads. The hit/miss statistics are not synchronized and are only
+ * approximate when the table is shared between threads.
+ *
+ * @version $Revision$
+ */
+
+public class StringInterner
+{
+    /** The default number of slots */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** The default maximum length (in bytes) of interned strings */
+    public static final int DEFAULT_MAX_LENGTH = 64;
+
+    /** The slots */
+    private final Entry[] entries;
+
+    /** The bit mask to compute the slot of a hash */
+    private final int mask;
+
+    /** The maximum length (in bytes) of interned strings */
+    private final int maxLength;
+
+    /** The number of lookups which returned an existing string */
+    private long hits;
+
+    /** The number of lookups which had to decode the string */
+    private long misses;
+
+
+    /**
+     * An immutable table entry.
+     */
+
+    private static final class Entry
+    {
+        /** The hash of the raw bytes */
+        final int hash;
+
+        /** The raw bytes */
+        final byte[] bytes;
+
+        /** The charset used to decode the bytes */
+        final Charset charset;
+
+        /** The decoded string */
+        final String string;
+
+
+        /**
+         * Constructor
+         *
+         * @param hash
+         *            The hash of the raw bytes
+         * @param bytes
+         *            The raw bytes
+         * @param charset
+         *            The charset used to decode the bytes
+         * @param string
+         *            The decoded string
+         */
+
+        Entry(final int hash, final byte[] bytes, final Charset charset,
+            final String string)
+        {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.charset = charset;
+            this.string = string;
+        }
+    }
+
+
+    /**
+     * Constructor
+     */
+
+    public StringInterner()
+    {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_LENGTH);
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param capacity
+     *            The number of slots. Rounded up to the next power of two
+     * @param maxLength
+     *            The maximum length (in bytes) of interned strings. Longer
+     *            strings are always decoded
+     */
+
+    public StringInterner(final int capacity, final int maxLength)
+    {
+        int size;
+
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        size = 1;
+        while (size < capacity && size < (1 << 30))
+        {
+            size <<= 1;
+        }
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+        this.maxLength = maxLength;
+    }
+
+
+    /**
+     * Returns the maximum length (in bytes) of interned strings.
+     *
+     * @return The maximum length
+     */
+
+    public int getMaxLength()
+    {
+        return this.maxLength;
+    }
+
+
+    /**
+     * Returns the canonical string for the specified bytes. If the bytes are
+     * not in the table yet (or are longer than the maximum length) then they
+     * are decoded with the specified charset.
+     *
+     * @param buffer
+     *            The buffer containing the raw bytes
+     * @param offset
+     *            The offset of the first byte
+     * @param length
+     *            The number of bytes
+     * @param charset
+     *            The charset used to decode the bytes
+     * @return The decoded string
+     */
+
+    public String intern(final byte[] buffer, final int offset,
+        final int length, final Charset charset)
+    {
+        int hash, slot;
+        Entry entry;
+        byte[] bytes;
+        String string;
+
+        if (length > this.maxLength)
+        {
+            return new String(buffer, offset, length, charset);
+        }
+
+        hash = hash(buffer, offset, length);
+        slot = (hash ^ (hash >>> 16)) & this.mask;
+        entry = this.entries[slot];
+        if (entry != null && entry.hash == hash && entry.charset == charset
+            && matches(entry.bytes, buffer, offset, length))
+        {
+            this.hits++;
+            return entry.string;
+        }
+
+        this.misses++;
+        bytes = new byte[length];
+        System.arraycopy(buffer, offset, bytes, 0, length);
+        string = new String(bytes, charset);
+        this.entries[slot] = new Entry(hash, bytes, charset, string);
+        return string;
+    }
+
+
+    /**
+     * Computes the hash of the specified bytes.
+     *
+     * @param buffer
+     *            The buffer containing the bytes
+     * @param offset
+     *            The offset of the first byte
+     * @param length
+     *            The number of bytes
+     * @return The hash
+     */
+
+    private static int hash(final byte[] buffer, final int offset,
+        final int length)
+    {
+        int hash;
+
+        hash = length;
+        for (int i = offset, max = offset + length; i < max; i++)
+        {
+            hash = 31 * hash + buffer[i];
+        }
+        return hash;
+    }
+
+
+    /**
+     * Checks if the stored bytes are equal to the specified byte range.
+     *
+     * @param bytes
+     *            The stored bytes
+     * @param buffer
+     *            The buffer containing the bytes to compare
+     * @param offset
+     *            The offset of the first byte
+     * @param length
+     *            The number of bytes
+     * @return If the bytes are equal
+     */
+
+    private static boolean matches(final byte[] bytes, final byte[] buffer,
+        final int offset, final int length)
+    {
+        if (bytes.length != length) return false;
+        for (int i = 0; i < length; i++)
+        {
+            if (bytes[i] != buffer[offset + i]) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the number of lookups which returned an already decoded string.
+     *
+     * @return The number of hits
+     */
+
+    public long getHits()
+    {
+        return this.hits;
+    }
+
+
+    /**
+     * Returns the number of lookups which had to decode the string.
+     *
+     * @return The number of misses
+     */
+
+    public long getMisses()
+    {
+        return this.misses;
+    }
+
+
+    /**
+     * Returns the ratio of hits to all lookups. Returns 0 if there were no
+     * lookups yet.
+     *
+     * @return The hit rate between 0 and 1
+     */
+
+    public double getHitRate()
+    {
+        long total;
+
+        total = this.hits + this.misses;
+        return total == 0 ? 0 : (double) this.hits / total;
+    }
+
+
+    /**
+     * Resets the hit/miss statistics.
+     */
+
+    public void resetStatistics()
+    {
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+
+    /**
+     * Removes all entries from the table.
+     */
+
+    public void clear()
+    {
+        for (int i = 0; i < this.entries.length; i++)
+        {
+            this.entries[i] = null;
+        }
+    }
+}
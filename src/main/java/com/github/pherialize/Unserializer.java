@@ -26,7 +26,9 @@ package com.github.pherialize;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +36,7 @@ import javax.naming.spi.DirObjectFactory;
 
 import com.github.pherialize.exceptions.UnserializeException;
 import com.github.pherialize.factory.ObjectFactory;
+import com.github.pherialize.io.ArraySource;
 import com.github.pherialize.io.ByteArraySource;
 import com.github.pherialize.io.Source;
 
@@ -48,17 +51,182 @@ import com.github.pherialize.io.Source;
 public class Unserializer
 {
     /** The source where we read from */
-    private final Source source;
+    private Source source;
+
+    /** The source if it is an array source whose strings are decoded directly. Null otherwise **/
+    private final ArraySource arraySource;
     
     /** Charset of the source. Used to construct strings **/
     private final Charset sourceCharset;
 
-    /** The object history for resolving references */
-    private final List<Object> history;
+    /** The numbered values for resolving references. Index 0 is value number slotBase + 1 **/
+    private Mixed[] slots = new Mixed[16];
+
+    /** The number of values numbered so far **/
+    private int slotCount;
+
+    /** Returned by readListHeader if the value is NULL **/
+    private static final int NULL_LIST = -1;
+
+    /** The maximum initial capacity of containers read from streams whose size is unknown **/
+    private static final int MAX_INITIAL_CAPACITY = 1024;
+
+    /** Marks the slot of an object which is created by the object factory after its properties are read **/
+    private static final Mixed PENDING = new Mixed((Object) null);
+
+    /** Marks the slots of the elements of typed lists which are decoded without Mixed values **/
+    private static final Mixed TYPED_ELEMENT = new Mixed((Object) null);
+
+    /** The number of values before the unserialized part of the data. Only used by the ParallelUnserializer **/
+    private int slotBase;
+
+    /** Placeholders for references to values before the slot base, mapped to the referenced numbers. Null if not used **/
+    private Map<Mixed, Integer> placeholders;
+
+    /** The arrays containing placeholders which must be replaced after unserializing **/
+    private List<Placeholder> placeholderUsages;
+
+    /** If references are resolved. If disabled no values are recorded **/
+    private boolean references = true;
+
+    /** The maximum nesting depth of arrays and objects **/
+    private int maxDepth = 4096;
+
+    /** The stack of open arrays and objects. Frames are reused **/
+    private Frame[] stack = new Frame[16];
+
+    /** The number of open arrays and objects **/
+    private int depth;
+
+    /**
+     * An array element which is a placeholder for a reference to a value
+     * before the slot base.
+     */
+    static final class Placeholder
+    {
+        /** The array containing the placeholder **/
+        final MixedArray array;
+
+        /** The key of the placeholder in the array **/
+        final Object key;
+
+        /** The placeholder **/
+        final Mixed placeholder;
+
+        /**
+         * Constructor
+         *
+         * @param array
+         *            The array containing the placeholder
+         * @param key
+         *            The key of the placeholder in the array
+         * @param placeholder
+         *            The placeholder
+         */
+        Placeholder(final MixedArray array, final Object key, final Mixed placeholder)
+        {
+            this.array = array;
+            this.key = key;
+            this.placeholder = placeholder;
+        }
+    }
+
+    /**
+     * An array or object which is currently unserialized.
+     */
+    private static final class Frame
+    {
+        /** The array receiving the elements or properties **/
+        MixedArray array;
+
+        /** The unserialized array or object. Null for objects created by the object factory **/
+        Mixed result;
+
+        /** The class name of objects. Null for arrays **/
+        String className;
+
+        /** The number of objects minus one **/
+        int slot;
+
+        /** The number of elements still to read **/
+        int remaining;
+
+        /** The key of the element which is read next **/
+        Object key;
+    }
 
     /** Used to unserialize objects. If no objectFactory is given, objects are unserialized as map **/
     private ObjectFactory objectFactory;
 
+    /** Resolves repeated short strings to one instance. Created on first use if not set explicitly **/
+    private StringInterner stringInterner;
+
+    /** If short strings are interned at all **/
+    private boolean internStrings = true;
+
+    /** Reusable buffer for reading short strings **/
+    private byte[] stringBuffer;
+
+    /** Reusable buffer for the characters of a double **/
+    private char[] numberBuffer = new char[32];
+
+    /** Powers of ten which are exactly representable as double **/
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+        1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+        1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /** Minimum byte length of strings which are returned as lazy strings. Negative if disabled **/
+    private int lazyStringThreshold = -1;
+
+    /** If string values are returned as undecoded PhpBytes **/
+    private boolean rawStrings;
+
+    /** The listener receiving the metrics of each call **/
+    private PherializeMetrics metrics = PherializeMetrics.NONE;
+
+    /** The metrics of the current call. Null if metrics are disabled **/
+    private CallMetrics callMetrics;
+
+    /**
+     * Source wrapper counting the read bytes. Used for metrics when the
+     * source is no {@link ArraySource} which knows its position.
+     */
+    private static final class CountingSource implements Source
+    {
+        /** The wrapped source */
+        private final Source source;
+
+        /** The number of bytes read so far */
+        long count;
+
+        CountingSource(final Source source)
+        {
+            this.source = source;
+        }
+
+        @Override
+        public void close()
+        {
+            this.source.close();
+        }
+
+        @Override
+        public int read()
+        {
+            int result = this.source.read();
+            if (result >= 0) this.count++;
+            return result;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length)
+        {
+            int result = this.source.read(buffer, offset, length);
+            if (result > 0) this.count += result;
+            return result;
+        }
+    }
+
     /**
      * Constructor
      *
@@ -71,7 +239,19 @@ public class Unserializer
         super();
         this.source = source;
         this.sourceCharset = sourceCharset;
-        this.history = new ArrayList<Object>();
+        this.arraySource = source instanceof ArraySource ? (ArraySource) source : null;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param data
+     *            The data to unserialize
+     */
+
+    public Unserializer(final byte[] data, final Charset sourceCharset)
+    {
+        this(new ByteArraySource(data),sourceCharset);
     }
 
     /**
@@ -103,6 +283,116 @@ public class Unserializer
     {
         this.objectFactory = objectFactory;
     }
+
+    /**
+     * Sets the table used to intern short strings. By default each
+     * Unserializer uses its own table. A table can be shared between multiple
+     * Unserializers to resolve strings repeated across payloads. Setting null
+     * disables interning.
+     *
+     * @param stringInterner
+     *            The string table or null to disable interning
+     */
+    public void setStringInterner(StringInterner stringInterner)
+    {
+        this.stringInterner = stringInterner;
+        this.internStrings = stringInterner != null;
+    }
+
+    /**
+     * Enables lazy strings. String values with at least the given number of
+     * bytes are returned as {@link LazyString} views on the source data which
+     * are decoded only when needed and are written back by the Serializer
+     * without decoding and encoding them. Only used if the source is an
+     * {@link ArraySource}. Note that lazy strings keep the whole source data
+     * reachable.
+     *
+     * @param lazyStringThreshold
+     *            The minimum byte length of lazy strings. Negative to disable
+     *            lazy strings (the default)
+     */
+    public void setLazyStringThreshold(int lazyStringThreshold)
+    {
+        this.lazyStringThreshold = lazyStringThreshold;
+    }
+
+    /**
+     * Enables raw strings. String values are returned as {@link PhpBytes}
+     * without decoding them with the source charset, so binary data survives
+     * unchanged. Array keys and class names are still decoded. Takes
+     * precedence over lazy strings.
+     *
+     * @param rawStrings
+     *            If string values should be returned as PhpBytes
+     */
+    public void setRawStrings(boolean rawStrings)
+    {
+        this.rawStrings = rawStrings;
+    }
+
+    /**
+     * Enables or disables references. When the payload is known to contain
+     * no references (R: or r:) then disabling them skips recording the
+     * unserialized values, so values which are no longer needed can be
+     * garbage collected early. Payloads which contain references are
+     * rejected with an UnserializeException when references are disabled.
+     *
+     * @param references
+     *            If references are resolved (the default)
+     */
+    public void setReferences(boolean references)
+    {
+        this.references = references;
+    }
+
+    /**
+     * Sets the maximum nesting depth of arrays and objects. Deeper payloads
+     * are rejected with an UnserializeException. Nesting does not consume
+     * thread stack, so large values are safe.
+     *
+     * @param maxDepth
+     *            The maximum nesting depth. Defaults to 4096
+     */
+    public void setMaxDepth(int maxDepth)
+    {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Sets the listener receiving the metrics of each call of
+     * {@link #unserializeObject()}. The typed list readers are not measured.
+     *
+     * @param metrics
+     *            The listener. {@link PherializeMetrics#NONE} (the default) or
+     *            null to disable metrics
+     */
+    public void setMetrics(PherializeMetrics metrics)
+    {
+        if (metrics == null || metrics == PherializeMetrics.NONE)
+        {
+            this.metrics = PherializeMetrics.NONE;
+            this.callMetrics = null;
+            return;
+        }
+        this.metrics = metrics;
+        if (this.callMetrics == null) this.callMetrics = new CallMetrics();
+        if (!(this.source instanceof ArraySource) && !(this.source instanceof CountingSource))
+        {
+            this.source = new CountingSource(this.source);
+        }
+    }
+
+    /**
+     * Returns the table used to intern short strings, for example to query
+     * its hit rate. Returns null if interning is disabled or no string was
+     * unserialized yet.
+     *
+     * @return The string table or null
+     */
+    public StringInterner getStringInterner()
+    {
+        return stringInterner;
+    }
     
     /**
      * Reads a one-byte character from the source.
@@ -127,38 +417,56 @@ public class Unserializer
     
     /**
      * Reads digits until "endOfIntegerCharacter" (usually a collon) occurs
-     * @throws UnserializeException on unexpected data
+     * @throws UnserializeException on unexpected data or if the number does not fit into an int
      */
     protected int readInt(char endOfIntegerCharacter)
     {
-        // The code here is similar to Integer.parseInt but uses the "endOfIntegerCharacter" as terminator
+        long result=readLong(endOfIntegerCharacter);
+        
+        if (result<Integer.MIN_VALUE || result>Integer.MAX_VALUE)
+        {
+            throw new UnserializeException("Integer value out of range: "+result);
+        }
+        
+        return (int) result;
+    }
+    
+    /**
+     * Reads digits until "endOfIntegerCharacter" (usually a collon) occurs
+     * @throws UnserializeException on unexpected data or if the number does not fit into a long
+     */
+    protected long readLong(char endOfIntegerCharacter)
+    {
+        // The code here is similar to Long.parseLong but uses the "endOfIntegerCharacter" as terminator.
+        // The number is accumulated negatively because the negative range is larger than the positive one.
         
-        int result=0;
+        long result=0;
+        long limit=-Long.MAX_VALUE;
         
         boolean negative=false;
-        boolean first=true;
+        boolean digits=false;
+        
+        char c=readNextControlCharacter();
+        if (c=='-')
+        {
+            negative=true;
+            limit=Long.MIN_VALUE;
+            c=readNextControlCharacter();
+        }
         
         for (;;)
         {
-            char c=readNextControlCharacter();
-            
-            if (first)
+            if (c>='0' && c<='9')
             {
-                first=false;
-                if (c=='-')
+                int digit=c-'0';
+                if (result<limit/10 || result*10<limit+digit)
                 {
-                    negative=true;
-                    continue;
+                    throw new UnserializeException("Integer value out of range");
                 }
+                result=result*10-digit;
+                digits=true;
             }
-            
-            
-            int digit=Character.digit(c, 10);
-            if (digit>=0 && digit<=9)
-            {
-                result=result*10+digit;
-            }
-            else if (c==endOfIntegerCharacter)
+            else if (c==endOfIntegerCharacter && digits)
             {
                 break;
             }
@@ -166,12 +474,10 @@ public class Unserializer
             {
                 throw new UnserializeException("Unexepected character. Expected 0...9 or '"+endOfIntegerCharacter+"' but got '"+c+"'");
             }
-            first=false;
+            c=readNextControlCharacter();
         }
         
-        if (negative) result=-result;
-        
-        return result;
+        return negative ? result : -result;
     }
     
     /**
@@ -182,14 +488,24 @@ public class Unserializer
     protected byte[] readExactly(int numberOfBytes)
     {
         byte[] result=new byte[numberOfBytes];
-        
+        readExactly(result, numberOfBytes);
+        return result;
+    }
+    
+    /**
+     * Reads from the source until the requests number of bytes is read into the given buffer
+     * @param buffer
+     * @param numberOfBytes
+     */
+    protected void readExactly(byte[] buffer, int numberOfBytes)
+    {
         /**
          * Some code from common-io IOUtils.read
          */
         int remaining = numberOfBytes;
         while (remaining > 0) {
             int location = numberOfBytes - remaining;
-            int count = source.read(result, location, remaining);
+            int count = source.read(buffer, location, remaining);
             if (count<0) // EOF
             {
                 break;
@@ -198,8 +514,6 @@ public class Unserializer
         }
         
         if (remaining!=0) throw new UnserializeException("Unexepected end of data."); 
-        
-        return result;
     }
     
     
@@ -211,163 +525,874 @@ public class Unserializer
 
     public Mixed unserializeObject()
     {
-        char type;
+        long start, position;
         Mixed result;
+        Object event;
+        int values;
 
-        type = readNextControlCharacter();
-        switch (type)
+        event = Events.beginUnserialize();
+        if (this.callMetrics == null && event == null) return unserializeValue();
+        start = System.nanoTime();
+        position = getBytesRead();
+        values = this.slotCount;
+        if (this.callMetrics != null)
         {
-            case 's':
-                result = unserializeString();
-                break;
-
-            case 'i':
-                result = unserializeInteger();
-                break;
-
-            case 'd':
-                result = unserializeDouble();
-                break;
-
-            case 'b':
-                result = unserializeBoolean();
-                break;
-
-            case 'N':
-                result = unserializeNull();
-                break;
-
-            case 'a':
-                return unserializeArray();
-
-            case 'R':
-                result = unserializeReference();
-                break;
-
-            case 'O':
-                result = unserializeSerializable();
-                break;
-
-            default:
-                throw new UnserializeException(
-                    "Unable to unserialize unknown type " + type);
+            this.callMetrics.reset();
+            if (this.stringInterner != null)
+            {
+                // Subtracted again when reporting the metrics
+                this.callMetrics.internHits = -this.stringInterner.getHits();
+                this.callMetrics.internMisses = -this.stringInterner.getMisses();
+            }
         }
-
-        this.history.add(result);
+        try
+        {
+            result = unserializeValue();
+        }
+        catch (final RuntimeException e)
+        {
+            if (this.callMetrics != null) reportMetrics(start, position, true);
+            throw e;
+        }
+        if (this.callMetrics != null) reportMetrics(start, position, false);
+        Events.endUnserialize(event, position < 0 ? -1 : getBytesRead() - position,
+            this.slotCount - values);
         return result;
     }
 
-    private String unserializeRawString()
+    /**
+     * Unserializes the next object without metrics and events. Used by the
+     * ParallelUnserializer and the IncrementalUnserializer which decode a
+     * top-level array entry by entry and report the whole operation once.
+     *
+     * @return The unserialized object
+     */
+
+    Mixed unserializeEntry()
     {
-        int stringLengthInBytes=readInt(':');
-        
-        readExpected('"');
-        
-        String result=new String(readExactly(stringLengthInBytes),sourceCharset);
-        
-        readExpected('"');
-        
-        return result;
+        return unserializeValue();
     }
-    
 
     /**
-     * Unserializes the next object in the data stream into a String.
+     * Returns the number of values unserialized so far (including the slot
+     * base). Keys are not counted.
      *
-     * @return The unserialized String
+     * @return The number of values
      */
 
-    private Mixed unserializeString()
+    int getSlotCount()
     {
-        readExpected(':');
-
-        String result=unserializeRawString();
-        
-        readExpected(';');
-        
-        return new Mixed(result);
+        return this.slotCount;
     }
 
-
     /**
-     * Unserializes the next object in the data stream into an Integer.
+     * Completes the metrics of the current call and passes them to the
+     * listener.
      *
-     * @return The unserialized Integer
+     * @param start
+     *            The start time of the call in nanoseconds
+     * @param position
+     *            The number of bytes read before the call
+     * @param failed
+     *            If the call failed with an exception
      */
 
-    private Mixed unserializeInteger()
+    private void reportMetrics(final long start, final long position,
+        final boolean failed)
     {
-        readExpected(':');
-
-        int result=readInt(';');
-        return new Mixed(result);
+        this.callMetrics.bytes = getBytesRead() - position;
+        this.callMetrics.elapsedNanos = System.nanoTime() - start;
+        this.callMetrics.failed = failed;
+        if (this.stringInterner != null)
+        {
+            this.callMetrics.internHits += this.stringInterner.getHits();
+            this.callMetrics.internMisses += this.stringInterner.getMisses();
+        }
+        this.metrics.unserialized(this.callMetrics);
     }
 
+    /**
+     * Returns the number of bytes read from the source so far. Only known
+     * for array sources and when metrics are enabled.
+     *
+     * @return The number of read bytes or -1 if unknown
+     */
+
+    private long getBytesRead()
+    {
+        if (this.source instanceof ArraySource)
+        {
+            return ((ArraySource) this.source).getPosition();
+        }
+        if (this.source instanceof CountingSource)
+        {
+            return ((CountingSource) this.source).count;
+        }
+        return -1;
+    }
 
     /**
-     * Unserializes the next object in the data stream into an Double.
+     * Unserializes the next value in the data stream.
      *
-     * @return The unserialized Double
+     * @return The unserialized value
      */
 
-    private Mixed unserializeDouble()
+    private Mixed unserializeValue()
     {
-        readExpected(':');
+        char type;
+        Mixed result;
+        Frame frame;
 
-        StringBuilder sb=new StringBuilder();
-        boolean first=true;
-        boolean allowFractionalDigits=true;
-        
+        // Arrays and objects are not unserialized recursively. Instead the
+        // open containers are kept on an explicit stack, so the nesting
+        // depth is limited by maxDepth and not by the thread stack.
+        this.depth = 0;
         for (;;)
         {
-            char c=readNextControlCharacter();
-            
-            if ((c>='0' && c<='9') || (first && c=='-'))
+            type = readNextControlCharacter();
+            switch (type)
             {
-                sb.append(c);
+                case 's':
+                    result = unserializeString();
+                    break;
+
+                case 'i':
+                    result = unserializeInteger();
+                    break;
+
+                case 'd':
+                    result = unserializeDouble();
+                    break;
+
+                case 'b':
+                    result = unserializeBoolean();
+                    break;
+
+                case 'N':
+                    result = unserializeNull();
+                    break;
+
+                case 'a':
+                    result = openArray();
+                    break;
+
+                case 'O':
+                    result = openSerializable();
+                    break;
+
+                case 'R':
+                    // Variable references are not numbered themselves
+                    result = unserializeReference();
+                    break;
+
+                case 'r':
+                    result = unserializeReference();
+                    break;
+
+                default:
+                    throw new UnserializeException(
+                        "Unable to unserialize unknown type " + type);
             }
-            else if (allowFractionalDigits && c=='.')
+            if (this.callMetrics != null) this.callMetrics.count(type);
+
+            if (result == null && (type == 'a' || type == 'O'))
             {
-                sb.append(c);
-                allowFractionalDigits=false;
+                // A non-empty container was opened. Continue with its first
+                // element
+                continue;
             }
-            else if (c==';')
+            if (type != 'a' && type != 'O' && type != 'R')
             {
-                break;
+                record(this.slotCount++, result);
             }
-            else
+
+            // Add the value to the open containers and close all containers
+            // which are complete now
+            for (;;)
             {
-                String allowed="0...9";
-                
-                if (first)
+                if (this.depth == 0) return result;
+                frame = this.stack[this.depth - 1];
+                frame.array.put(frame.key, result);
+                if (this.placeholders != null && !this.placeholders.isEmpty()
+                    && this.placeholders.containsKey(result))
                 {
-                    allowed+=" or '-'";
+                    this.placeholderUsages.add(new Placeholder(frame.array, frame.key, result));
                 }
-                if (allowFractionalDigits)
+                if (--frame.remaining > 0)
                 {
-                    allowed+=" or '.'";
+                    frame.key = unserializeKey();
+                    break;
                 }
-                allowed+=" or ';'";
-                
-                throw new UnserializeException("Unexepected character. Expected "+allowed+" but got '"+c+"'");
+                readExpected('}');
+                this.depth--;
+                result = closeFrame(frame);
             }
         }
-        Double result=Double.parseDouble(sb.toString());
-        return new Mixed(result);
     }
 
-
     /**
-     * Unserializes the next object in the data stream as a reference.
+     * Unserializes the next value in the data stream, which must be a PHP list
+     * of integers, into an int array. The elements are decoded directly
+     * without creating Mixed values or boxes.
      *
-     * @return The unserialized reference
+     * @return The unserialized array or null if the value is NULL
+     * @throws UnserializeException if the value is not a list of integers
+     *             in the int range
      */
 
-    private Mixed unserializeReference()
+    public int[] unserializeIntArray()
     {
-        readExpected(':');
-        int index = readInt(';');
-        return (Mixed) this.history.get(index - 1);
+        int slot=this.slotCount;
+        int size=readListHeader();
+        if (size==NULL_LIST) return null;
+        
+        int[] result=new int[getInitialCapacity(size, 8)];
+        for (int i=0; i<size; i++)
+        {
+            if (i==result.length) result=Arrays.copyOf(result, (int) Math.min(size, (long) i<<1));
+            readListKey(i);
+            readExpected('i');
+            readExpected(':');
+            result[i]=readInt(';');
+        }
+        readExpected('}');
+        this.slotCount+=size;
+        if (this.references) recordTypedList(slot, size, new Mixed(result));
+        return result;
+    }
+
+
+    /**
+     * Unserializes the next value in the data stream, which must be a PHP list
+     * of integers, into a long array. The elements are decoded directly
+     * without creating Mixed values or boxes.
+     *
+     * @return The unserialized array or null if the value is NULL
+     * @throws UnserializeException if the value is not a list of integers
+     */
+
+    public long[] unserializeLongArray()
+    {
+        int slot=this.slotCount;
+        int size=readListHeader();
+        if (size==NULL_LIST) return null;
+        
+        long[] result=new long[getInitialCapacity(size, 8)];
+        for (int i=0; i<size; i++)
+        {
+            if (i==result.length) result=Arrays.copyOf(result, (int) Math.min(size, (long) i<<1));
+            readListKey(i);
+            readExpected('i');
+            readExpected(':');
+            result[i]=readLong(';');
+        }
+        readExpected('}');
+        this.slotCount+=size;
+        if (this.references) recordTypedList(slot, size, new Mixed(result));
+        return result;
+    }
+
+
+    /**
+     * Unserializes the next value in the data stream, which must be a PHP list
+     * of doubles or integers, into a double array. The elements are decoded
+     * directly without creating Mixed values or boxes.
+     *
+     * @return The unserialized array or null if the value is NULL
+     * @throws UnserializeException if the value is not a list of numbers
+     */
+
+    public double[] unserializeDoubleArray()
+    {
+        int slot=this.slotCount;
+        int size=readListHeader();
+        if (size==NULL_LIST) return null;
+        
+        double[] result=new double[getInitialCapacity(size, 8)];
+        for (int i=0; i<size; i++)
+        {
+            if (i==result.length) result=Arrays.copyOf(result, (int) Math.min(size, (long) i<<1));
+            readListKey(i);
+            char type=readNextControlCharacter();
+            readExpected(':');
+            if (type=='d') result[i]=readDouble();
+            else if (type=='i') result[i]=readLong(';');
+            else throw new UnserializeException("Unexpected value of type "+type+" in list of doubles");
+        }
+        readExpected('}');
+        this.slotCount+=size;
+        if (this.references) recordTypedList(slot, size, new Mixed(result));
+        return result;
+    }
+
+
+    /**
+     * Unserializes the next value in the data stream, which must be a PHP list
+     * of strings (or NULLs), into a list of strings. The strings are decoded
+     * directly without creating Mixed values.
+     *
+     * @return The unserialized list or null if the value is NULL
+     * @throws UnserializeException if the value is not a list of strings
+     */
+
+    public List<String> unserializeStringList()
+    {
+        int slot=this.slotCount;
+        int size=readListHeader();
+        if (size==NULL_LIST) return null;
+        
+        List<String> result=new ArrayList<String>(getInitialCapacity(size, 6));
+        for (int i=0; i<size; i++)
+        {
+            readListKey(i);
+            char type=readNextControlCharacter();
+            if (type=='s')
+            {
+                readExpected(':');
+                result.add(unserializeRawString());
+                readExpected(';');
+            }
+            else if (type=='N')
+            {
+                readExpected(';');
+                result.add(null);
+            }
+            else
+            {
+                throw new UnserializeException("Unexpected value of type "+type+" in list of strings");
+            }
+        }
+        readExpected('}');
+        this.slotCount+=size;
+        if (this.references) recordTypedList(slot, size, new Mixed(result));
+        return result;
+    }
+    
+    /**
+     * Records a list decoded by one of the typed readers. Its elements have
+     * no Mixed values, so their slots are marked to reject references to
+     * them instead of resolving them to null.
+     *
+     * @param slot
+     *            The slot of the list
+     * @param size
+     *            The number of elements
+     * @param list
+     *            The list
+     */
+    private void recordTypedList(int slot, int size, Mixed list)
+    {
+        record(slot+size, TYPED_ELEMENT);
+        Arrays.fill(this.slots, slot+1-this.slotBase, slot+size+1-this.slotBase, TYPED_ELEMENT);
+        record(slot, list);
+    }
+    
+    /**
+     * Reads the header of a list ("a:size:{") and numbers the list.
+     * @return the size of the list or NULL_LIST if the value is NULL
+     */
+    private int readListHeader()
+    {
+        char type=readNextControlCharacter();
+        if (type=='N')
+        {
+            readExpected(';');
+            this.slotCount++;
+            return NULL_LIST;
+        }
+        if (type!='a')
+        {
+            throw new UnserializeException("Unexpected value of type "+type+". Expected a list");
+        }
+        readExpected(':');
+        int size=readSize();
+        readExpected('{');
+        this.slotCount++;
+        return size;
+    }
+
+    /**
+     * Reads the number of elements of an array or object and checks that it
+     * is not negative.
+     *
+     * @return The number of elements
+     */
+    private int readSize()
+    {
+        int size=readInt(':');
+        if (size<0) throw new UnserializeException("Invalid number of elements "+size);
+        return size;
+    }
+
+    /**
+     * Returns the initial capacity for a container with the given number of
+     * elements. The number comes from the untrusted data, so it is checked
+     * against the remaining bytes of array sources. For other sources the
+     * capacity is limited and the container must grow while it is read.
+     *
+     * @param size
+     *            The number of elements announced by the data
+     * @param minElementBytes
+     *            The minimum number of bytes of an element including its key
+     * @return The initial capacity
+     * @throws UnserializeException
+     *             If the remaining data is too short for the number of
+     *             elements
+     */
+    private int getInitialCapacity(int size, int minElementBytes)
+    {
+        if (source instanceof ArraySource)
+        {
+            ArraySource arraySource=(ArraySource) source;
+            if ((long) size*minElementBytes>arraySource.getLimit()-arraySource.getPosition())
+            {
+                throw new UnserializeException("Unexepected end of data. Expected "+size+" elements");
+            }
+            return size;
+        }
+        return Math.min(size, MAX_INITIAL_CAPACITY);
+    }
+    
+    /**
+     * Reads the key of a list element and checks that it is the given index.
+     */
+    private void readListKey(int index)
+    {
+        readExpected('i');
+        readExpected(':');
+        int key=readInt(';');
+        if (key!=index)
+        {
+            throw new UnserializeException("Unexpected key "+key+". Expected list index "+index);
+        }
+    }
+    
+    private String unserializeRawString()
+    {
+        int stringLengthInBytes=readInt(':');
+        
+        readExpected('"');
+        
+        String result=readString(stringLengthInBytes);
+        
+        readExpected('"');
+        
+        return result;
+    }
+    
+    /**
+     * Reads and decodes a string with the given number of bytes
+     */
+    private String readString(int stringLengthInBytes)
+    {
+        if (internStrings && stringInterner==null) stringInterner=new StringInterner();
+        if (arraySource!=null)
+        {
+            // Decode straight from the array without copying the bytes
+            byte[] data=arraySource.getData();
+            int offset=arraySource.getPosition();
+            if (stringLengthInBytes<0 || stringLengthInBytes>arraySource.getLimit()-offset)
+            {
+                throw new UnserializeException("Unexepected end of data.");
+            }
+            arraySource.skip(stringLengthInBytes);
+            if (internStrings && stringLengthInBytes<=stringInterner.getMaxLength())
+            {
+                return stringInterner.intern(data, offset, stringLengthInBytes, sourceCharset);
+            }
+            return new String(data, offset, stringLengthInBytes, sourceCharset);
+        }
+        if (internStrings && stringLengthInBytes<=stringInterner.getMaxLength())
+        {
+            if (stringBuffer==null || stringBuffer.length<stringLengthInBytes)
+            {
+                stringBuffer=new byte[Math.max(stringLengthInBytes, StringInterner.DEFAULT_MAX_LENGTH)];
+            }
+            readExactly(stringBuffer, stringLengthInBytes);
+            return stringInterner.intern(stringBuffer, 0, stringLengthInBytes, sourceCharset);
+        }
+        return new String(readExactly(stringLengthInBytes),sourceCharset);
+    }
+    
+    /**
+     * Reads the bytes of a raw string. The length is checked against the
+     * remaining bytes of array sources. Stream sources are read into a
+     * growing buffer, so a huge length in invalid data fails at the end of
+     * the data instead of allocating the whole length up front.
+     */
+    private byte[] readRawBytes(int stringLengthInBytes)
+    {
+        if (stringLengthInBytes<0 || (arraySource!=null
+            && stringLengthInBytes>arraySource.getLimit()-arraySource.getPosition()))
+        {
+            throw new UnserializeException("Unexepected end of data.");
+        }
+        if (arraySource!=null) return readExactly(stringLengthInBytes);
+        
+        byte[] result=new byte[Math.min(stringLengthInBytes, MAX_INITIAL_CAPACITY*8)];
+        int length=0;
+        while (length<stringLengthInBytes)
+        {
+            if (length==result.length)
+            {
+                result=Arrays.copyOf(result, (int) Math.min(stringLengthInBytes, (long) length<<1));
+            }
+            int count=source.read(result, length, result.length-length);
+            if (count<0) throw new UnserializeException("Unexepected end of data.");
+            length+=count;
+        }
+        return result;
+    }
+    
+    /**
+     * Creates a lazy string on the next given number of bytes of the source
+     */
+    private LazyString readLazyString(int stringLengthInBytes)
+    {
+        ArraySource arraySource=(ArraySource) source;
+        int offset=arraySource.getPosition();
+        
+        if (stringLengthInBytes<0 || arraySource.skip(stringLengthInBytes)!=stringLengthInBytes)
+        {
+            throw new UnserializeException("Unexepected end of data.");
+        }
+        
+        return new LazyString(arraySource.getData(), offset, stringLengthInBytes, sourceCharset);
+    }
+    
+
+    /**
+     * Unserializes the next object in the data stream into a String.
+     *
+     * @return The unserialized String
+     */
+
+    private Mixed unserializeString()
+    {
+        readExpected(':');
+        
+        int stringLengthInBytes=readInt(':');
+        
+        readExpected('"');
+        if (callMetrics!=null) callMetrics.stringBytes+=stringLengthInBytes;
+        
+        Mixed result;
+        if (rawStrings)
+        {
+            result=new Mixed(PhpBytes.wrap(readRawBytes(stringLengthInBytes)));
+        }
+        else if (lazyStringThreshold>=0 && stringLengthInBytes>=lazyStringThreshold && source instanceof ArraySource)
+        {
+            result=new Mixed(readLazyString(stringLengthInBytes));
+        }
+        else
+        {
+            result=Mixed.valueOf(readString(stringLengthInBytes));
+        }
+        
+        readExpected('"');
+        readExpected(';');
+        
+        return result;
+    }
+
+
+    /**
+     * Unserializes the next object in the data stream into an Integer or a
+     * Long if the value does not fit into an Integer.
+     *
+     * @return The unserialized Integer or Long
+     */
+
+    private Mixed unserializeInteger()
+    {
+        readExpected(':');
+
+        long result=readLong(';');
+        if (result>=Integer.MIN_VALUE && result<=Integer.MAX_VALUE)
+        {
+            return Mixed.valueOf((int) result);
+        }
+        return new Mixed(result);
+    }
+
+
+    /**
+     * Unserializes the next object in the data stream into an Double.
+     * Accepts the same notations as PHP: Decimal numbers with optional
+     * exponent, INF, -INF and NAN.
+     *
+     * @return The unserialized Double
+     */
+
+    private Mixed unserializeDouble()
+    {
+        readExpected(':');
+        
+        return new Mixed(readDouble());
+    }
+    
+    /**
+     * Reads a double in PHP notation until the terminating semicolon.
+     * @throws UnserializeException on unexpected data
+     */
+    private double readDouble()
+    {
+        int length=0;
+        long mantissa=0;
+        int significantDigits=0;
+        int fractionDigits=0;
+        int exponent=0;
+        boolean negative=false;
+        boolean digits=false;
+        boolean fraction=false;
+        
+        char c=readNextControlCharacter();
+        if (c=='N')
+        {
+            readExpected('A');
+            readExpected('N');
+            readExpected(';');
+            return Double.NaN;
+        }
+        if (c=='-' || c=='+')
+        {
+            negative=c=='-';
+            length=appendNumberCharacter(length, c);
+            c=readNextControlCharacter();
+        }
+        if (c=='I')
+        {
+            readExpected('N');
+            readExpected('F');
+            readExpected(';');
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        
+        // Mantissa
+        for (;;)
+        {
+            if (c>='0' && c<='9')
+            {
+                digits=true;
+                if (significantDigits>0 || c!='0')
+                {
+                    if (significantDigits<19) mantissa=mantissa*10+(c-'0');
+                    significantDigits++;
+                }
+                if (fraction) fractionDigits++;
+            }
+            else if (c=='.' && !fraction)
+            {
+                fraction=true;
+            }
+            else
+            {
+                break;
+            }
+            length=appendNumberCharacter(length, c);
+            c=readNextControlCharacter();
+        }
+        if (!digits)
+        {
+            throw new UnserializeException("Unexepected character. Expected 0...9 or '.' but got '"+c+"'");
+        }
+        
+        // Exponent
+        if (c=='e' || c=='E')
+        {
+            length=appendNumberCharacter(length, c);
+            c=readNextControlCharacter();
+            boolean exponentNegative=false;
+            if (c=='-' || c=='+')
+            {
+                exponentNegative=c=='-';
+                length=appendNumberCharacter(length, c);
+                c=readNextControlCharacter();
+            }
+            boolean exponentDigits=false;
+            while (c>='0' && c<='9')
+            {
+                exponentDigits=true;
+                if (exponent<100000) exponent=exponent*10+(c-'0');
+                length=appendNumberCharacter(length, c);
+                c=readNextControlCharacter();
+            }
+            if (!exponentDigits)
+            {
+                throw new UnserializeException("Unexepected character. Expected 0...9 but got '"+c+"'");
+            }
+            if (exponentNegative) exponent=-exponent;
+        }
+        
+        if (c!=';')
+        {
+            throw new UnserializeException("Unexepected character. Expected 0...9 or ';' but got '"+c+"'");
+        }
+        
+        // Fast path: The mantissa and the power of ten are exactly representable
+        // as double, so a single multiplication or division is correctly rounded
+        int scale=exponent-fractionDigits;
+        double result;
+        if (mantissa==0)
+        {
+            result=0;
+        }
+        else if (significantDigits<=15 && scale>=-22 && scale<=22)
+        {
+            result=scale<0 ? mantissa/POWERS_OF_TEN[-scale] : mantissa*POWERS_OF_TEN[scale];
+        }
+        else
+        {
+            return Double.parseDouble(new String(numberBuffer, 0, length));
+        }
+        return negative ? -result : result;
+    }
+    
+    /**
+     * Appends a character to the number buffer which is used to parse numbers the fast path can't handle.
+     * @return the new length of the number in the buffer
+     */
+    private int appendNumberCharacter(int length, char c)
+    {
+        if (length==numberBuffer.length)
+        {
+            char[] newBuffer=new char[length*2];
+            System.arraycopy(numberBuffer, 0, newBuffer, 0, length);
+            numberBuffer=newBuffer;
+        }
+        numberBuffer[length]=c;
+        return length+1;
+    }
+
+
+    /**
+     * Unserializes the next object in the data stream as a reference.
+     *
+     * @return The unserialized reference
+     */
+
+    private Mixed unserializeReference()
+    {
+        readExpected(':');
+        int index = readInt(';');
+        if (!this.references)
+        {
+            throw new UnserializeException("Unexpected reference " + index + ". References are disabled");
+        }
+        if (index < 1 || index > this.slotCount)
+        {
+            throw new UnserializeException("Invalid reference " + index);
+        }
+        if (index <= this.slotBase)
+        {
+            if (this.placeholders == null)
+            {
+                throw new UnserializeException("Invalid reference " + index);
+            }
+            Mixed placeholder = new Mixed((Object) null);
+            this.placeholders.put(placeholder, index);
+            return placeholder;
+        }
+        Mixed result = getSlot(index);
+        if (result == PENDING)
+        {
+            throw new UnserializeException("Unsupported reference " + index
+                + " to an object which is not created yet");
+        }
+        if (result == TYPED_ELEMENT)
+        {
+            throw new UnserializeException("Unsupported reference " + index
+                + " to an element of a typed list");
+        }
+        return result;
+    }
+
+
+    /**
+     * Starts numbering values after the specified number of values and
+     * returns placeholders for references to values before them. Used by the
+     * ParallelUnserializer which unserializes parts of the data
+     * independently.
+     *
+     * @param slotBase
+     *            The number of values before the unserialized part
+     */
+
+    void setSlotBase(final int slotBase)
+    {
+        this.slotBase = slotBase;
+        this.slotCount = slotBase;
+        this.placeholders = new IdentityHashMap<Mixed, Integer>();
+        this.placeholderUsages = new ArrayList<Placeholder>();
+    }
+
+
+    /**
+     * Returns the value with the specified number.
+     *
+     * @param number
+     *            The number of the value. Must be above the slot base
+     * @return The value
+     */
+
+    Mixed getSlot(final int number)
+    {
+        int slot;
+
+        slot = number - 1 - this.slotBase;
+        return slot >= this.slots.length ? null : this.slots[slot];
+    }
+
+
+    /**
+     * Returns the number referenced by the specified placeholder.
+     *
+     * @param value
+     *            The value to check
+     * @return The referenced number or null if the value is no placeholder
+     */
+
+    Integer getPlaceholderNumber(final Mixed value)
+    {
+        return this.placeholders == null ? null : this.placeholders.get(value);
+    }
+
+
+    /**
+     * Returns the array elements which are placeholders for references to
+     * values before the slot base.
+     *
+     * @return The placeholder usages
+     */
+
+    List<Placeholder> getPlaceholderUsages()
+    {
+        return this.placeholderUsages;
+    }
+
+
+    /**
+     * Records the value with the specified number (minus one) for resolving
+     * references. Does nothing if references are disabled.
+     *
+     * @param slot
+     *            The number of the value minus one
+     * @param value
+     *            The value
+     */
+
+    private void record(final int slot, final Mixed value)
+    {
+        if (!this.references) return;
+        int index = slot - this.slotBase;
+        if (index >= this.slots.length)
+        {
+            Mixed[] newSlots = new Mixed[Math.max(this.slots.length << 1, index + 1)];
+            System.arraycopy(this.slots, 0, newSlots, 0, this.slots.length);
+            this.slots = newSlots;
+        }
+        this.slots[index] = value;
     }
 
 
@@ -385,7 +1410,7 @@ public class Unserializer
         
         if (result<0 || result>1) throw new UnserializeException("Unexpected boolean value. Expected 0 or 1 but got "+result);
             
-        return new Mixed(result==1);
+        return Mixed.valueOf(result==1);
     }
 
 
@@ -403,54 +1428,207 @@ public class Unserializer
 
 
     /**
-     * Unserializes the next object in the data stream into an array. This
-     * method returns an ArrayList if the unserialized array has numerical
-     * keys starting with 0 or a HashMap otherwise.
+     * Unserializes the next array key in the data stream. Keys are integers
+     * or strings and are never added to the reference history. String keys
+     * are always decoded, even if lazy or raw strings are enabled.
      *
-     * @return The unserialized array
+     * @return The unserialized key
      */
 
-    private Mixed unserializeArray()
+    Mixed unserializeKey()
+    {
+        char type=readNextControlCharacter();
+        switch (type)
+        {
+            case 'i':
+                return unserializeInteger();
+                
+            case 's':
+                readExpected(':');
+                String result=unserializeRawString();
+                readExpected(';');
+                return Mixed.valueOf(result);
+                
+            default:
+                throw new UnserializeException(
+                    "Unable to unserialize array key of type " + type);
+        }
+    }
+
+
+    /**
+     * Reads the header of an array ("a:size:{") and numbers the array. Empty
+     * arrays are completely read and returned. For non-empty arrays a new
+     * frame is pushed on the stack, the first key is read and null is
+     * returned.
+     *
+     * @return The empty array or null if the array has elements
+     */
+
+    private Mixed openArray()
     {
         readExpected(':');
-        
+
         Mixed result;
         MixedArray array;
         int max;
-        int i;
-        Object key, value;
 
-        max = readInt(':');
-        readExpected('{');
-                
-        array = new MixedArray(max);
+        max = readSize();
+        array = new MixedArray(getInitialCapacity(max, 6));
         result = new Mixed(array);
-        this.history.add(result);
-        for (i = 0; i < max; i++)
-        {
-            key = unserializeObject();
-            this.history.remove(this.history.size() - 1);
-            value = unserializeObject();
-            array.put(key, value);
-        }
-        readExpected('}');
-        return result;
+        record(this.slotCount++, result);
+        return openFrame(array, max, result, null, -1);
     }
-    
-    private Mixed unserializeSerializable()
+
+
+    /**
+     * Reads the header of an object ("O:len:"class":size:{"). The object and
+     * its properties are numbered like PHP does it: The object itself gets
+     * one number, the properties array does not get one. Without object
+     * factory the object is the properties array and is recorded right away,
+     * so properties can refer back to it. Objects created by the object
+     * factory can't be referenced before they are complete. Objects without
+     * properties are completely read and returned. Otherwise a new frame is
+     * pushed on the stack, the first key is read and null is returned.
+     *
+     * @return The object without properties or null if it has properties
+     */
+
+    private Mixed openSerializable()
     {
         readExpected(':');
-        
+
         String className=unserializeRawString();
-        
-        MixedArray properties=unserializeArray().toArray();
-        
+
+        readExpected(':');
+        int slot=this.slotCount++;
+        int max=readSize();
+        MixedArray properties=new MixedArray(getInitialCapacity(max, 6));
+        Mixed result=null;
         if (objectFactory==null)
         {
-            properties.put("class", className);
-            return new Mixed(properties);
+            result=new Mixed(properties);
+            record(slot, result);
         }
-        
-        return new Mixed(objectFactory.createObject(className, properties));
+        else
+        {
+            record(slot, PENDING);
+        }
+        return openFrame(properties, max, result, className, slot);
+    }
+
+
+    /**
+     * Opens a container. If it is empty then it is closed again immediately
+     * and its value is returned. Otherwise a frame is pushed on the stack,
+     * the first key is read and null is returned.
+     *
+     * @param array
+     *            The array receiving the elements
+     * @param max
+     *            The number of elements
+     * @param result
+     *            The unserialized array or object or null for objects created
+     *            by the object factory
+     * @param className
+     *            The class name of objects or null for arrays
+     * @param slot
+     *            The number of objects minus one
+     * @return The value of an empty container or null
+     */
+
+    private Mixed openFrame(final MixedArray array, final int max,
+        final Mixed result, final String className, final int slot)
+    {
+        Frame frame;
+
+        readExpected('{');
+        frame = push();
+        frame.array = array;
+        frame.remaining = max;
+        frame.result = result;
+        frame.className = className;
+        frame.slot = slot;
+        if (max > 0)
+        {
+            frame.key = unserializeKey();
+            return null;
+        }
+        readExpected('}');
+        this.depth--;
+        return closeFrame(frame);
+    }
+
+
+    /**
+     * Pushes a new frame on the stack. Frames are reused.
+     *
+     * @return The new frame
+     * @throws UnserializeException
+     *             If the maximum nesting depth is exceeded
+     */
+
+    private Frame push()
+    {
+        Frame frame;
+
+        if (this.depth >= this.maxDepth)
+        {
+            throw new UnserializeException("Maximum nesting depth of "
+                + this.maxDepth + " exceeded");
+        }
+        if (this.depth == this.stack.length)
+        {
+            Frame[] newStack = new Frame[this.stack.length << 1];
+            System.arraycopy(this.stack, 0, newStack, 0, this.stack.length);
+            this.stack = newStack;
+        }
+        frame = this.stack[this.depth];
+        if (frame == null)
+        {
+            frame = new Frame();
+            this.stack[this.depth] = frame;
+        }
+        this.depth++;
+        if (this.callMetrics != null) this.callMetrics.enter(this.depth);
+        return frame;
+    }
+
+
+    /**
+     * Returns the value of a completely read container and releases the
+     * references held by its frame.
+     *
+     * @param frame
+     *            The popped frame
+     * @return The unserialized array or object
+     */
+
+    private Mixed closeFrame(final Frame frame)
+    {
+        Mixed result;
+        MixedArray properties;
+
+        properties = frame.array;
+        result = frame.result;
+        if (frame.className != null)
+        {
+            if (result != null)
+            {
+                properties.put("class", frame.className);
+            }
+            else
+            {
+                Object event=Events.beginHydrate();
+                result=new Mixed(objectFactory.createObject(frame.className, properties, sourceCharset));
+                Events.endHydrate(event, frame.className, properties.size());
+                record(frame.slot, result);
+            }
+        }
+        frame.array = null;
+        frame.result = null;
+        frame.className = null;
+        frame.key = null;
+        return result;
     }
 }
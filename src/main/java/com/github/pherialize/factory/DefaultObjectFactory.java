@@ -2,10 +2,12 @@ package com.github.pherialize.factory;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
 import java.util.Map.Entry;
 
 import com.github.pherialize.Mixed;
 import com.github.pherialize.MixedArray;
+import com.github.pherialize.PhpBytes;
 import com.github.pherialize.exceptions.UnserializeException;
 
 public class DefaultObjectFactory implements ObjectFactory 
@@ -43,6 +45,18 @@ public class DefaultObjectFactory implements ObjectFactory
         
         field.setAccessible(true);
         
+        if (value instanceof PhpBytes)
+        {
+            if (field.getType()==byte[].class) value=((PhpBytes) value).toByteArray();
+            else if (field.getType()==String.class) value=value.toString();
+        }
+        else if (value instanceof MixedArray)
+        {
+            if (field.getType()==int[].class) value=((MixedArray) value).toIntArray();
+            else if (field.getType()==long[].class) value=((MixedArray) value).toLongArray();
+            else if (field.getType()==double[].class) value=((MixedArray) value).toDoubleArray();
+        }
+        
         field.set(instance,value);
     }
     
@@ -66,6 +80,17 @@ public class DefaultObjectFactory implements ObjectFactory
     
     @Override
     public Object createObject(String className, MixedArray properties)
+    {
+        return createObject(className, properties, null);
+    }
+    
+    /**
+     * Creates the object. Raw string properties (PhpBytes) assigned to String
+     * fields are decoded with the given charset or as ISO-8859-1 if it is
+     * null.
+     */
+    @Override
+    public Object createObject(String className, MixedArray properties, Charset charset)
     {
         try
         {
@@ -75,6 +100,11 @@ public class DefaultObjectFactory implements ObjectFactory
             {
                 String key=((Mixed)props.getKey()).toString();
                 Object value=((Mixed)props.getValue()).toObject();
+                if (value instanceof PhpBytes && charset!=null
+                    && findField(instance.getClass(), key).getType()==String.class)
+                {
+                    value=((PhpBytes) value).toString(charset);
+                }
                 
                 setProperty(instance,key,value);
             }
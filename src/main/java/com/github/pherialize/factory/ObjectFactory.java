@@ -1,8 +1,20 @@
 package com.github.pherialize.factory;
 
+import java.nio.charset.Charset;
+
 import com.github.pherialize.MixedArray;
 
 public interface ObjectFactory
 {
     public Object createObject(String className, MixedArray properties);
+    
+    /**
+     * Creates an object with the charset of the unserialized data, which is
+     * needed to decode raw string properties (PhpBytes). Factories which
+     * don't need the charset don't have to implement this method.
+     */
+    public default Object createObject(String className, MixedArray properties, Charset charset)
+    {
+        return createObject(className, properties);
+    }
 }
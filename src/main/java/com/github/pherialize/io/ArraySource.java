@@ -0,0 +1,29 @@
+package com.github.pherialize.io;
+
+/**
+ * A source which has all its data in one byte array. Allows the unserializer
+ * to access the data directly instead of copying it.
+ */
+public interface ArraySource extends Source
+{
+    /**
+     * Returns the backing array. The array must not be modified.
+     */
+    public byte[] getData();
+    
+    /**
+     * Returns the index of the next byte to read in the backing array.
+     */
+    public int getPosition();
+    
+    /**
+     * Returns the index after the last readable byte in the backing array.
+     */
+    public int getLimit();
+    
+    /**
+     * Skips the given number of bytes.
+     * @return the number of bytes actually skipped. Less than requested at the end of data
+     */
+    public int skip(int count);
+}
@@ -1,34 +1,166 @@
 package com.github.pherialize.io;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
-import com.github.pherialize.exceptions.UnserializeException;
-
-public class ByteArraySource implements Source
+public class ByteArraySource implements ArraySource
 {
+    protected final byte[] data;
+    
+    protected final int limit;
+    
+    protected int position;
+    
+    /**
+     * Stream view on the data which shares the position with this source.
+     *
+     * @deprecated Only kept for subclasses written against the stream based
+     *             implementation. Use the methods of the source instead
+     */
+    @Deprecated
     protected final ByteArrayInputStream stream;
     
     public ByteArraySource(byte[] data)
     {
-        this.stream=new ByteArrayInputStream(data);
+        this(data, 0, data.length);
+    }
+    
+    public ByteArraySource(byte[] data, int offset, int length)
+    {
+        this.data=data;
+        this.position=offset;
+        this.limit=offset+length;
+        this.stream=new StreamView(offset, length);
     }
     
     @Override
     public void close()
     {
-        // Closing ByteArrayInputStream has no effect
+        // Nothing to close
     }
     
     @Override
     public int read()
     {
-        return stream.read();
+        return readByte();
     }
     
     @Override
     public int read(byte[] buffer, int offset, int length)
     {
-        return stream.read(buffer, offset, length);
+        return readBytes(buffer, offset, length);
+    }
+    
+    private int readByte()
+    {
+        if (position>=limit) return -1;
+        return data[position++] & 0xff;
+    }
+    
+    private int readBytes(byte[] buffer, int offset, int length)
+    {
+        if (position>=limit) return -1;
+        if (length>limit-position) length=limit-position;
+        System.arraycopy(data, position, buffer, offset, length);
+        position+=length;
+        return length;
+    }
+    
+    @Override
+    public byte[] getData()
+    {
+        return data;
+    }
+    
+    @Override
+    public int getPosition()
+    {
+        return position;
+    }
+    
+    @Override
+    public int getLimit()
+    {
+        return limit;
+    }
+    
+    @Override
+    public int skip(int count)
+    {
+        if (count>limit-position) count=limit-position;
+        if (count<0) count=0;
+        position+=count;
+        return count;
+    }
+    
+    /**
+     * The deprecated stream. Reads through the private methods of the source
+     * so subclasses overriding read() with stream.read() don't recurse.
+     */
+    private final class StreamView extends ByteArrayInputStream
+    {
+        private int markedPosition;
+        
+        StreamView(int offset, int length)
+        {
+            super(data, offset, length);
+            this.markedPosition=offset;
+        }
+        
+        @Override
+        public synchronized int read()
+        {
+            return readByte();
+        }
+        
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length)
+        {
+            if (length==0) return 0;
+            return readBytes(buffer, offset, length);
+        }
+        
+        @Override
+        public synchronized long skip(long count)
+        {
+            return ByteArraySource.this.skip((int) Math.min(count, Integer.MAX_VALUE));
+        }
+        
+        @Override
+        public synchronized int available()
+        {
+            return limit-position;
+        }
+        
+        // Overrides the direct buffer access of Java 9 and later
+        public synchronized byte[] readAllBytes()
+        {
+            byte[] result=new byte[limit-position];
+            readBytes(result, 0, result.length);
+            return result;
+        }
+        
+        // Overrides the direct buffer access of Java 9 and later
+        public synchronized long transferTo(OutputStream out) throws IOException
+        {
+            int length=limit-position;
+            out.write(data, position, length);
+            position=limit;
+            return length;
+        }
+        
+        @Override
+        public synchronized void mark(int readLimit)
+        {
+            markedPosition=position;
+        }
+        
+        @Override
+        public synchronized void reset()
+        {
+            position=markedPosition;
+        }
     }
 
 }
@@ -17,14 +17,14 @@ public interface Source
     public void close();
     
     /**
-     * {@link InputStream.read}
+     * {@link InputStream#read()}
      * 
      * @throws UnserializeException in case of an error
      */
     public int read();
     
     /**
-     * {@link InputStream.read} 
+     * {@link InputStream#read(byte[], int, int)}
      * @throws UnserializeException in case of an error
      */
     public int read(byte[] buffer, int offset, int length);
@@ -0,0 +1,126 @@
+package com.github.pherialize;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+
+/**
+ * Scans byte arrays eight bytes at a time (SWAR, SIMD within a register).
+ * Each step loads a long word and classifies all of its bytes with a few
+ * arithmetic operations instead of comparing the bytes one by one. Used by
+ * the ParallelUnserializer to skip values in its structural scan.
+ *
+ * This is the JDK 17 implementation of the multi-release JAR. It reads the
+ * words with a VarHandle instead of a ByteBuffer view. It has not shown a
+ * measurable difference to the baseline implementation. The Vector API is
+ * not used because it is still an incubator module in JDK 17 which
+ * applications would have to enable with --add-modules.
+ *
+ * @version $Revision$
+ */
+
+final class ByteScanner
+{
+    /** The lowest bit of each byte */
+    private static final long ONES = 0x0101010101010101L;
+
+    /** The highest bit of each byte */
+    private static final long HIGHS = 0x8080808080808080L;
+
+    /** The high nibble of each byte */
+    private static final long HIGH_NIBBLES = 0xF0F0F0F0F0F0F0F0L;
+
+    /** The high nibble of the digits '0' to '9' in each byte */
+    private static final long DIGIT_NIBBLES = 0x3030303030303030L;
+
+    /** Reads little-endian long words from byte arrays */
+    private static final VarHandle WORDS = MethodHandles.byteArrayViewVarHandle(
+        long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /** The scanned data */
+    private final byte[] data;
+
+
+    /**
+     * Constructor
+     *
+     * @param data
+     *            The data to scan
+     */
+
+    ByteScanner(final byte[] data)
+    {
+        this.data = data;
+    }
+
+
+    /**
+     * Returns the index of the first occurrence of the specified byte.
+     *
+     * @param b
+     *            The byte to search
+     * @param from
+     *            The index to start searching at
+     * @param to
+     *            The index to stop searching at (exclusive)
+     * @return The index of the byte or -1 if not found
+     */
+
+    int indexOf(final byte b, final int from, final int to)
+    {
+        long pattern, word, found;
+        int i;
+
+        pattern = (b & 0xffL) * ONES;
+        for (i = from; i + 8 <= to; i += 8)
+        {
+            // Bytes equal to b become zero. The classic zero-byte test then
+            // sets the high bit of the first zero byte
+            word = (long) WORDS.get(this.data, i) ^ pattern;
+            found = (word - ONES) & ~word & HIGHS;
+            if (found != 0) return i + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+        for (; i < to; i++)
+        {
+            if (this.data[i] == b) return i;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Skips decimal digits.
+     *
+     * @param from
+     *            The index of the first byte to check
+     * @param to
+     *            The index to stop at (exclusive)
+     * @return The index of the first byte which is no digit or to if all
+     *         bytes are digits
+     */
+
+    int skipDigits(final int from, final int to)
+    {
+        long word;
+        int i;
+        byte b;
+
+        for (i = from; i + 8 <= to; i += 8)
+        {
+            // All bytes are digits if their high nibble is 3 and stays 3
+            // when adding 6 (which moves 0x3A-0x3F to 0x40-0x45). Only
+            // non-digit bytes can carry into the next byte, so the test is
+            // exact for whole words
+            word = (long) WORDS.get(this.data, i);
+            if ((word & HIGH_NIBBLES) != DIGIT_NIBBLES
+                || ((word + 6 * ONES) & HIGH_NIBBLES) != DIGIT_NIBBLES) break;
+        }
+        for (; i < to; i++)
+        {
+            b = this.data[i];
+            if (b < '0' || b > '9') return i;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,225 @@
+package com.github.pherialize;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * Emits Java Flight Recorder events for serializing, unserializing and
+ * creating objects. Each operation calls a begin method before and an end
+ * method after the work. The begin method returns the started event or null
+ * if the event is disabled, in which case the end method does nothing.
+ *
+ * This is the JDK 17 implementation of the multi-release JAR. While the
+ * events are not enabled in a recording the JIT reduces the begin methods to
+ * a constant check, so the instrumentation costs nearly nothing.
+ *
+ * @version $Revision$
+ */
+
+final class Events
+{
+    /**
+     * Serializing a value.
+     */
+
+    @Name("pherialize.Serialize")
+    @Label("Serialize")
+    @Category("Pherialize")
+    @Description("Serializing a value into the PHP serialize format")
+    static final class SerializeEvent extends Event
+    {
+        /** The number of written bytes */
+        @Label("Payload Size")
+        @DataAmount
+        long payloadSize;
+
+        /** The number of serialized values */
+        @Label("Elements")
+        int elements;
+    }
+
+
+    /**
+     * Unserializing a top-level value.
+     */
+
+    @Name("pherialize.Unserialize")
+    @Label("Unserialize")
+    @Category("Pherialize")
+    @Description("Unserializing a value from the PHP serialize format")
+    static final class UnserializeEvent extends Event
+    {
+        /** The number of read bytes or -1 if unknown */
+        @Label("Payload Size")
+        @DataAmount
+        long payloadSize;
+
+        /** The number of unserialized values */
+        @Label("Elements")
+        int elements;
+    }
+
+
+    /**
+     * Creating an object with the object factory.
+     */
+
+    @Name("pherialize.Hydrate")
+    @Label("Hydrate")
+    @Category("Pherialize")
+    @Description("Creating an object from unserialized properties")
+    static final class HydrateEvent extends Event
+    {
+        /** The PHP class name */
+        @Label("Class Name")
+        String className;
+
+        /** The number of properties */
+        @Label("Elements")
+        int elements;
+    }
+
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+
+    private Events()
+    {
+        // Empty
+    }
+
+
+    /**
+     * Begins a serialize event.
+     *
+     * @return The event or null if disabled
+     */
+
+    static Object beginSerialize()
+    {
+        SerializeEvent event;
+
+        event = new SerializeEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+
+    /**
+     * Ends a serialize event.
+     *
+     * @param event
+     *            The event returned by {@link #beginSerialize()}
+     * @param payloadSize
+     *            The number of written bytes
+     * @param elements
+     *            The number of serialized values
+     */
+
+    static void endSerialize(final Object event, final long payloadSize,
+        final int elements)
+    {
+        SerializeEvent serializeEvent;
+
+        if (event == null) return;
+        serializeEvent = (SerializeEvent) event;
+        serializeEvent.end();
+        if (!serializeEvent.shouldCommit()) return;
+        serializeEvent.payloadSize = payloadSize;
+        serializeEvent.elements = elements;
+        serializeEvent.commit();
+    }
+
+
+    /**
+     * Begins an unserialize event.
+     *
+     * @return The event or null if disabled
+     */
+
+    static Object beginUnserialize()
+    {
+        UnserializeEvent event;
+
+        event = new UnserializeEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+
+    /**
+     * Ends an unserialize event.
+     *
+     * @param event
+     *            The event returned by {@link #beginUnserialize()}
+     * @param payloadSize
+     *            The number of read bytes or -1 if unknown
+     * @param elements
+     *            The number of unserialized values
+     */
+
+    static void endUnserialize(final Object event, final long payloadSize,
+        final int elements)
+    {
+        UnserializeEvent unserializeEvent;
+
+        if (event == null) return;
+        unserializeEvent = (UnserializeEvent) event;
+        unserializeEvent.end();
+        if (!unserializeEvent.shouldCommit()) return;
+        unserializeEvent.payloadSize = payloadSize;
+        unserializeEvent.elements = elements;
+        unserializeEvent.commit();
+    }
+
+
+    /**
+     * Begins a hydrate event.
+     *
+     * @return The event or null if disabled
+     */
+
+    static Object beginHydrate()
+    {
+        HydrateEvent event;
+
+        event = new HydrateEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+
+    /**
+     * Ends a hydrate event.
+     *
+     * @param event
+     *            The event returned by {@link #beginHydrate()}
+     * @param className
+     *            The PHP class name of the created object
+     * @param elements
+     *            The number of properties
+     */
+
+    static void endHydrate(final Object event, final String className,
+        final int elements)
+    {
+        HydrateEvent hydrateEvent;
+
+        if (event == null) return;
+        hydrateEvent = (HydrateEvent) event;
+        hydrateEvent.end();
+        if (!hydrateEvent.shouldCommit()) return;
+        hydrateEvent.className = className;
+        hydrateEvent.elements = elements;
+        hydrateEvent.commit();
+    }
+}
@@ -0,0 +1,252 @@
+package com.github.pherialize;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Publishes the output of a {@link ChunkedSerializer} as a sequence of
+ * pooled ByteBuffer chunks. A chunk is only serialized when the subscriber
+ * has requested it, so a slow consumer (like a reactive HTTP response)
+ * throttles the serialization and a large export streamed from an iterator
+ * runs in bounded memory (the ChunkedSerializer disables references for
+ * that, so shared arrays and objects are written again at each occurrence).
+ * Each chunk is filled except for the last one and is ready to be read
+ * (flipped). Subscribers should release consumed chunks to the pool.
+ *
+ * The data can only be published once, so only one subscriber is accepted.
+ * The chunks are serialized and delivered in the thread calling
+ * Subscription.request(), or by the executor if one is specified.
+ *
+ * This class is only available on JDK 17 and later.
+ *
+ * @version $Revision$
+ */
+
+public class SerializerPublisher implements Flow.Publisher<ByteBuffer>
+{
+    /** The serializer producing the data */
+    private final ChunkedSerializer serializer;
+
+    /** The pool providing the chunks */
+    private final ByteBufferPool pool;
+
+    /** Runs the delivery. Null to deliver in the requesting thread */
+    private final Executor executor;
+
+    /** If a subscriber was already accepted */
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+
+    /**
+     * Constructor
+     *
+     * @param serializer
+     *            The serializer producing the data
+     * @param pool
+     *            The pool providing the chunks
+     */
+
+    public SerializerPublisher(final ChunkedSerializer serializer,
+        final ByteBufferPool pool)
+    {
+        this(serializer, pool, null);
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param serializer
+     *            The serializer producing the data
+     * @param pool
+     *            The pool providing the chunks
+     * @param executor
+     *            Runs the serialization and delivery. Null to run them in
+     *            the thread requesting the chunks
+     */
+
+    public SerializerPublisher(final ChunkedSerializer serializer,
+        final ByteBufferPool pool, final Executor executor)
+    {
+        super();
+        this.serializer = serializer;
+        this.pool = pool;
+        this.executor = executor;
+    }
+
+
+    /**
+     * @see java.util.concurrent.Flow.Publisher#subscribe(java.util.concurrent.Flow.Subscriber)
+     */
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber)
+    {
+        if (!this.subscribed.compareAndSet(false, true))
+        {
+            subscriber.onSubscribe(new Flow.Subscription()
+            {
+                @Override
+                public void request(final long n)
+                {
+                    // Ignored
+                }
+
+                @Override
+                public void cancel()
+                {
+                    // Ignored
+                }
+            });
+            subscriber.onError(new IllegalStateException(
+                "The data can only be published to one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new ChunkSubscription(subscriber));
+    }
+
+
+    /**
+     * The subscription of the subscriber. Serializes a chunk per requested
+     * item.
+     */
+
+    private final class ChunkSubscription implements Flow.Subscription,
+        Runnable
+    {
+        /** The subscriber */
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+
+        /** The number of requested chunks which were not delivered yet */
+        private final AtomicLong demand = new AtomicLong();
+
+        /** The number of pending drain requests. Only one thread drains */
+        private final AtomicInteger work = new AtomicInteger();
+
+        /** If the subscription was cancelled or completed */
+        private volatile boolean done;
+
+        /** An invalid request to report. Null if none */
+        private volatile IllegalArgumentException invalidRequest;
+
+
+        /**
+         * Constructor
+         *
+         * @param subscriber
+         *            The subscriber
+         */
+
+        ChunkSubscription(final Flow.Subscriber<? super ByteBuffer> subscriber)
+        {
+            this.subscriber = subscriber;
+        }
+
+
+        /**
+         * @see java.util.concurrent.Flow.Subscription#request(long)
+         */
+
+        @Override
+        public void request(final long n)
+        {
+            long current, next;
+
+            if (n <= 0)
+            {
+                this.invalidRequest = new IllegalArgumentException(
+                    "Requested " + n + " chunks. The number must be positive");
+            }
+            else
+            {
+                do
+                {
+                    current = this.demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                }
+                while (!this.demand.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+
+        /**
+         * @see java.util.concurrent.Flow.Subscription#cancel()
+         */
+
+        @Override
+        public void cancel()
+        {
+            this.done = true;
+        }
+
+
+        /**
+         * Starts draining unless another thread is already draining.
+         */
+
+        private void schedule()
+        {
+            if (this.work.getAndIncrement() != 0) return;
+            if (SerializerPublisher.this.executor == null) run();
+            else SerializerPublisher.this.executor.execute(this);
+        }
+
+
+        /**
+         * Delivers chunks while there is demand. Requests arriving meanwhile
+         * (also from within onNext) are handled by the same loop, so the
+         * subscriber is never called concurrently or recursively.
+         */
+
+        @Override
+        public void run()
+        {
+            int missed;
+            ByteBuffer chunk;
+
+            missed = 1;
+            for (;;)
+            {
+                while (!this.done)
+                {
+                    if (this.invalidRequest != null)
+                    {
+                        this.done = true;
+                        this.subscriber.onError(this.invalidRequest);
+                        break;
+                    }
+                    if (!SerializerPublisher.this.serializer.hasRemaining())
+                    {
+                        this.done = true;
+                        this.subscriber.onComplete();
+                        break;
+                    }
+                    if (this.demand.get() == 0) break;
+                    chunk = SerializerPublisher.this.pool.acquire();
+                    try
+                    {
+                        SerializerPublisher.this.serializer.read(chunk);
+                    }
+                    catch (final RuntimeException e)
+                    {
+                        SerializerPublisher.this.pool.release(chunk);
+                        this.done = true;
+                        this.subscriber.onError(e);
+                        break;
+                    }
+                    chunk.flip();
+                    this.demand.decrementAndGet();
+                    this.subscriber.onNext(chunk);
+                }
+                missed = this.work.addAndGet(-missed);
+                if (missed == 0) return;
+            }
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.github.pherialize;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.pherialize.IncrementalUnserializer.State;
+import com.github.pherialize.exceptions.UnserializeException;
+
+
+/**
+ * Processor parsing ByteBuffer chunks with an {@link IncrementalUnserializer}
+ * and emitting each value as soon as it is complete. Values can be sent
+ * back-to-back in the same stream. When entries are enabled then the values
+ * of top-level arrays (like the elements of an exported list) are emitted
+ * one by one instead, so large arrays are received in bounded memory. The
+ * keys of such entries are not emitted.
+ *
+ * A chunk is only requested from upstream when the downstream subscriber
+ * has demand and the previous chunk is consumed, and a chunk is only parsed
+ * as far as values are requested. So at most one chunk and the bytes of
+ * the current value are held. Chunks are consumed completely before they
+ * are released to the pool (if one is set). The processor accepts one
+ * downstream subscriber.
+ *
+ * This class is only available on JDK 17 and later.
+ *
+ * @version $Revision$
+ */
+
+public class UnserializerProcessor implements Flow.Processor<ByteBuffer, Mixed>
+{
+    /** Parses the chunks */
+    private final IncrementalUnserializer unserializer;
+
+    /** The number of values requested downstream but not emitted yet */
+    private final AtomicLong demand = new AtomicLong();
+
+    /** The number of pending drain requests. Only one thread drains */
+    private final AtomicInteger work = new AtomicInteger();
+
+    /** Receives consumed chunks. Null if chunks are not pooled */
+    private ByteBufferPool pool;
+
+    /** The upstream subscription. Null before onSubscribe */
+    private volatile Flow.Subscription upstream;
+
+    /** The downstream subscriber. Null before subscribe */
+    private volatile Flow.Subscriber<? super Mixed> downstream;
+
+    /** The chunk received from upstream which the drain loop did not take yet */
+    private volatile ByteBuffer incoming;
+
+    /** If upstream completed */
+    private volatile boolean upstreamDone;
+
+    /** The error reported by upstream or by a request. Null if none */
+    private volatile Throwable error;
+
+    /** If downstream cancelled or the processor terminated */
+    private volatile boolean done;
+
+    /** The chunk currently parsed. Only used by the drain loop */
+    private ByteBuffer current;
+
+    /** If a chunk was requested from upstream and not received yet */
+    private volatile boolean requested;
+
+    /** If a value is partially parsed. Only used by the drain loop */
+    private boolean partial;
+
+
+    /**
+     * Constructor
+     *
+     * @param charset
+     *            The charset used to decode strings
+     * @param entries
+     *            If the values of top-level arrays are emitted one by one
+     */
+
+    public UnserializerProcessor(final Charset charset, final boolean entries)
+    {
+        this(new IncrementalUnserializer(charset), entries);
+    }
+
+
+    /**
+     * Constructor with a configured unserializer (for example with an object
+     * factory or a maximum length).
+     *
+     * @param unserializer
+     *            Parses the chunks. Must not be used elsewhere
+     * @param entries
+     *            If the values of top-level arrays are emitted one by one
+     */
+
+    public UnserializerProcessor(final IncrementalUnserializer unserializer,
+        final boolean entries)
+    {
+        super();
+        this.unserializer = unserializer;
+        unserializer.setEntries(entries);
+    }
+
+
+    /**
+     * Sets the pool to which completely consumed chunks are released. Only
+     * set it if the chunks come from this pool and upstream does not use
+     * them anymore after publishing them, like with a
+     * {@link SerializerPublisher}.
+     *
+     * @param pool
+     *            The pool. Null to not release the chunks (the default)
+     */
+
+    public void setPool(final ByteBufferPool pool)
+    {
+        this.pool = pool;
+    }
+
+
+    /**
+     * @see java.util.concurrent.Flow.Publisher#subscribe(java.util.concurrent.Flow.Subscriber)
+     */
+
+    @Override
+    public synchronized void subscribe(final Flow.Subscriber<? super Mixed> subscriber)
+    {
+        final Flow.Subscription subscription;
+
+        if (this.downstream != null)
+        {
+            subscriber.onSubscribe(new Flow.Subscription()
+            {
+                @Override
+                public void request(final long n)
+                {
+                    // Ignored
+                }
+
+                @Override
+                public void cancel()
+                {
+                    // Ignored
+                }
+            });
+            subscriber.onError(new IllegalStateException(
+                "The processor accepts only one subscriber"));
+            return;
+        }
+        subscription = new Flow.Subscription()
+        {
+            @Override
+            public void request(final long n)
+            {
+                long current, next;
+
+                if (n <= 0)
+                {
+                    UnserializerProcessor.this.error = new IllegalArgumentException(
+                        "Requested " + n + " values. The number must be positive");
+                }
+                else
+                {
+                    do
+                    {
+                        current = UnserializerProcessor.this.demand.get();
+                        next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                    }
+                    while (!UnserializerProcessor.this.demand.compareAndSet(current, next));
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel()
+            {
+                Flow.Subscription subscription;
+
+                UnserializerProcessor.this.done = true;
+                subscription = UnserializerProcessor.this.upstream;
+                if (subscription != null) subscription.cancel();
+            }
+        };
+        this.downstream = subscriber;
+        subscriber.onSubscribe(subscription);
+        drain();
+    }
+
+
+    /**
+     * @see java.util.concurrent.Flow.Subscriber#onSubscribe(java.util.concurrent.Flow.Subscription)
+     */
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription)
+    {
+        if (this.upstream != null)
+        {
+            subscription.cancel();
+            return;
+        }
+        this.upstream = subscription;
+        if (this.done) subscription.cancel();
+        else drain();
+    }
+
+
+    /**
+     * @see java.util.concurrent.Flow.Subscriber#onNext(java.lang.Object)
+     */
+
+    @Override
+    public void onNext(final ByteBuffer chunk)
+    {
+        this.incoming = chunk;
+        this.requested = false;
+        drain();
+    }
+
+
+    /**
+     * @see java.util.concurrent.Flow.Subscriber#onError(java.lang.Throwable)
+     */
+
+    @Override
+    public void onError(final Throwable throwable)
+    {
+        this.error = throwable;
+        this.upstreamDone = true;
+        drain();
+    }
+
+
+    /**
+     * @see java.util.concurrent.Flow.Subscriber#onComplete()
+     */
+
+    @Override
+    public void onComplete()
+    {
+        this.upstreamDone = true;
+        drain();
+    }
+
+
+    /**
+     * Parses chunks and emits values while there is demand and requests the
+     * next chunk when the current one is consumed. Events arriving meanwhile
+     * (also from within onNext of the downstream subscriber) are handled by
+     * the same loop, so downstream is never called concurrently or
+     * recursively.
+     */
+
+    private void drain()
+    {
+        int missed;
+
+        if (this.work.getAndIncrement() != 0) return;
+        missed = 1;
+        for (;;)
+        {
+            if (this.downstream != null && !this.done) emit();
+            missed = this.work.addAndGet(-missed);
+            if (missed == 0) return;
+        }
+    }
+
+
+    /**
+     * Emits the values which are requested and available. Only called by
+     * the drain loop.
+     */
+
+    private void emit()
+    {
+        Flow.Subscriber<? super Mixed> subscriber;
+        Flow.Subscription subscription;
+        Throwable failure;
+        State state;
+        Mixed value;
+
+        subscriber = this.downstream;
+        for (;;)
+        {
+            failure = this.error;
+            if (failure != null)
+            {
+                terminate(failure instanceof IllegalArgumentException);
+                subscriber.onError(failure);
+                return;
+            }
+            if (this.current == null)
+            {
+                this.current = this.incoming;
+                this.incoming = null;
+            }
+            if (this.current != null && !this.current.hasRemaining())
+            {
+                if (this.pool != null) this.pool.release(this.current);
+                this.current = null;
+                continue;
+            }
+            if (this.current == null)
+            {
+                if (this.upstreamDone && this.incoming == null)
+                {
+                    terminate(false);
+                    if (this.partial)
+                    {
+                        subscriber.onError(new UnserializeException(
+                            "Unexepected end of data."));
+                    }
+                    else
+                    {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                subscription = this.upstream;
+                if (this.demand.get() > 0 && subscription != null
+                    && !this.requested && !this.upstreamDone)
+                {
+                    this.requested = true;
+                    subscription.request(1);
+                    if (this.incoming != null) continue;
+                }
+                return;
+            }
+            if (this.demand.get() == 0) return;
+            try
+            {
+                state = this.unserializer.feed(this.current);
+            }
+            catch (final RuntimeException e)
+            {
+                terminate(true);
+                subscriber.onError(e);
+                return;
+            }
+            this.partial = state != State.COMPLETE;
+            if (state == State.NEED_MORE) continue;
+
+            // The end of a top-level array emitted entry by entry has no value
+            if (state == State.COMPLETE && this.unserializer.isSplit()) continue;
+
+            // Flow does not allow null items, so NULL is emitted as a Mixed
+            value = this.unserializer.getValue();
+            if (value == null) value = new Mixed((Object) null);
+            this.demand.decrementAndGet();
+            subscriber.onNext(value);
+            if (this.done) return;
+        }
+    }
+
+
+    /**
+     * Marks the processor as terminated and releases the current chunk.
+     *
+     * @param cancelUpstream
+     *            If the upstream subscription is cancelled
+     */
+
+    private void terminate(final boolean cancelUpstream)
+    {
+        Flow.Subscription subscription;
+
+        this.done = true;
+        this.current = null;
+        this.incoming = null;
+        subscription = this.upstream;
+        if (cancelUpstream && subscription != null) subscription.cancel();
+    }
+}
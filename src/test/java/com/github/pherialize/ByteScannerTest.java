@@ -0,0 +1,71 @@
+package com.github.pherialize;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Tests the ByteScanner class
+ *
+ * @version $Revision$
+ */
+
+public class ByteScannerTest extends TestCase
+{
+    /**
+     * Returns the test suite.
+     *
+     * @return The test suite
+     */
+
+    public static Test suite()
+    {
+        return new TestSuite(ByteScannerTest.class);
+    }
+
+
+    /**
+     * Compares the word-wise scanning with byte-wise scanning on random
+     * data.
+     */
+
+    public void testRandom()
+    {
+        Random random;
+        byte[] data;
+        int from, to, expected;
+
+        random = new Random(42);
+        data = new byte[100];
+        for (int n = 0; n < 10000; n++)
+        {
+            for (int i = 0; i < data.length; i++)
+            {
+                // Mostly digits, sometimes other bytes including high ones
+                data[i] = (byte) (random.nextInt(16) == 0 ? random.nextInt(256)
+                    : '0' + random.nextInt(10));
+            }
+            from = random.nextInt(data.length);
+            to = from + random.nextInt(data.length - from + 1);
+
+            data[Math.min(from + random.nextInt(40), data.length - 1)] = ';';
+            expected = -1;
+            for (int i = from; i < to && expected < 0; i++)
+            {
+                if (data[i] == ';') expected = i;
+            }
+            assertEquals(expected, new ByteScanner(data).indexOf((byte) ';',
+                from, to));
+
+            expected = to;
+            for (int i = from; i < to && expected == to; i++)
+            {
+                if (data[i] < '0' || data[i] > '9') expected = i;
+            }
+            assertEquals(expected, new ByteScanner(data).skipDigits(from, to));
+        }
+    }
+}
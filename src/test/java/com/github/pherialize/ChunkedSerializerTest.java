@@ -0,0 +1,176 @@
+package com.github.pherialize;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.pherialize.IncrementalUnserializer.State;
+import com.github.pherialize.exceptions.SerializeException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Tests the ChunkedSerializer class
+ *
+ * @version $Revision$
+ */
+
+public class ChunkedSerializerTest extends TestCase
+{
+    /** The charset used in the tests */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+    /**
+     * Returns the test suite.
+     *
+     * @return The test suite
+     */
+
+    public static Test suite()
+    {
+        return new TestSuite(ChunkedSerializerTest.class);
+    }
+
+
+    /**
+     * Reads all chunks of the specified serializer with a small chunk
+     * buffer.
+     *
+     * @param serializer
+     *            The chunked serializer
+     * @return The serialized data
+     */
+
+    private static byte[] readAll(final ChunkedSerializer serializer)
+    {
+        ByteArrayOutputStream stream;
+        ByteBuffer chunk;
+
+        stream = new ByteArrayOutputStream();
+        chunk = ByteBuffer.allocate(7);
+        while (serializer.read(chunk) >= 0)
+        {
+            chunk.flip();
+            stream.write(chunk.array(), 0, chunk.limit());
+            chunk.clear();
+        }
+        return stream.toByteArray();
+    }
+
+
+    /**
+     * Tests that chunked serialization produces the same data as normal
+     * serialization.
+     */
+
+    public void testRead()
+    {
+        List<Object> list, shared;
+        Serializer serializer;
+
+        shared = Arrays.asList((Object) "König", 2);
+        list = new ArrayList<Object>();
+        list.add(shared);
+        list.add(1.5);
+        list.add(null);
+        list.add(shared);
+        serializer = new Serializer();
+        serializer.setReferences(false);
+        assertEquals(serializer.serialize(list), new String(
+            readAll(new ChunkedSerializer(new Serializer(), list)), UTF8));
+        assertEquals("a:0:{}", new String(readAll(new ChunkedSerializer(
+            new Serializer(), new ArrayList<Object>())), UTF8));
+    }
+
+
+    /**
+     * Tests that streaming arrays and objects does not remember them for
+     * references, so memory does not grow with the number of elements.
+     */
+
+    public void testBoundedHistory()
+    {
+        Serializer serializer;
+        List<Object> list;
+        ChunkedSerializer chunked;
+        ByteBuffer chunk;
+
+        list = new ArrayList<Object>();
+        for (int i = 0; i < 10000; i++)
+            list.add(Arrays.asList(i, new Person("Arthur Dent", i, true, null)));
+        serializer = new Serializer();
+        chunked = new ChunkedSerializer(serializer, list);
+        chunk = ByteBuffer.allocate(64);
+        while (chunked.read(chunk) >= 0)
+        {
+            assertEquals(0, serializer.getHistorySize());
+            chunk.clear();
+        }
+    }
+
+
+    /**
+     * Tests that the iterator must return the announced number of elements.
+     */
+
+    public void testWrongSize()
+    {
+        try
+        {
+            readAll(new ChunkedSerializer(new Serializer(), Arrays.asList(1, 2)
+                .iterator(), 3));
+            fail("Missing element not detected");
+        }
+        catch (SerializeException e)
+        {
+            // Expected
+        }
+    }
+
+
+    /**
+     * Tests streaming a list from the chunked serializer into the
+     * incremental unserializer entry by entry.
+     */
+
+    public void testStreamEntries()
+    {
+        ChunkedSerializer serializer;
+        IncrementalUnserializer unserializer;
+        ByteBuffer chunk;
+        List<String> received;
+        State state;
+
+        serializer = new ChunkedSerializer(new Serializer(), Arrays.asList(
+            "a", "bb", "ccc"));
+        unserializer = new IncrementalUnserializer(UTF8);
+        unserializer.setEntries(true);
+        received = new ArrayList<String>();
+        chunk = ByteBuffer.allocate(5);
+        state = State.NEED_MORE;
+        while (serializer.read(chunk) >= 0)
+        {
+            chunk.flip();
+            while (chunk.hasRemaining())
+            {
+                state = unserializer.feed(chunk);
+                if (state == State.ENTRY)
+                {
+                    assertEquals(received.size(), unserializer.getKey().toInt());
+                    received.add(unserializer.getValue().toString());
+                }
+            }
+            chunk.clear();
+        }
+        assertEquals(State.COMPLETE, state);
+        assertNull(unserializer.getValue());
+        assertEquals(Arrays.asList("a", "bb", "ccc"), received);
+    }
+}
@@ -0,0 +1,227 @@
+package com.github.pherialize;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Guards the heap footprint of unserialized data. Each test unserializes a
+ * reference payload several times, measures the retained heap per element
+ * with the memory MX bean and fails when it exceeds the recorded budget.
+ * The budgets leave some headroom over the measured sizes (on a 64 bit JVM
+ * with compressed oops) and should be lowered when the data model gets
+ * smaller.
+ *
+ * @version $Revision$
+ */
+
+public class FootprintTest extends TestCase
+{
+    /** The charset used in the tests */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The number of elements of the reference payloads */
+    private static final int ELEMENTS = 10000;
+
+    /** The number of copies retained during a measurement */
+    private static final int COPIES = 10;
+
+    /** The budget in bytes per element of a list of integers */
+    private static final int INTEGER_LIST_BUDGET = 140;
+
+    /** The budget in bytes per element of a list of strings */
+    private static final int STRING_LIST_BUDGET = 190;
+
+    /** The budget in bytes per entry of a map with string keys */
+    private static final int STRING_MAP_BUDGET = 230;
+
+    /** The budget in bytes per value of a list of records */
+    private static final int RECORD_LIST_BUDGET = 170;
+
+    /** The memory bean used to measure the used heap */
+    private static final MemoryMXBean MEMORY = ManagementFactory
+        .getMemoryMXBean();
+
+
+    /**
+     * Returns the test suite.
+     *
+     * @return The test suite
+     */
+
+    public static Test suite()
+    {
+        return new TestSuite(FootprintTest.class);
+    }
+
+
+    /**
+     * Returns the used heap after collecting the garbage.
+     *
+     * @return The used heap in bytes
+     */
+
+    private static long usedHeap()
+    {
+        long used, previous;
+
+        used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++)
+        {
+            previous = used;
+            System.gc();
+            used = MEMORY.getHeapMemoryUsage().getUsed();
+            if (used >= previous) break;
+        }
+        return used;
+    }
+
+
+    /**
+     * Measures the retained heap of the unserialized data per element. The
+     * smallest result of several measurements is used so garbage of other
+     * threads does not fail the test.
+     *
+     * @param data
+     *            The serialized data
+     * @param elements
+     *            The number of elements in the data
+     * @return The retained bytes per element
+     */
+
+    private static long measure(final byte[] data, final int elements)
+    {
+        Mixed[] copies;
+        long before, after, result;
+
+        result = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++)
+        {
+            copies = new Mixed[COPIES];
+            before = usedHeap();
+            for (int i = 0; i < COPIES; i++)
+            {
+                copies[i] = new Unserializer(data, UTF8).unserializeObject();
+            }
+            after = usedHeap();
+            for (int i = 0; i < COPIES; i++)
+            {
+                assertNotNull(copies[i]);
+            }
+            result = Math.min(result, (after - before) / COPIES / elements);
+        }
+        return result;
+    }
+
+
+    /**
+     * Asserts that the retained heap of the unserialized data is within the
+     * budget.
+     *
+     * @param name
+     *            The name of the payload
+     * @param value
+     *            The value to serialize
+     * @param elements
+     *            The number of elements in the value
+     * @param budget
+     *            The budget in bytes per element
+     */
+
+    private static void assertFootprint(final String name, final Object value,
+        final int elements, final int budget)
+    {
+        long bytes;
+
+        bytes = measure(new Serializer(UTF8).serializeToBytes(value), elements);
+        assertTrue(name + " uses " + bytes + " bytes per element, budget is "
+            + budget, bytes <= budget);
+    }
+
+
+    /**
+     * Tests the footprint of a list of integers (outside of the cached
+     * range).
+     */
+
+    public void testIntegerList()
+    {
+        List<Object> list;
+
+        list = new ArrayList<Object>(ELEMENTS);
+        for (int i = 0; i < ELEMENTS; i++)
+        {
+            list.add(100000 + i * 7);
+        }
+        assertFootprint("Integer list", list, ELEMENTS, INTEGER_LIST_BUDGET);
+    }
+
+
+    /**
+     * Tests the footprint of a list of distinct strings.
+     */
+
+    public void testStringList()
+    {
+        List<Object> list;
+
+        list = new ArrayList<Object>(ELEMENTS);
+        for (int i = 0; i < ELEMENTS; i++)
+        {
+            list.add("string-" + i);
+        }
+        assertFootprint("String list", list, ELEMENTS, STRING_LIST_BUDGET);
+    }
+
+
+    /**
+     * Tests the footprint of a map with string keys and string values.
+     */
+
+    public void testStringMap()
+    {
+        Map<Object, Object> map;
+
+        map = new LinkedHashMap<Object, Object>();
+        for (int i = 0; i < ELEMENTS; i++)
+        {
+            map.put("key-" + i, "value-" + i);
+        }
+        assertFootprint("String map", map, ELEMENTS, STRING_MAP_BUDGET);
+    }
+
+
+    /**
+     * Tests the footprint of a list of records (arrays with the same string
+     * keys and mixed values).
+     */
+
+    public void testRecordList()
+    {
+        List<Object> list;
+        Map<String, Object> record;
+
+        list = new ArrayList<Object>(ELEMENTS / 5);
+        for (int i = 0; i < ELEMENTS / 5; i++)
+        {
+            record = new HashMap<String, Object>();
+            record.put("name", "name-" + i);
+            record.put("age", i % 100);
+            record.put("score", i * 0.5);
+            record.put("active", i % 2 == 0);
+            record.put("email", "user" + i + "@example.com");
+            list.add(record);
+        }
+        assertFootprint("Record list", list, ELEMENTS, RECORD_LIST_BUDGET);
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.pherialize;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.github.pherialize.IncrementalUnserializer.State;
+import com.github.pherialize.exceptions.UnserializeException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Tests the IncrementalUnserializer class
+ *
+ * @version $Revision$
+ */
+
+public class IncrementalUnserializerTest extends TestCase
+{
+    /** The charset used in the tests */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+    /**
+     * Returns the test suite.
+     *
+     * @return The test suite
+     */
+
+    public static Test suite()
+    {
+        return new TestSuite(IncrementalUnserializerTest.class);
+    }
+
+
+    /**
+     * Tests feeding a value byte by byte, so every string and number is
+     * split.
+     */
+
+    public void testFeedSingleBytes()
+    {
+        IncrementalUnserializer unserializer;
+        byte[] data;
+        MixedArray array;
+
+        data = "a:3:{s:4:\"name\";s:6:\"König\";i:0;a:0:{}i:1;O:8:\"stdClass\":1:{s:1:\"a\";d:0.5;}}"
+            .getBytes(UTF8);
+        unserializer = new IncrementalUnserializer(UTF8);
+        for (int i = 0; i < data.length - 1; i++)
+        {
+            assertEquals(State.NEED_MORE,
+                unserializer.feed(ByteBuffer.wrap(data, i, 1)));
+        }
+        assertEquals(State.COMPLETE, unserializer.feed(ByteBuffer.wrap(data,
+            data.length - 1, 1)));
+        array = unserializer.getValue().toArray();
+        assertEquals("König", array.getString("name"));
+        assertEquals(0, array.getArray(0).size());
+        assertEquals(0.5, array.getArray(1).getDouble("a"), 0);
+    }
+
+
+    /**
+     * Tests multiple values in one buffer.
+     */
+
+    public void testFeedMultipleValues()
+    {
+        IncrementalUnserializer unserializer;
+        ByteBuffer buffer;
+
+        buffer = ByteBuffer.allocateDirect(64);
+        buffer.put("i:1;s:2:\"ab\";N;b:".getBytes(UTF8));
+        buffer.flip();
+        unserializer = new IncrementalUnserializer(UTF8);
+        assertEquals(State.COMPLETE, unserializer.feed(buffer));
+        assertEquals(1, unserializer.getValue().toInt());
+        assertEquals(State.COMPLETE, unserializer.feed(buffer));
+        assertEquals("ab", unserializer.getValue().toString());
+        assertEquals(State.COMPLETE, unserializer.feed(buffer));
+        assertNull(unserializer.getValue());
+        assertEquals(State.NEED_MORE, unserializer.feed(buffer));
+        assertFalse(buffer.hasRemaining());
+        assertEquals(State.COMPLETE, unserializer.feed(ByteBuffer.wrap("1;"
+            .getBytes(UTF8))));
+        assertTrue(unserializer.getValue().toBoolean());
+    }
+
+
+    /**
+     * Tests the limits.
+     */
+
+    public void testLimits()
+    {
+        IncrementalUnserializer unserializer;
+
+        unserializer = new IncrementalUnserializer(UTF8);
+        unserializer.setMaxLength(10);
+        try
+        {
+            unserializer.feed(ByteBuffer.wrap("s:20:\"01234567890123456789\";"
+                .getBytes(UTF8)));
+            fail("Maximum length not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
+
+        unserializer = new IncrementalUnserializer(UTF8);
+        unserializer.setMaxDepth(1);
+        try
+        {
+            unserializer.feed(ByteBuffer.wrap("a:1:{i:0;a:0:{}}".getBytes(UTF8)));
+            fail("Maximum depth not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
+    }
+}
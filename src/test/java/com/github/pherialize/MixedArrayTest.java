@@ -23,6 +23,7 @@
 
 package com.github.pherialize;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import com.github.pherialize.Mixed;
@@ -135,4 +136,20 @@ public class MixedArrayTest extends TestCase
         this.map.remove(new Mixed("3"));
         assertEquals(2, this.map.size());
     }
+
+
+    /**
+     * Tests converting the values into primitive arrays
+     */
+
+    public void testToPrimitiveArrays()
+    {
+        MixedArray array;
+
+        array = new MixedArray(Arrays.asList(new Object[] { 1, "2", 3.5 }));
+        assertTrue(Arrays.equals(new int[] { 1, 2, 3 }, array.toIntArray()));
+        assertTrue(Arrays.equals(new long[] { 1, 2, 3 }, array.toLongArray()));
+        assertTrue(Arrays.equals(new double[] { 1, 2, 3.5 },
+            array.toDoubleArray()));
+    }
 }
@@ -31,6 +31,7 @@ import java.util.Map;
 import com.github.pherialize.Mixed;
 import com.github.pherialize.MixedArray;
 import com.github.pherialize.Pherialize;
+import com.github.pherialize.PhpBytes;
 import com.github.pherialize.test.EnumClass;
 
 import junit.framework.Test;
@@ -547,6 +548,54 @@ public class MixedTest extends TestCase
     }
     
     
+    /**
+     * Tests converting numeric strings with the PHP numeric string rules.
+     */
+
+    public void testNumericString()
+    {
+        assertEquals(42, new Mixed("42").toInt());
+        assertEquals(-42, new Mixed("-42").toInt());
+        assertEquals(42, new Mixed("  42").toInt());
+        assertEquals(12, new Mixed("12abc").toInt());
+        assertEquals(12, new Mixed("12.9").toInt());
+        assertEquals(1000, new Mixed("1e3").toInt());
+        assertEquals(12, new Mixed("12e").toInt());
+        assertEquals(0, new Mixed("abc").toInt());
+        assertEquals(0, new Mixed("").toInt());
+        assertEquals(9007199254740993L, new Mixed("9007199254740993").toLong());
+        assertEquals(Long.MAX_VALUE, new Mixed("99999999999999999999").toLong());
+        assertEquals(12.5, new Mixed("12.5kg").toDouble(), 0);
+        assertEquals(-0.5, new Mixed("-.5").toDouble(), 0);
+        assertEquals(1500, new Mixed("1.5E+3").toDouble(), 0);
+        assertEquals(12.5f, new Mixed("12.5").toFloat(), 0);
+        assertEquals(12, new Mixed(12.34).toType(Mixed.TYPE_INT));
+        assertEquals(Double.valueOf(12.34),
+            new Mixed((float) 12.34).toType(Mixed.TYPE_DOUBLE));
+    }
+
+
+    /**
+     * Tests the shared instances returned by the valueOf methods.
+     */
+
+    public void testValueOf()
+    {
+        assertSame(Mixed.valueOf(0), Mixed.valueOf(0));
+        assertSame(Mixed.valueOf(-128), Mixed.valueOf(Integer.valueOf(-128)));
+        assertSame(Mixed.valueOf(1023), Mixed.valueOf(1023));
+        assertNotSame(Mixed.valueOf(100000), Mixed.valueOf(100000));
+        assertEquals(new Mixed(100000), Mixed.valueOf(100000));
+        assertSame(Mixed.valueOf(true), Mixed.valueOf(Boolean.TRUE));
+        assertFalse(Mixed.valueOf(false).toBoolean());
+        assertSame(Mixed.valueOf(""), Mixed.valueOf((Object) ""));
+        assertEquals(Mixed.TYPE_STRING, Mixed.valueOf("").getType());
+        assertSame(Pherialize.unserialize("i:1;"), Mixed.valueOf(1));
+        assertSame(Pherialize.unserialize("b:1;"), Mixed.valueOf(true));
+        assertSame(Pherialize.unserialize("s:0:\"\";"), Mixed.valueOf(""));
+    }
+
+
     /**
      * Test equals method
      */
@@ -564,6 +613,24 @@ public class MixedTest extends TestCase
     }
 
 
+    /**
+     * Tests comparing raw strings with strings
+     */
+
+    public void testCompareRawStrings()
+    {
+        Mixed raw;
+
+        raw = new Mixed(PhpBytes.wrap(new byte[] { 'b' }));
+        assertEquals(0, raw.compareTo(new Mixed("b")));
+        assertEquals(0, new Mixed("b").compareTo(raw));
+        assertTrue(raw.compareTo(new Mixed("a")) > 0);
+        assertTrue(raw.compareTo("c") < 0);
+        assertTrue(new Mixed("c").compareTo(raw) > 0);
+        assertTrue(raw.compareTo(new Mixed(PhpBytes.wrap(new byte[] { 'c' }))) < 0);
+    }
+
+
     /**
      * Tests a ennum as a mixed value.
      */
@@ -0,0 +1,154 @@
+package com.github.pherialize;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.github.pherialize.exceptions.UnserializeException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Tests the ParallelUnserializer class
+ *
+ * @version $Revision$
+ */
+
+public class ParallelUnserializerTest extends TestCase
+{
+    /** The charset used in the tests */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The executor used in the tests */
+    private ExecutorService executor;
+
+
+    /**
+     * Returns the test suite.
+     *
+     * @return The test suite
+     */
+
+    public static Test suite()
+    {
+        return new TestSuite(ParallelUnserializerTest.class);
+    }
+
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+
+    @Override
+    protected void setUp()
+    {
+        this.executor = Executors.newFixedThreadPool(4);
+    }
+
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+
+    @Override
+    protected void tearDown()
+    {
+        this.executor.shutdown();
+    }
+
+
+    /**
+     * Tests that parallel unserializing returns the same result as the
+     * normal unserializer, including references across task boundaries.
+     */
+
+    public void testUnserialize()
+    {
+        List<Object> list;
+        Map<String, Object> shared;
+        byte[] data;
+        ParallelUnserializer unserializer;
+        MixedArray array;
+
+        shared = new HashMap<String, Object>();
+        shared.put("name", "König");
+        shared.put("values", new double[] { 1.5, 2 });
+        list = new ArrayList<Object>();
+        for (int i = 0; i < 1000; i++)
+        {
+            list.add(i % 10 == 0 ? shared : "Entry " + i);
+            list.add(i);
+            list.add(null);
+        }
+        data = new Serializer(UTF8).serializeToBytes(list);
+
+        unserializer = new ParallelUnserializer(data, UTF8);
+        unserializer.setMinTaskSize(100);
+        array = unserializer.unserialize(this.executor).toArray();
+        assertEquals(new Unserializer(data, UTF8).unserializeObject(),
+            new Mixed(array));
+        assertEquals(3000, array.size());
+        assertEquals("König", array.getArray(0).getString("name"));
+        assertSame(array.get(0), array.get(2970));
+        assertEquals("Entry 1", array.getString(3));
+        assertEquals(999, array.getInt(2998));
+    }
+
+
+    /**
+     * Tests other data than top-level arrays and invalid data.
+     */
+
+    public void testOtherData()
+    {
+        assertEquals("test", new ParallelUnserializer("s:4:\"test\";"
+            .getBytes(UTF8), UTF8).unserialize(this.executor).toString());
+        try
+        {
+            new ParallelUnserializer("a:2:{i:0;i:1;}".getBytes(UTF8), UTF8)
+                .unserialize(this.executor);
+            fail("Invalid data not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
+    }
+
+
+    /**
+     * Tests that malformed entries are reported by the scan.
+     */
+
+    public void testMalformedData()
+    {
+        ParallelUnserializer unserializer;
+
+        for (String invalid : new String[] {
+            "a:2:{i:0;s:2147483647:\"x\";i:1;i:1;}",
+            "a:2:{i:0;s:2147483646:\"x\";i:1;i:1;}",
+            "a:2:{i:0;Nx;i:1;i:1;}",
+            "a:2:{i:0;ix1;i:1;i:1;}",
+            "a:2:{i:0;N", "a:2:{i:0;s" })
+        {
+            unserializer = new ParallelUnserializer(invalid.getBytes(UTF8), UTF8);
+            unserializer.setMinTaskSize(1);
+            try
+            {
+                unserializer.unserialize(this.executor);
+                fail("Invalid data not detected: " + invalid);
+            }
+            catch (UnserializeException e)
+            {
+                // Expected
+            }
+        }
+    }
+}
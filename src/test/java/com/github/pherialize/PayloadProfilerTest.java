@@ -0,0 +1,168 @@
+package com.github.pherialize;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import com.github.pherialize.PayloadProfiler.Cost;
+import com.github.pherialize.exceptions.UnserializeException;
+import com.github.pherialize.io.InputStreamSource;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Tests the PayloadProfiler class
+ *
+ * @version $Revision$
+ */
+
+public class PayloadProfilerTest extends TestCase
+{
+    /** The charset used in the tests */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The test payload */
+    private static final String PAYLOAD = "a:2:{s:4:\"user\";"
+        + "O:4:\"User\":2:{s:4:\"name\";s:3:\"Bob\";s:6:\"\0*\0age\";i:5;}"
+        + "s:4:\"cart\";a:2:{i:0;s:1:\"x\";i:1;s:1:\"y\";}}";
+
+
+    /**
+     * Returns the test suite.
+     *
+     * @return The test suite
+     */
+
+    public static Test suite()
+    {
+        return new TestSuite(PayloadProfilerTest.class);
+    }
+
+
+    /**
+     * Returns the cost with the specified name.
+     *
+     * @param costs
+     *            The costs
+     * @param name
+     *            The name
+     * @return The cost
+     */
+
+    private static Cost find(final List<Cost> costs, final String name)
+    {
+        for (final Cost cost : costs)
+        {
+            if (cost.getName().equals(name)) return cost;
+        }
+        fail("No cost for " + name);
+        return null;
+    }
+
+
+    /**
+     * Asserts the values of a cost.
+     *
+     * @param cost
+     *            The cost
+     * @param count
+     *            The expected number of occurrences
+     * @param bytes
+     *            The expected number of bytes
+     * @param elements
+     *            The expected number of values
+     */
+
+    private static void assertCost(final Cost cost, final long count,
+        final long bytes, final long elements)
+    {
+        assertEquals(cost.getName() + " count", count, cost.getCount());
+        assertEquals(cost.getName() + " bytes", bytes, cost.getBytes());
+        assertEquals(cost.getName() + " elements", elements, cost.getElements());
+    }
+
+
+    /**
+     * Tests aggregating the costs of keys and classes over two payloads read
+     * from different sources.
+     */
+
+    public void testAnalyze()
+    {
+        PayloadProfiler profiler;
+        List<Cost> keys;
+        int user, cart, object;
+
+        profiler = new PayloadProfiler(UTF8);
+        profiler.analyze(PAYLOAD.getBytes(UTF8));
+        profiler.analyze(new InputStreamSource(new ByteArrayInputStream(
+            PAYLOAD.getBytes(UTF8))));
+
+        user = PAYLOAD.indexOf("s:4:\"user\"");
+        object = PAYLOAD.indexOf("O:");
+        cart = PAYLOAD.indexOf("s:4:\"cart\"");
+        assertEquals(2, profiler.getPayloads());
+        assertEquals(2 * PAYLOAD.length(), profiler.getBytes());
+        assertEquals(2 * 7, profiler.getValues());
+
+        keys = profiler.getKeys();
+        assertEquals(5, keys.size());
+        assertEquals("user", keys.get(0).getName());
+        assertCost(find(keys, "user"), 2, 2 * (cart - user), 2 * 3);
+        assertCost(find(keys, "user.name"), 2, 2 * 21, 2);
+        assertCost(find(keys, "user.age"), 2, 2 * 17, 2);
+        assertCost(find(keys, "cart"), 2, 2 * (PAYLOAD.length() - 1 - cart), 2 * 3);
+        assertCost(find(keys, "cart.[]"), 4, 4 * 12, 4);
+        assertCost(find(profiler.getClasses(), "User"), 2, 2 * (cart - object), 2 * 3);
+
+        profiler.reset();
+        assertEquals(0, profiler.getPayloads());
+        assertTrue(profiler.getKeys().isEmpty());
+    }
+
+
+    /**
+     * Tests that the number of tracked keys is bounded.
+     */
+
+    public void testCapacity()
+    {
+        PayloadProfiler profiler;
+        StringBuilder builder;
+        List<Cost> keys;
+
+        builder = new StringBuilder("a:100:{");
+        for (int i = 0; i < 100; i++)
+        {
+            builder.append("s:4:\"k").append(i < 10 ? "00" : "0").append(i % 100)
+                .append("\";N;");
+        }
+        builder.append('}');
+        profiler = new PayloadProfiler(UTF8, 10);
+        profiler.analyze(builder.toString().getBytes(UTF8));
+        keys = profiler.getKeys();
+        assertEquals(10, keys.size());
+        assertCost(find(keys, PayloadProfiler.OTHER), 91, 91 * 13, 91);
+    }
+
+
+    /**
+     * Tests that invalid payloads are rejected.
+     */
+
+    public void testInvalid()
+    {
+        try
+        {
+            new PayloadProfiler(UTF8).analyze("a:1:{i:0;x:1;}".getBytes(UTF8));
+            fail("Invalid data not detected");
+        }
+        catch (final UnserializeException e)
+        {
+            // Expected
+        }
+    }
+}
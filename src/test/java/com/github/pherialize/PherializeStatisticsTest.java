@@ -0,0 +1,134 @@
+package com.github.pherialize;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.github.pherialize.exceptions.UnserializeException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Tests the PherializeStatistics class
+ *
+ * @version $Revision$
+ */
+
+public class PherializeStatisticsTest extends TestCase
+{
+    /** The charset used in the tests */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+    /**
+     * Returns the test suite.
+     *
+     * @return The test suite
+     */
+
+    public static Test suite()
+    {
+        return new TestSuite(PherializeStatisticsTest.class);
+    }
+
+
+    /**
+     * Tests the buckets and percentiles of the histogram.
+     */
+
+    public void testHistogram()
+    {
+        Histogram histogram;
+
+        for (long value = 0; value < 100000; value += 7)
+        {
+            assertTrue(Histogram.getUpperBound(Histogram.getBucket(value)) >= value);
+            assertTrue(Histogram.getUpperBound(Histogram.getBucket(value)) < value * 1.125 + 1);
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.getUpperBound(Histogram.getBucket(Long.MAX_VALUE)));
+
+        histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 1; i <= 1000; i++)
+        {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getTotal());
+        assertTrue(Math.abs(histogram.getPercentile(50) - 500) < 500 * 0.125);
+        assertTrue(Math.abs(histogram.getPercentile(99) - 990) < 990 * 0.125);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+
+    /**
+     * Tests aggregating the metrics of multiple calls and reading them
+     * through JMX.
+     */
+
+    public void testStatistics() throws Exception
+    {
+        PherializeStatistics statistics;
+        Serializer serializer;
+        Unserializer unserializer;
+        MBeanServer server;
+        ObjectName name;
+        byte[] data;
+
+        statistics = new PherializeStatistics();
+        serializer = new Serializer(UTF8);
+        serializer.setMetrics(statistics);
+        data = serializer.serializeToBytes(Arrays.asList("key", "key", "key"));
+        serializer.serializeToBytes(Arrays.asList(1, 2));
+        for (int i = 0; i < 3; i++)
+        {
+            unserializer = new Unserializer(data, UTF8);
+            unserializer.setMetrics(statistics);
+            unserializer.unserializeObject();
+        }
+        unserializer = new Unserializer("a:1:{i:0;x:1;}", UTF8);
+        unserializer.setMetrics(statistics);
+        try
+        {
+            unserializer.unserializeObject();
+            fail("Invalid data not detected");
+        }
+        catch (final UnserializeException e)
+        {
+            // Expected
+        }
+
+        assertEquals(2, statistics.getSerializeCount());
+        assertEquals(0, statistics.getSerializeErrors());
+        assertEquals(data.length + 22, statistics.getSerializedBytes());
+        assertEquals(4, statistics.getUnserializeCount());
+        assertEquals(1, statistics.getUnserializeErrors());
+        assertEquals(3 * data.length + 10, statistics.getUnserializedBytes());
+        assertEquals(6, statistics.getInternHits());
+        assertEquals(3, statistics.getInternMisses());
+        assertTrue(statistics.getUnserializeLatencyP99() > 0);
+
+        server = ManagementFactory.getPlatformMBeanServer();
+        name = new ObjectName(PherializeStatistics.DOMAIN
+            + ":type=Statistics,name=\"test\"");
+        statistics.register("test");
+        try
+        {
+            assertEquals(Long.valueOf(4), server.getAttribute(name, "UnserializeCount"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(Long.valueOf(0), server.getAttribute(name, "UnserializeCount"));
+        }
+        finally
+        {
+            statistics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -23,12 +23,17 @@
 
 package com.github.pherialize;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.github.pherialize.Pherialize;
+import com.github.pherialize.exceptions.SerializeException;
 import com.github.pherialize.test.CustomClass;
 
 import junit.framework.Test;
@@ -97,6 +102,30 @@ public class SerializerTest extends TestCase
     }
 
 
+    /**
+     * Tests serializing a non-ASCII character
+     */
+
+    public void testSerializeUnicodeCharacter()
+    {
+        assertEquals("s:2:\"ä\";", Pherialize.serialize(Character.valueOf('ä')));
+    }
+
+
+    /**
+     * Tests serializing into bytes
+     */
+
+    public void testSerializeToBytes() throws Exception
+    {
+        Serializer serializer;
+
+        serializer = new Serializer(Charset.forName("ISO-8859-1"));
+        assertTrue(Arrays.equals(new byte[] { 's', ':', '1', ':', '"',
+            (byte) 0xe4, '"', ';' }, serializer.serializeToBytes("ä")));
+    }
+
+
     /**
      * Tests serializing an integer value.
      */
@@ -152,9 +181,9 @@ public class SerializerTest extends TestCase
             .valueOf(2147483647)));
         assertEquals("i:-2147483648;", Pherialize.serialize(Long
             .valueOf(-2147483648)));
-        assertEquals("d:2147483648;", Pherialize.serialize(Long
+        assertEquals("i:2147483648;", Pherialize.serialize(Long
             .valueOf(2147483648L)));
-        assertEquals("d:-2147483649;", Pherialize.serialize(Long
+        assertEquals("i:-2147483649;", Pherialize.serialize(Long
             .valueOf(-2147483649L)));
     }
 
@@ -165,11 +194,32 @@ public class SerializerTest extends TestCase
 
     public void testSerializeDouble()
     {
-        assertEquals("d:0.0;", Pherialize.serialize(Double.valueOf(0)));
-        assertEquals("d:-1.0;", Pherialize.serialize(Double.valueOf(-1)));
+        assertEquals("d:0;", Pherialize.serialize(Double.valueOf(0)));
+        assertEquals("d:-0;", Pherialize.serialize(Double.valueOf(-0.0)));
+        assertEquals("d:-1;", Pherialize.serialize(Double.valueOf(-1)));
         assertEquals("d:-10.1;", Pherialize.serialize(Double.valueOf(-10.1)));
         assertEquals("d:545.159122;", Pherialize.serialize(Double
             .valueOf(545.159122)));
+        assertEquals("d:0.1;", Pherialize.serialize(Double.valueOf(0.1)));
+        assertEquals("d:0.30000000000000004;", Pherialize.serialize(Double
+            .valueOf(0.1 + 0.2)));
+        assertEquals("d:0.0001;", Pherialize.serialize(Double.valueOf(0.0001)));
+        assertEquals("d:1.0E-5;", Pherialize.serialize(Double.valueOf(0.00001)));
+        assertEquals("d:1.5E-7;", Pherialize.serialize(Double.valueOf(1.5e-7)));
+        assertEquals("d:10000000000000000;", Pherialize.serialize(Double
+            .valueOf(1e16)));
+        assertEquals("d:1.0E+17;", Pherialize.serialize(Double.valueOf(1e17)));
+        assertEquals("d:1.2345E+25;", Pherialize.serialize(Double
+            .valueOf(1.2345e25)));
+        assertEquals("d:1.7976931348623157E+308;", Pherialize.serialize(Double
+            .valueOf(Double.MAX_VALUE)));
+        assertEquals("d:4.9E-324;", Pherialize.serialize(Double
+            .valueOf(Double.MIN_VALUE)));
+        assertEquals("d:INF;", Pherialize.serialize(Double
+            .valueOf(Double.POSITIVE_INFINITY)));
+        assertEquals("d:-INF;", Pherialize.serialize(Double
+            .valueOf(Double.NEGATIVE_INFINITY)));
+        assertEquals("d:NAN;", Pherialize.serialize(Double.valueOf(Double.NaN)));
     }
 
 
@@ -179,8 +229,8 @@ public class SerializerTest extends TestCase
 
     public void testSerializeFloat()
     {
-        assertEquals("d:0.0;", Pherialize.serialize(Float.valueOf(0)));
-        assertEquals("d:-1.0;", Pherialize.serialize(Float.valueOf(-1)));
+        assertEquals("d:0;", Pherialize.serialize(Float.valueOf(0)));
+        assertEquals("d:-1;", Pherialize.serialize(Float.valueOf(-1)));
         assertEquals("d:-10.100000381469727;", Pherialize.serialize(Float
             .valueOf((float) -10.100000381469727)));
         assertEquals("d:545.1591186523438;", Pherialize.serialize(Float
@@ -418,4 +468,171 @@ public class SerializerTest extends TestCase
         s2 = Pherialize.serialize(array);
         assertEquals(s1, s2);
     }
+
+
+    /**
+     * Test serializing arrays of primitives
+     */
+
+    public void testSerializePrimitiveArrays()
+    {
+        Serializer serializer;
+        int[] ints;
+        List<Object> list;
+
+        assertEquals("a:3:{i:0;i:1;i:1;i:-2;i:2;i:3;}",
+            Pherialize.serialize(new int[] { 1, -2, 3 }));
+        assertEquals("a:2:{i:0;i:1;i:1;i:9223372036854775807;}",
+            Pherialize.serialize(new long[] { 1, Long.MAX_VALUE }));
+        assertEquals("a:2:{i:0;d:0.5;i:1;d:-1;}",
+            Pherialize.serialize(new double[] { 0.5, -1 }));
+        assertEquals("a:1:{i:0;d:0.5;}",
+            Pherialize.serialize(new float[] { 0.5f }));
+        assertEquals("a:2:{i:0;i:1;i:1;i:-1;}",
+            Pherialize.serialize(new short[] { 1, -1 }));
+        assertEquals("a:2:{i:0;b:1;i:1;b:0;}",
+            Pherialize.serialize(new boolean[] { true, false }));
+        assertEquals("a:1:{i:0;s:1:\"x\";}",
+            Pherialize.serialize(new char[] { 'x' }));
+        assertEquals("a:2:{i:0;i:65;i:1;i:-1;}",
+            Pherialize.serialize(new byte[] { 65, -1 }));
+        assertEquals("a:0:{}", Pherialize.serialize(new int[0]));
+
+        serializer = new Serializer();
+        serializer.setByteArraysAsStrings(true);
+        assertEquals("s:2:\"AB\";",
+            serializer.serialize(new byte[] { 65, 66 }));
+
+        // References after and to primitive arrays are numbered like PHP
+        ints = new int[] { 1, 2 };
+        assertEquals("a:3:{i:0;a:2:{i:0;i:1;i:1;i:2;}i:1;a:0:{}i:2;R:2;}",
+            Pherialize.serialize(new Object[] { ints, new ArrayList<Object>(), ints }));
+        list = new ArrayList<Object>();
+        assertEquals("a:3:{i:0;a:2:{i:0;i:1;i:1;i:2;}i:1;a:0:{}i:2;R:5;}",
+            Pherialize.serialize(new Object[] { ints, list, list }));
+
+        // Sibling primitive arrays don't accumulate nesting depth
+        list = new ArrayList<Object>();
+        for (int i = 0; i < 5000; i++)
+        {
+            list.add(new int[] { i });
+        }
+        assertTrue(Pherialize.serialize(list).startsWith("a:5000:{i:0;a:1:{"));
+        serializer = new Serializer();
+        serializer.setMaxDepth(2);
+        assertEquals("a:3:{i:0;a:0:{}i:1;a:0:{}i:2;a:0:{}}", serializer.serialize(
+            new Object[] { new int[0], new long[0], new double[0] }));
+    }
+
+
+    /**
+     * Test serializing without references
+     */
+
+    public void testSerializeWithoutReferences()
+    {
+        Serializer serializer;
+        List<Object> shared, cyclic;
+
+        shared = new ArrayList<Object>();
+        shared.add("x");
+        serializer = new Serializer();
+        serializer.setReferences(false);
+        assertEquals("a:2:{i:0;a:1:{i:0;s:1:\"x\";}i:1;a:1:{i:0;s:1:\"x\";}}",
+            serializer.serialize(new Object[] { shared, shared }));
+
+        cyclic = new ArrayList<Object>();
+        cyclic.add(cyclic);
+        serializer.setMaxDepth(100);
+        try
+        {
+            serializer.serialize(cyclic);
+            fail("Cycle not detected");
+        }
+        catch (SerializeException e)
+        {
+            // Expected
+        }
+
+        // The serializer is still usable after the exception
+        assertEquals("a:0:{}", serializer.serialize(new ArrayList<Object>()));
+    }
+
+
+    /**
+     * Test serializing large arrays in parallel
+     */
+
+    public void testSerializeParallel()
+    {
+        Serializer serializer;
+        List<Object> list;
+        Map<Object, Object> map;
+        ExecutorService executor;
+        String expected;
+
+        list = new ArrayList<Object>();
+        map = new LinkedHashMap<Object, Object>();
+        for (int i = 0; i < 5000; i++)
+        {
+            list.add(i % 2 == 0 ? "Entry " + i : Arrays.asList(i, 0.5));
+            map.put("key" + i, i);
+        }
+        list.add(map);
+        serializer = new Serializer();
+        serializer.setReferences(false);
+        expected = serializer.serialize(list);
+
+        executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            serializer.setParallel(executor, 100);
+            assertEquals(expected, serializer.serialize(list));
+            assertEquals(expected, serializer.serialize(list.toArray()));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+
+    /**
+     * Tests the metrics reported by the serializer.
+     */
+
+    public void testMetrics()
+    {
+        final CallMetrics[] reported;
+        Serializer serializer;
+        List<Object> list, shared;
+        String data;
+
+        reported = new CallMetrics[1];
+        shared = new ArrayList<Object>();
+        shared.add("x");
+        list = new ArrayList<Object>();
+        list.add(Arrays.asList(shared));
+        list.add(shared);
+        list.add(new CustomClass("value", null));
+        serializer = new Serializer();
+        serializer.setMetrics(new PherializeMetrics()
+        {
+            public void serialized(final CallMetrics metrics)
+            {
+                reported[0] = metrics;
+            }
+
+            public void unserialized(final CallMetrics metrics)
+            {
+                fail("Unexpected unserialize call");
+            }
+        });
+        data = serializer.serialize(list);
+        assertEquals(data.length(), reported[0].getBytes());
+        assertEquals(3, reported[0].getArrays());
+        assertEquals(1, reported[0].getObjects());
+        assertEquals(1, reported[0].getReferences());
+        assertEquals(3, reported[0].getMaxDepth());
+    }
 }
@@ -0,0 +1,114 @@
+package com.github.pherialize;
+
+import java.nio.charset.Charset;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Tests the StringInterner class
+ *
+ * @version $Revision$
+ */
+
+public class StringInternerTest extends TestCase
+{
+    /** The charset used in the tests */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+    /**
+     * Returns the test suite.
+     *
+     * @return The test suite
+     */
+
+    public static Test suite()
+    {
+        return new TestSuite(StringInternerTest.class);
+    }
+
+
+    /**
+     * Tests resolving repeated byte sequences to the same string.
+     */
+
+    public void testIntern()
+    {
+        StringInterner interner;
+        byte[] buffer;
+        String first, second;
+
+        interner = new StringInterner();
+        buffer = "xxnamexxname".getBytes(UTF8);
+        first = interner.intern(buffer, 2, 4, UTF8);
+        second = interner.intern(buffer, 8, 4, UTF8);
+        assertEquals("name", first);
+        assertSame(first, second);
+        assertEquals(1, interner.getHits());
+        assertEquals(1, interner.getMisses());
+        assertEquals(0.5, interner.getHitRate(), 0);
+
+        interner.resetStatistics();
+        assertEquals(0, interner.getHits());
+        assertEquals(0, interner.getHitRate(), 0);
+    }
+
+
+    /**
+     * Tests that long strings and other charsets are not resolved to
+     * interned strings.
+     */
+
+    public void testNoIntern()
+    {
+        StringInterner interner;
+        byte[] buffer;
+
+        interner = new StringInterner(16, 4);
+        buffer = "abcdeabcde".getBytes(UTF8);
+        assertNotSame(interner.intern(buffer, 0, 5, UTF8),
+            interner.intern(buffer, 5, 5, UTF8));
+        assertEquals(0, interner.getHits());
+
+        buffer = "Ää".getBytes(UTF8);
+        assertEquals("Ää", interner.intern(buffer, 0, 4, UTF8));
+        assertFalse("Ää".equals(interner.intern(buffer, 0, 4,
+            Charset.forName("ISO-8859-1"))));
+    }
+
+
+    /**
+     * Tests interning strings while unserializing.
+     */
+
+    public void testUnserialize()
+    {
+        Unserializer unserializer;
+        MixedArray list;
+        StringInterner shared;
+
+        unserializer = new Unserializer(
+            "a:2:{i:0;a:1:{s:4:\"name\";s:1:\"a\";}i:1;a:1:{s:4:\"name\";s:1:\"b\";}}");
+        list = unserializer.unserializeObject().toArray();
+        assertSame(list.getArray(0).keySet().iterator().next().toString(),
+            list.getArray(1).keySet().iterator().next().toString());
+        assertEquals(1, unserializer.getStringInterner().getHits());
+
+        shared = new StringInterner();
+        unserializer = new Unserializer("s:4:\"name\";");
+        unserializer.setStringInterner(shared);
+        unserializer.unserializeObject();
+        unserializer = new Unserializer("s:4:\"name\";");
+        unserializer.setStringInterner(shared);
+        unserializer.unserializeObject();
+        assertEquals(1, shared.getHits());
+
+        unserializer = new Unserializer("s:4:\"name\";");
+        unserializer.setStringInterner(null);
+        assertEquals("name", unserializer.unserializeObject().toString());
+        assertNull(unserializer.getStringInterner());
+    }
+}
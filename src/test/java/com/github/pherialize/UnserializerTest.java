@@ -23,10 +23,20 @@
 
 package com.github.pherialize;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import com.github.pherialize.Mixed;
 import com.github.pherialize.MixedArray;
 import com.github.pherialize.Pherialize;
+import com.github.pherialize.exceptions.UnserializeException;
 import com.github.pherialize.factory.DefaultObjectFactory;
+import com.github.pherialize.io.ByteArraySource;
+import com.github.pherialize.io.InputStreamSource;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -42,6 +52,10 @@ import junit.framework.TestSuite;
 
 public class UnserializerTest extends TestCase
 {
+    /** The UTF-8 charset */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
     /**
      * Returns the test suite.
      *
@@ -92,6 +106,45 @@ public class UnserializerTest extends TestCase
             .toInt());
         assertEquals(-2147483648, Pherialize.unserialize("i:-2147483648;")
             .toInt());
+        assertTrue(Pherialize.unserialize("i:2147483647;").isInt());
+    }
+
+
+    /**
+     * Tests unserializing 64 bit integers
+     */
+
+    public void testUnserializeLong()
+    {
+        Mixed mixed;
+
+        mixed = Pherialize.unserialize("i:2147483648;");
+        assertTrue(mixed.isLong());
+        assertEquals(2147483648L, mixed.toLong());
+        assertEquals(9223372036854775807L, Pherialize.unserialize(
+            "i:9223372036854775807;").toLong());
+        assertEquals(-9223372036854775808L, Pherialize.unserialize(
+            "i:-9223372036854775808;").toLong());
+        assertEquals("i:9007199254740993;", Pherialize.serialize(
+            Pherialize.unserialize("i:9007199254740993;")));
+        try
+        {
+            Pherialize.unserialize("i:9223372036854775808;");
+            fail("Overflow not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
+        try
+        {
+            Pherialize.unserialize("i:-;");
+            fail("Missing digits not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
     }
 
 
@@ -106,6 +159,28 @@ public class UnserializerTest extends TestCase
         assertEquals(-10.1, Pherialize.unserialize("d:-10.1;").toDouble(), 0);
         assertEquals(545.159122, Pherialize.unserialize("d:545.159122;")
             .toDouble(), 0);
+        assertEquals(3, Pherialize.unserialize("d:3;").toDouble(), 0);
+        assertEquals(0.5, Pherialize.unserialize("d:.5;").toDouble(), 0);
+        assertEquals(1.0E+25, Pherialize.unserialize("d:1.0E+25;").toDouble(), 0);
+        assertEquals(1.5E-7, Pherialize.unserialize("d:1.5E-7;").toDouble(), 0);
+        assertEquals(0.30000000000000004, Pherialize.unserialize(
+            "d:0.30000000000000004;").toDouble(), 0);
+        assertEquals(Double.MAX_VALUE, Pherialize.unserialize(
+            "d:1.7976931348623157E+308;").toDouble(), 0);
+        assertEquals(Double.POSITIVE_INFINITY, Pherialize.unserialize("d:INF;")
+            .toDouble(), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, Pherialize.unserialize(
+            "d:-INF;").toDouble(), 0);
+        assertTrue(Double.isNaN(Pherialize.unserialize("d:NAN;").toDouble()));
+        try
+        {
+            Pherialize.unserialize("d:1e;");
+            fail("Missing exponent digits not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
     }
 
 
@@ -241,6 +316,481 @@ public class UnserializerTest extends TestCase
         assertSame(ford, arthur.getArray("comrade"));
         assertSame(arthur, ford.getArray("comrade"));
     }
-    
-    
+
+
+    /**
+     * Tests unserializing large strings as lazy strings
+     */
+
+    public void testLazyStrings()
+    {
+        Unserializer unserializer;
+        String data;
+        MixedArray array;
+        LazyString lazy;
+
+        data = "a:2:{s:3:\"key\";s:52:\"Что такое машинное обучение?\";i:0;s:2:\"ab\";}";
+        unserializer = new Unserializer(data.getBytes(UTF8), UTF8);
+        unserializer.setLazyStringThreshold(10);
+        array = unserializer.unserializeObject().toArray();
+
+        lazy = (LazyString) array.getMixed("key").getValue();
+        assertFalse(lazy.isDecoded());
+        assertEquals(52, lazy.getByteLength());
+        assertTrue(array.getMixed("key").isString());
+        assertTrue(array.getMixed(0).getValue() instanceof String);
+
+        assertEquals(data, new String(new Serializer(UTF8).serializeToBytes(array), UTF8));
+        assertFalse(lazy.isDecoded());
+
+        assertEquals("Что такое машинное обучение?", array.getString("key"));
+        assertTrue(lazy.isDecoded());
+        assertEquals("Что такое машинное обучение?", array.getMixed("key").toObject());
+        assertEquals("Что такое машинное обучение?", array.getMixed("key").toType(Mixed.TYPE_STRING));
+    }
+
+
+    /**
+     * Tests unserializing binary strings as PHP bytes
+     */
+
+    public void testRawStrings()
+    {
+        Unserializer unserializer;
+        byte[] data, blob;
+        MixedArray array;
+        PhpBytes bytes;
+
+        blob = new byte[] { (byte) 0x1f, (byte) 0x8b, 0, (byte) 0xff, '"', ';' };
+        data = Pherialize.serializeToBytes(new MixedArray(
+            Collections.singletonMap("blob", PhpBytes.wrap(blob))), UTF8);
+
+        unserializer = new Unserializer(data, UTF8);
+        unserializer.setRawStrings(true);
+        array = unserializer.unserializeObject().toArray();
+        assertTrue(array.containsKey("blob"));
+        bytes = (PhpBytes) array.getMixed("blob").getValue();
+        assertTrue(array.getMixed("blob").isString());
+        assertTrue(Arrays.equals(blob, bytes.toByteArray()));
+        assertTrue(Arrays.equals(data, Pherialize.serializeToBytes(array, UTF8)));
+
+        // Without raw strings the binary data is corrupted by decoding
+        assertFalse(Arrays.equals(data, Pherialize.serializeToBytes(
+            Pherialize.unserialize(data, UTF8), UTF8)));
+
+        // Raw strings assigned to String fields are decoded with the charset
+        unserializer = new Unserializer("O:6:\"Person\":1:{s:4:\"name\";s:5:\"Jos\u00c3\u00a9\";}"
+            .getBytes(Charset.forName("ISO-8859-1")), UTF8);
+        unserializer.setRawStrings(true);
+        unserializer.setObjectFactory(new DefaultObjectFactory(Person.class.getPackage().getName()));
+        assertEquals("Jos\u00e9", ((Person) unserializer.unserializeObject().getValue()).name);
+
+        // Invalid lengths fail before allocating the string
+        for (String invalid : new String[] { "s:-1:\"\";", "s:2147483647:\"x\";" })
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                unserializer = i == 0 ? new Unserializer(invalid.getBytes(UTF8), UTF8)
+                    : new Unserializer(new InputStreamSource(new ByteArrayInputStream(
+                        invalid.getBytes(UTF8))), UTF8);
+                unserializer.setRawStrings(true);
+                try
+                {
+                    unserializer.unserializeObject();
+                    fail("Invalid length not detected: " + invalid);
+                }
+                catch (UnserializeException e)
+                {
+                    // Expected
+                }
+            }
+        }
+        unserializer = new Unserializer(new InputStreamSource(new ByteArrayInputStream(
+            ("s:20000:\"" + new String(new char[20000]).replace('\0', 'x') + "\";")
+                .getBytes(UTF8))), UTF8);
+        unserializer.setRawStrings(true);
+        assertEquals(20000, ((PhpBytes) unserializer.unserializeObject().getValue())
+            .toByteArray().length);
+    }
+
+
+    /**
+     * Tests unserializing lists into primitive arrays
+     */
+
+    public void testUnserializePrimitiveArrays()
+    {
+        Unserializer unserializer;
+
+        assertTrue(Arrays.equals(new int[] { 1, -2, 3 }, new Unserializer(
+            "a:3:{i:0;i:1;i:1;i:-2;i:2;i:3;}").unserializeIntArray()));
+        assertTrue(Arrays.equals(new long[] { 1, 9223372036854775807L },
+            new Unserializer("a:2:{i:0;i:1;i:1;i:9223372036854775807;}")
+                .unserializeLongArray()));
+        assertTrue(Arrays.equals(new double[] { 0.5, 2 }, new Unserializer(
+            "a:2:{i:0;d:0.5;i:1;i:2;}").unserializeDoubleArray()));
+        assertEquals(Arrays.asList("a", null, "b"), new Unserializer(
+            "a:3:{i:0;s:1:\"a\";i:1;N;i:2;s:1:\"b\";}").unserializeStringList());
+        assertNull(new Unserializer("N;").unserializeIntArray());
+        assertEquals(0, new Unserializer("a:0:{}").unserializeDoubleArray().length);
+
+        // Reference numbering continues after a primitive array
+        unserializer = new Unserializer("a:2:{i:0;i:1;i:1;i:2;}s:1:\"x\";R:4;");
+        unserializer.unserializeIntArray();
+        unserializer.unserializeObject();
+        assertEquals("x", unserializer.unserializeObject().toString());
+
+        // References to the elements of typed lists are rejected instead of
+        // resolving to null, references to the lists themselves work
+        for (int i = 0; i < 4; i++)
+        {
+            unserializer = new Unserializer(new String[] { "a:2:{i:0;i:5;i:1;i:6;}",
+                "a:2:{i:0;i:5;i:1;i:6;}", "a:2:{i:0;d:5;i:1;d:6;}",
+                "a:2:{i:0;s:1:\"a\";i:1;N;}" }[i] + "R:1;R:3;");
+            if (i == 0) unserializer.unserializeIntArray();
+            else if (i == 1) unserializer.unserializeLongArray();
+            else if (i == 2) unserializer.unserializeDoubleArray();
+            else unserializer.unserializeStringList();
+            assertNotNull(unserializer.unserializeObject().getValue());
+            try
+            {
+                unserializer.unserializeObject();
+                fail("Reference to typed list element not detected");
+            }
+            catch (UnserializeException e)
+            {
+                // Expected
+            }
+        }
+
+        try
+        {
+            new Unserializer("a:1:{i:1;i:1;}").unserializeIntArray();
+            fail("Non-list not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
+        try
+        {
+            new Unserializer("a:1:{i:0;s:1:\"a\";}").unserializeIntArray();
+            fail("Non-integer not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
+    }
+
+
+    /**
+     * Tests that negative and oversized element counts are rejected before
+     * anything is allocated and that lists read from streams grow as needed
+     */
+
+    public void testInvalidSizes()
+    {
+        StringBuilder builder;
+        int[] ints;
+
+        for (String data : new String[] { "a:-5:{i:0;i:1;}",
+            "a:2000000000:{i:0;i:1;}", "a:-1:{}", "O:8:\"stdClass\":-1:{}",
+            "O:8:\"stdClass\":1000000000:{}" })
+        {
+            try
+            {
+                new Unserializer(data).unserializeObject();
+                fail("Invalid size not detected in " + data);
+            }
+            catch (UnserializeException e)
+            {
+                // Expected
+            }
+            try
+            {
+                new Unserializer(data).unserializeIntArray();
+                fail("Invalid size not detected in " + data);
+            }
+            catch (UnserializeException e)
+            {
+                // Expected
+            }
+        }
+
+        builder = new StringBuilder("a:3000:{");
+        for (int i = 0; i < 3000; i++)
+        {
+            builder.append("i:").append(i).append(";i:").append(i * 2).append(';');
+        }
+        builder.append('}');
+        ints = new Unserializer(new InputStreamSource(new ByteArrayInputStream(
+            builder.toString().getBytes())), UTF8).unserializeIntArray();
+        assertEquals(3000, ints.length);
+        assertEquals(5998, ints[2999]);
+        try
+        {
+            new Unserializer(new InputStreamSource(new ByteArrayInputStream(
+                "a:2000000000:{i:0;i:1;}".getBytes())), UTF8).unserializeLongArray();
+            fail("Truncated list not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
+    }
+
+
+    /**
+     * Tests that numbers and strings read from byte arrays are parsed like
+     * the ones read from streams
+     */
+
+    public void testArrayValues()
+    {
+        String[] values = { "i:0;", "i:-7;", "i:123456789012345678;",
+            "i:9223372036854775807;", "i:-9223372036854775808;", "d:0.5;",
+            "d:-0;", "d:1.;", "d:.25;", "d:123456789.012345;",
+            "d:0.1234567890123456789;", "d:1.5E+25;", "d:-INF;", "d:NAN;",
+            "s:6:\"K\u00c3\u00b6nig\";", "s:0:\"\";" };
+        StringBuilder builder;
+        byte[] data;
+        MixedArray array, streamed;
+
+        builder = new StringBuilder("a:" + values.length + ":{");
+        for (int i = 0; i < values.length; i++)
+        {
+            builder.append("i:").append(i).append(';').append(values[i]);
+        }
+        builder.append('}');
+        data = builder.toString().getBytes(Charset.forName("ISO-8859-1"));
+        array = new Unserializer(data, UTF8).unserializeObject().toArray();
+        streamed = new Unserializer(new InputStreamSource(
+            new ByteArrayInputStream(data)), UTF8).unserializeObject().toArray();
+        assertEquals(values.length, array.size());
+        for (int i = 0; i < values.length; i++)
+        {
+            assertEquals(values[i], streamed.getMixed(i).getValue(),
+                array.getMixed(i).getValue());
+        }
+        assertEquals(Long.MIN_VALUE, array.getLong(4));
+        assertEquals(0.5, array.getDouble(5), 0);
+        assertEquals("K\u00f6nig", array.getString(14));
+
+        for (String invalid : new String[] { "i:;", "i:1:", "i:12a;",
+            "i:9223372036854775808;", "d:.;", "d:1.2.3;", "d:1", "s:9:\"x\";" })
+        {
+            try
+            {
+                new Unserializer(invalid).unserializeObject();
+                fail("Invalid value not detected: " + invalid);
+            }
+            catch (UnserializeException e)
+            {
+                // Expected
+            }
+        }
+    }
+
+
+    /**
+     * Tests that subclasses of ByteArraySource reading from the deprecated
+     * stream field still work
+     */
+
+    @SuppressWarnings("deprecation")
+    public void testByteArraySourceStream()
+    {
+        ByteArraySource source;
+
+        source = new ByteArraySource("a:1:{i:0;s:1:\"x\";}".getBytes(UTF8))
+        {
+            @Override
+            public int read()
+            {
+                return this.stream.read();
+            }
+        };
+        assertEquals("x", new Unserializer(source, UTF8).unserializeObject()
+            .toArray().getString(0));
+        assertEquals(-1, source.read());
+        assertEquals(source.getLimit(), source.getPosition());
+    }
+
+
+    /**
+     * Tests the numbering of values for references like PHP does it
+     */
+
+    public void testReferenceNumbering()
+    {
+        MixedArray array;
+        Unserializer unserializer;
+
+        // The object gets one number, its properties array none. Object
+        // references (r:) are numbered, variable references (R:) are not
+        array = new Unserializer(
+            "a:4:{i:0;O:8:\"stdClass\":1:{s:1:\"a\";i:1;}i:1;r:2;i:2;s:1:\"x\";i:3;R:5;}")
+            .unserializeObject().toArray();
+        assertSame(array.get(0), array.get(1));
+        assertEquals("x", array.getString(3));
+
+        // References can be disabled for reference-free payloads
+        unserializer = new Unserializer("a:1:{i:0;s:1:\"x\";}");
+        unserializer.setReferences(false);
+        assertEquals("x", unserializer.unserializeObject().toArray().getString(0));
+        unserializer = new Unserializer("a:2:{i:0;s:1:\"x\";i:1;R:2;}");
+        unserializer.setReferences(false);
+        try
+        {
+            unserializer.unserializeObject();
+            fail("Reference not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
+        try
+        {
+            new Unserializer("a:1:{i:0;R:5;}").unserializeObject();
+            fail("Invalid reference not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
+    }
+
+
+    /**
+     * Tests references from object properties back to the enclosing object
+     */
+
+    public void testSelfReference()
+    {
+        MixedArray object, array;
+        Unserializer unserializer;
+
+        object = Pherialize.unserialize("O:8:\"stdClass\":1:{s:4:\"self\";r:1;}").toArray();
+        assertSame(object, object.getArray("self"));
+        assertEquals("stdClass", object.getString("class"));
+
+        object = Pherialize.unserialize("O:8:\"stdClass\":1:{s:4:\"self\";R:1;}").toArray();
+        assertSame(object, object.getArray("self"));
+
+        array = Pherialize.unserialize(
+            "a:1:{i:0;O:8:\"stdClass\":2:{s:1:\"a\";i:1;s:4:\"self\";r:2;}}").toArray();
+        object = array.getArray(0);
+        assertSame(object, object.getArray("self"));
+        assertEquals(1, object.getInt("a"));
+
+        // Objects created by a factory can't be referenced while incomplete
+        unserializer = new Unserializer("O:6:\"Person\":1:{s:7:\"special\";r:1;}");
+        unserializer.setObjectFactory(new DefaultObjectFactory(Person.class.getPackage().getName()));
+        try
+        {
+            unserializer.unserializeObject();
+            fail("Reference to incomplete object not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
+    }
+
+
+    /**
+     * Tests unserializing deeply nested arrays
+     */
+
+    public void testDeepNesting()
+    {
+        StringBuilder builder;
+        Unserializer unserializer;
+        MixedArray array;
+        int depth;
+
+        builder = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+        {
+            builder.append("a:1:{i:0;");
+        }
+        builder.append("O:8:\"stdClass\":0:{}");
+        for (int i = 0; i < 100000; i++)
+        {
+            builder.append('}');
+        }
+
+        try
+        {
+            new Unserializer(builder.toString()).unserializeObject();
+            fail("Maximum depth not detected");
+        }
+        catch (UnserializeException e)
+        {
+            // Expected
+        }
+
+        unserializer = new Unserializer(builder.toString());
+        unserializer.setMaxDepth(200000);
+        array = unserializer.unserializeObject().toArray();
+        for (depth = 1; !array.getArray(0).containsKey("class"); depth++)
+        {
+            array = array.getArray(0);
+        }
+        assertEquals(100000, depth);
+        assertEquals("stdClass", array.getArray(0).getString("class"));
+    }
+
+
+    /**
+     * Tests the metrics reported by the unserializer and by the facade.
+     */
+
+    public void testMetrics()
+    {
+        final List<String> reported;
+        PherializeMetrics metrics;
+        Unserializer unserializer;
+        String data, expected;
+        byte[] bytes;
+
+        reported = new ArrayList<String>();
+        metrics = new PherializeMetrics()
+        {
+            public void serialized(final CallMetrics call)
+            {
+                fail("Unexpected serialize call");
+            }
+
+            public void unserialized(final CallMetrics call)
+            {
+                assertTrue(call.getElapsedNanos() > 0);
+                reported.add(call.toString().replaceAll(", elapsedNanos=.*", ""));
+            }
+        };
+        data = "a:4:{i:0;s:6:\"K\u00f6nig\";i:1;a:1:{s:1:\"x\";d:1.5;}i:2;R:3;i:3;N;}";
+        bytes = data.getBytes(UTF8);
+        expected = "bytes=" + bytes.length + ", strings=1, integers=0, doubles=1, "
+            + "booleans=0, nulls=1, arrays=2, objects=0, references=1, "
+            + "maxDepth=2, stringBytes=6";
+
+        unserializer = new Unserializer(new InputStreamSource(
+            new ByteArrayInputStream(bytes)), UTF8);
+        unserializer.setMetrics(metrics);
+        unserializer.unserializeObject();
+        assertEquals(Arrays.asList(expected), reported);
+
+        Pherialize.setMetrics(metrics);
+        try
+        {
+            Pherialize.unserialize(data, UTF8);
+        }
+        finally
+        {
+            Pherialize.setMetrics(null);
+        }
+        Pherialize.unserialize(data, UTF8);
+        assertEquals(Arrays.asList(expected, expected), reported);
+    }
 }
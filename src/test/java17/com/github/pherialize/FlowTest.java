@@ -0,0 +1,433 @@
+package com.github.pherialize;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import com.github.pherialize.exceptions.UnserializeException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Tests the SerializerPublisher and the UnserializerProcessor. These classes
+ * are only loaded from the packaged JAR, so this test runs in the
+ * integration-test phase against the JAR and is excluded from the normal test
+ * run.
+ *
+ * @version $Revision$
+ */
+
+public class FlowTest extends TestCase
+{
+    /** The charset used in the tests */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+    /**
+     * Returns the test suite.
+     *
+     * @return The test suite
+     */
+
+    public static Test suite()
+    {
+        return new TestSuite(FlowTest.class);
+    }
+
+
+    /**
+     * Subscriber recording the received items. Requests the specified number
+     * of items on subscription and one more item per received item if
+     * enabled.
+     *
+     * @param <T>
+     *            The item type
+     */
+
+    private static class Recorder<T> implements Flow.Subscriber<T>
+    {
+        /** The received items */
+        final List<T> items = new ArrayList<T>();
+
+        /** The number of items requested on subscription */
+        private final long initial;
+
+        /** If another item is requested per received item */
+        private final boolean continuous;
+
+        /** Counted down on completion or error */
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        /** The subscription */
+        Flow.Subscription subscription;
+
+        /** The received error. Null if none */
+        volatile Throwable error;
+
+        /** If the subscriber completed */
+        volatile boolean completed;
+
+
+        /**
+         * Constructor
+         *
+         * @param initial
+         *            The number of items requested on subscription
+         * @param continuous
+         *            If another item is requested per received item
+         */
+
+        Recorder(final long initial, final boolean continuous)
+        {
+            this.initial = initial;
+            this.continuous = continuous;
+        }
+
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            if (this.initial != 0) subscription.request(this.initial);
+        }
+
+
+        @Override
+        public void onNext(final T item)
+        {
+            assertNotNull(item);
+            assertFalse(this.completed || this.error != null);
+            this.items.add(item);
+            if (this.continuous) this.subscription.request(1);
+        }
+
+
+        @Override
+        public void onError(final Throwable throwable)
+        {
+            this.error = throwable;
+            this.finished.countDown();
+        }
+
+
+        @Override
+        public void onComplete()
+        {
+            this.completed = true;
+            this.finished.countDown();
+        }
+    }
+
+
+    /**
+     * Publisher emitting the specified chunks on demand.
+     */
+
+    private static class ChunkPublisher implements Flow.Publisher<ByteBuffer>
+    {
+        /** The chunks to publish */
+        private final Iterator<ByteBuffer> chunks;
+
+
+        /**
+         * Constructor
+         *
+         * @param data
+         *            The data to publish
+         * @param chunkSize
+         *            The size of the published chunks
+         */
+
+        ChunkPublisher(final byte[] data, final int chunkSize)
+        {
+            final List<ByteBuffer> list;
+
+            list = new ArrayList<ByteBuffer>();
+            for (int i = 0; i < data.length; i += chunkSize)
+            {
+                list.add(ByteBuffer.wrap(data, i, Math.min(chunkSize, data.length - i)));
+            }
+            this.chunks = list.iterator();
+        }
+
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber)
+        {
+            subscriber.onSubscribe(new Flow.Subscription()
+            {
+                @Override
+                public void request(final long n)
+                {
+                    for (long i = 0; i < n; i++)
+                    {
+                        if (!ChunkPublisher.this.chunks.hasNext())
+                        {
+                            subscriber.onComplete();
+                            return;
+                        }
+                        subscriber.onNext(ChunkPublisher.this.chunks.next());
+                    }
+                }
+
+                @Override
+                public void cancel()
+                {
+                    // Nothing to do
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Creates a publisher serializing the specified number of strings.
+     *
+     * @param count
+     *            The number of strings
+     * @param pool
+     *            The pool providing the chunks
+     * @return The publisher
+     */
+
+    private static SerializerPublisher createPublisher(final int count,
+        final ByteBufferPool pool)
+    {
+        final List<String> strings;
+
+        strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++)
+            strings.add("Element " + i);
+        return new SerializerPublisher(new ChunkedSerializer(
+            new Serializer(UTF8), strings), pool);
+    }
+
+
+    /**
+     * Tests streaming a list from the publisher through the processor with
+     * pooled chunks.
+     */
+
+    public void testRoundTrip()
+    {
+        final ByteBufferPool pool;
+        final UnserializerProcessor processor;
+        final Recorder<Mixed> recorder;
+
+        pool = new ByteBufferPool(64, 4, false);
+        processor = new UnserializerProcessor(UTF8, true);
+        processor.setPool(pool);
+        recorder = new Recorder<Mixed>(1, true);
+        createPublisher(1000, pool).subscribe(processor);
+        processor.subscribe(recorder);
+
+        assertNull(recorder.error);
+        assertTrue(recorder.completed);
+        assertEquals(1000, recorder.items.size());
+        for (int i = 0; i < 1000; i++)
+            assertEquals("Element " + i, recorder.items.get(i).toString());
+
+        // Only one chunk is in use at a time, so a single chunk is recycled
+        assertEquals(1, pool.getPooled());
+    }
+
+
+    /**
+     * Tests the round trip with the publisher running in another thread.
+     */
+
+    public void testExecutor() throws InterruptedException
+    {
+        final ExecutorService executor;
+        final ByteBufferPool pool;
+        final UnserializerProcessor processor;
+        final Recorder<Mixed> recorder;
+        final List<Integer> list;
+
+        executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            list = new ArrayList<Integer>();
+            for (int i = 0; i < 10000; i++)
+                list.add(Integer.valueOf(i));
+            pool = new ByteBufferPool(100, 4, true);
+            processor = new UnserializerProcessor(UTF8, false);
+            processor.setPool(pool);
+            recorder = new Recorder<Mixed>(Long.MAX_VALUE, false);
+            new SerializerPublisher(new ChunkedSerializer(new Serializer(UTF8),
+                list), pool, executor).subscribe(processor);
+            processor.subscribe(recorder);
+
+            assertTrue(recorder.finished.await(10, TimeUnit.SECONDS));
+            assertNull(recorder.error);
+            assertEquals(1, recorder.items.size());
+            assertEquals(10000, recorder.items.get(0).toArray().size());
+            assertEquals(9999, recorder.items.get(0).toArray().getInt(9999));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+
+    /**
+     * Tests that chunks are only serialized and values only parsed as far as
+     * they are requested.
+     */
+
+    public void testDemand()
+    {
+        final UnserializerProcessor processor;
+        final Recorder<Mixed> recorder;
+        final Recorder<ByteBuffer> chunks;
+        final int[] produced;
+        final Iterator<Integer> iterator;
+
+        // The publisher serializes only the requested chunk
+        produced = new int[1];
+        iterator = new Iterator<Integer>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return produced[0] < 1000;
+            }
+
+            @Override
+            public Integer next()
+            {
+                return Integer.valueOf(produced[0]++);
+            }
+        };
+        chunks = new Recorder<ByteBuffer>(0, false);
+        new SerializerPublisher(new ChunkedSerializer(new Serializer(UTF8),
+            iterator, 1000), new ByteBufferPool(32, 1, false)).subscribe(chunks);
+        assertEquals(0, chunks.items.size());
+        chunks.subscription.request(1);
+        assertEquals(1, chunks.items.size());
+        assertEquals(32, chunks.items.get(0).remaining());
+        assertTrue(produced[0] < 10);
+
+        // The processor emits only the requested values
+        processor = new UnserializerProcessor(UTF8, true);
+        recorder = new Recorder<Mixed>(2, false);
+        createPublisher(1000, new ByteBufferPool(64, 1, false)).subscribe(processor);
+        processor.subscribe(recorder);
+        assertEquals(2, recorder.items.size());
+        assertFalse(recorder.completed);
+        recorder.subscription.request(3);
+        assertEquals(5, recorder.items.size());
+        assertEquals("Element 4", recorder.items.get(4).toString());
+        recorder.subscription.cancel();
+        assertFalse(recorder.completed);
+        assertNull(recorder.error);
+    }
+
+
+    /**
+     * Tests back-to-back values split across chunks, including NULL.
+     */
+
+    public void testValues()
+    {
+        final UnserializerProcessor processor;
+        final Recorder<Mixed> recorder;
+
+        processor = new UnserializerProcessor(UTF8, true);
+        recorder = new Recorder<Mixed>(Long.MAX_VALUE, false);
+        new ChunkPublisher("i:42;N;s:6:\"König\";a:2:{i:0;b:1;i:1;N;}d:0.5;"
+            .getBytes(UTF8), 3).subscribe(processor);
+        processor.subscribe(recorder);
+
+        assertNull(recorder.error);
+        assertTrue(recorder.completed);
+        assertEquals(6, recorder.items.size());
+        assertEquals(42, recorder.items.get(0).toInt());
+        assertNull(recorder.items.get(1).getValue());
+        assertEquals("König", recorder.items.get(2).toString());
+        assertTrue(recorder.items.get(3).toBoolean());
+        assertNull(recorder.items.get(4).getValue());
+        assertEquals(0.5, recorder.items.get(5).toDouble(), 0);
+    }
+
+
+    /**
+     * Tests the reported errors.
+     */
+
+    public void testErrors()
+    {
+        final SerializerPublisher publisher;
+        final UnserializerProcessor processor;
+        Recorder<Mixed> recorder;
+        Recorder<ByteBuffer> chunks;
+
+        // The data can only be published once
+        publisher = createPublisher(10, new ByteBufferPool());
+        chunks = new Recorder<ByteBuffer>(1, false);
+        publisher.subscribe(chunks);
+        assertEquals(1, chunks.items.size());
+        chunks = new Recorder<ByteBuffer>(1, false);
+        publisher.subscribe(chunks);
+        assertTrue(chunks.error instanceof IllegalStateException);
+
+        // The processor accepts only one subscriber
+        processor = new UnserializerProcessor(UTF8, false);
+        processor.subscribe(new Recorder<Mixed>(0, false));
+        recorder = new Recorder<Mixed>(1, false);
+        processor.subscribe(recorder);
+        assertTrue(recorder.error instanceof IllegalStateException);
+
+        // Requests must be positive
+        chunks = new Recorder<ByteBuffer>(0, false);
+        createPublisher(10, new ByteBufferPool()).subscribe(chunks);
+        chunks.subscription.request(0);
+        assertTrue(chunks.error instanceof IllegalArgumentException);
+        recorder = new Recorder<Mixed>(-1, false);
+        new UnserializerProcessor(UTF8, false).subscribe(recorder);
+        assertTrue(recorder.error instanceof IllegalArgumentException);
+
+        // Truncated and malformed data
+        recorder = new Recorder<Mixed>(Long.MAX_VALUE, false);
+        subscribe("i:1;s:5:\"Hel", recorder);
+        assertEquals(1, recorder.items.size());
+        assertTrue(recorder.error instanceof UnserializeException);
+        recorder = new Recorder<Mixed>(Long.MAX_VALUE, false);
+        subscribe("i:1;x:1;", recorder);
+        assertEquals(1, recorder.items.size());
+        assertTrue(recorder.error instanceof UnserializeException);
+        assertFalse(recorder.completed);
+    }
+
+
+    /**
+     * Streams the specified data through a processor to the specified
+     * subscriber.
+     *
+     * @param data
+     *            The serialized data
+     * @param subscriber
+     *            The subscriber
+     */
+
+    private static void subscribe(final String data,
+        final Flow.Subscriber<Mixed> subscriber)
+    {
+        final UnserializerProcessor processor;
+
+        processor = new UnserializerProcessor(UTF8, false);
+        new ChunkPublisher(data.getBytes(UTF8), 4).subscribe(processor);
+        processor.subscribe(subscriber);
+    }
+}
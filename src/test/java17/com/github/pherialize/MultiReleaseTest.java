@@ -0,0 +1,190 @@
+package com.github.pherialize;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.github.pherialize.IncrementalUnserializer.State;
+import com.github.pherialize.factory.DefaultObjectFactory;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Tests the JDK 17 classes of the multi-release JAR. These classes are only
+ * loaded from the packaged JAR, so this test runs in the integration-test
+ * phase against the JAR and is excluded from the normal test run.
+ *
+ * @version $Revision$
+ */
+
+public class MultiReleaseTest extends TestCase
+{
+    /** The charset used in the tests */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+    /**
+     * Returns the test suite.
+     *
+     * @return The test suite
+     */
+
+    public static Test suite()
+    {
+        return new TestSuite(MultiReleaseTest.class);
+    }
+
+
+    /**
+     * Tests that the classes are loaded from the versioned part of the JAR.
+     */
+
+    public void testVersionedClasses()
+    {
+        for (final Class<?> type : Arrays.asList(ByteScanner.class, Events.class))
+        {
+            assertTrue(type.getName() + " not loaded from the multi-release JAR",
+                type.getResource(type.getSimpleName() + ".class").toString()
+                    .contains("META-INF/versions/17/"));
+        }
+        assertEquals(8, new ByteScanner("12345678901;".getBytes(UTF8))
+            .indexOf((byte) '9', 0, 12));
+        assertEquals(11, new ByteScanner("12345678901;".getBytes(UTF8))
+            .skipDigits(0, 12));
+    }
+
+
+    /**
+     * Tests that serializing, unserializing and hydrating emit flight
+     * recorder events.
+     */
+
+    public void testEvents() throws Exception
+    {
+        Path file;
+        List<String> names;
+        Unserializer unserializer;
+        byte[] data;
+
+        file = Files.createTempFile("pherialize", ".jfr");
+        try (Recording recording = new Recording())
+        {
+            recording.enable("pherialize.Serialize");
+            recording.enable("pherialize.Unserialize");
+            recording.enable("pherialize.Hydrate");
+            recording.start();
+            data = Pherialize.serializeToBytes(new Person("Arthur Dent", 42, true, null), UTF8);
+            unserializer = new Unserializer(data, UTF8);
+            unserializer.setObjectFactory(new DefaultObjectFactory(
+                Person.class.getPackage().getName()));
+            unserializer.unserializeObject();
+            recording.stop();
+            recording.dump(file);
+
+            names = new ArrayList<String>();
+            for (final RecordedEvent event : RecordingFile.readAllEvents(file))
+            {
+                names.add(event.getEventType().getName());
+                if (event.getEventType().getName().equals("pherialize.Unserialize"))
+                {
+                    assertEquals(data.length, event.getLong("payloadSize"));
+                }
+                if (event.getEventType().getName().equals("pherialize.Hydrate"))
+                {
+                    assertEquals("Person", event.getString("className"));
+                }
+            }
+            assertTrue(names.toString(), names.containsAll(Arrays.asList(
+                "pherialize.Serialize", "pherialize.Unserialize", "pherialize.Hydrate")));
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+
+    /**
+     * Tests that decoding a top-level array entry by entry emits a single
+     * unserialize event for the whole array.
+     */
+
+    public void testEntryEvents() throws Exception
+    {
+        Path file;
+        List<RecordedEvent> events;
+        List<Object> list;
+        ExecutorService executor;
+        ParallelUnserializer parallel;
+        IncrementalUnserializer incremental;
+        ByteBuffer buffer;
+        byte[] data;
+        int entries;
+
+        list = new ArrayList<Object>();
+        for (int i = 0; i < 100; i++)
+            list.add(Arrays.asList("Entry " + i, i));
+        data = Pherialize.serializeToBytes(list, UTF8);
+        file = Files.createTempFile("pherialize", ".jfr");
+        executor = Executors.newFixedThreadPool(4);
+        try (Recording recording = new Recording())
+        {
+            recording.enable("pherialize.Unserialize").withoutThreshold();
+            recording.start();
+            parallel = new ParallelUnserializer(data, UTF8);
+            parallel.setMinTaskSize(1);
+            assertEquals(100, parallel.unserialize(executor).toArray().size());
+            recording.stop();
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+            assertEquals(1, events.size());
+            assertEquals(data.length, events.get(0).getLong("payloadSize"));
+            assertEquals(301, events.get(0).getInt("elements"));
+        }
+        finally
+        {
+            executor.shutdown();
+            Files.deleteIfExists(file);
+        }
+
+        try (Recording recording = new Recording())
+        {
+            recording.enable("pherialize.Unserialize").withoutThreshold();
+            recording.start();
+            incremental = new IncrementalUnserializer(UTF8);
+            incremental.setEntries(true);
+            entries = 0;
+            for (int i = 0; i < data.length; i += 10)
+            {
+                buffer = ByteBuffer.wrap(data, i, Math.min(10, data.length - i));
+                while (buffer.hasRemaining())
+                {
+                    if (incremental.feed(buffer) == State.ENTRY) entries++;
+                }
+            }
+            assertEquals(100, entries);
+            recording.stop();
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+            assertEquals(1, events.size());
+            assertEquals(data.length, events.get(0).getLong("payloadSize"));
+            assertEquals(301, events.get(0).getInt("elements"));
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+}